@@ -1,13 +1,46 @@
 package com.example.securenote;
 
 import android.app.Application;
+import android.content.SharedPreferences;
+
 import androidx.lifecycle.ViewModelStore;
 import androidx.lifecycle.ViewModelStoreOwner;
 
+import com.example.securenote.data.AppDatabase;
+import com.example.securenote.data.AttachmentBlobStore;
+import com.example.securenote.data.AttachmentGarbageCollector;
+import com.example.securenote.data.BackfillRunner;
+import com.example.securenote.data.KeyRotationManager;
+import com.example.securenote.data.NoteFormatBackfill;
+import com.example.securenote.data.TrashPurger;
+import com.example.securenote.util.CompressionCodec;
+
 public class MyApp extends Application implements ViewModelStoreOwner {
 
+    public static final String PREFS_STORAGE = "storage_prefs";
+    public static final String KEY_COMPRESS = "compress_before_encrypt";
+
     private final ViewModelStore appViewModelStore = new ViewModelStore();
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Compression only affects new writes; compressed data is always readable
+        SharedPreferences prefs = getSharedPreferences(PREFS_STORAGE, MODE_PRIVATE);
+        CompressionCodec.setEnabled(prefs.getBoolean(KEY_COMPRESS, true));
+
+        // Background data backfills; completed ones are skipped, interrupted ones resume
+        BackfillRunner.getInstance(this).enqueue(new NoteFormatBackfill(AppDatabase.getInstance(this)));
+        KeyRotationManager.getInstance(this).resumeIfPending();
+        // Reclaims space left in blob pack files by attachments deleted last session
+        AttachmentBlobStore.getInstance(this).scheduleCompaction();
+        // Orphaned attachments and stale decrypted temp files, at most once a day
+        AttachmentGarbageCollector.getInstance(this).runIfDue();
+        // Notes past the trash retention period
+        TrashPurger.getInstance(this).runIfDue();
+    }
+
     @Override
     public ViewModelStore getViewModelStore() {
         return appViewModelStore;
@@ -10,7 +10,12 @@ import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.example.securenote.model.Attachment;
+import com.example.securenote.model.AttachmentBlob;
+import com.example.securenote.model.MigrationProgress;
 import com.example.securenote.model.Note;
+import com.example.securenote.model.NoteBlock;
+import com.example.securenote.model.StorageTotals;
+import com.example.securenote.model.TodoProgress;
 import com.example.securenote.model.UserProfile;
 import com.example.securenote.model.TodoItem;
 
@@ -19,9 +24,14 @@ import com.example.securenote.model.TodoItem;
                 Note.class,
                 Attachment.class,
                 UserProfile.class,
-                TodoItem.class
+                TodoItem.class,
+                MigrationProgress.class,
+                AttachmentBlob.class,
+                StorageTotals.class,
+                TodoProgress.class,
+                NoteBlock.class
         },
-        version = 7,
+        version = 19,
         exportSchema = true
 )
 public abstract class AppDatabase extends RoomDatabase {
@@ -32,10 +42,16 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract AttachmentDao attachmentDao();
     public abstract UserProfileDao userProfileDao();
     public abstract TodoDao todoDao();   // <-- ADD DAO
+    public abstract MigrationProgressDao migrationProgressDao();
+    public abstract AttachmentBlobDao attachmentBlobDao();
+    public abstract StorageDao storageDao();
+    public abstract NoteBlockDao noteBlockDao();
 
     // ---------------------
     // MIGRATIONS
     // ---------------------
+    // Migrations only change the schema and must stay fast. Anything that has to rewrite
+    // row data goes into a Backfill run by BackfillRunner after startup.
 
     private static final Migration MIGRATION_5_6 = new Migration(5, 6) {
         @Override
@@ -53,10 +69,287 @@ public abstract class AppDatabase extends RoomDatabase {
         }
     };
 
+    // Key rotation: which Keystore key version each row is encrypted with
+    private static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `keyVersion` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `attachments` ADD COLUMN `keyVersion` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Checkpoints for background backfills
+    private static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `migration_progress` (" +
+                            "`name` TEXT NOT NULL PRIMARY KEY, " +
+                            "`cursor` TEXT, " +
+                            "`done` INTEGER NOT NULL, " +
+                            "`failed` INTEGER NOT NULL, " +
+                            "`completed` INTEGER NOT NULL, " +
+                            "`updatedAt` INTEGER NOT NULL" +
+                            ")"
+            );
+        }
+    };
+
+    // Content-addressed attachment store; existing attachments keep their own files
+    private static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `attachment_blobs` (" +
+                            "`id` TEXT NOT NULL PRIMARY KEY, " +
+                            "`refCount` INTEGER NOT NULL, " +
+                            "`sizeBytes` INTEGER NOT NULL, " +
+                            "`storedBytes` INTEGER NOT NULL, " +
+                            "`keyVersion` INTEGER NOT NULL, " +
+                            "`createdAt` INTEGER NOT NULL" +
+                            ")"
+            );
+            db.execSQL("ALTER TABLE `attachments` ADD COLUMN `blobId` TEXT");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_attachments_blobId` ON `attachments` (`blobId`)");
+        }
+    };
+
+    private static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            // Existing blobs keep their dedicated files (packId NULL)
+            db.execSQL("ALTER TABLE `attachment_blobs` ADD COLUMN `packId` INTEGER");
+            db.execSQL("ALTER TABLE `attachment_blobs` ADD COLUMN `packOffset` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_attachment_blobs_packId` ON `attachment_blobs` (`packId`)");
+        }
+    };
+
+    private static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `attachments` ADD COLUMN `originalSizeBytes` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Running storage totals for the storage screen
+    private static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `storage_totals` (" +
+                            "`id` INTEGER NOT NULL PRIMARY KEY, " +
+                            "`noteCount` INTEGER NOT NULL, " +
+                            "`noteBytes` INTEGER NOT NULL, " +
+                            "`attachmentCount` INTEGER NOT NULL, " +
+                            "`attachmentBytes` INTEGER NOT NULL" +
+                            ")"
+            );
+            // One aggregate over each table, once; the triggers keep it current from here on
+            db.execSQL("INSERT OR REPLACE INTO `storage_totals` VALUES (1, " +
+                    "(SELECT COUNT(*) FROM `notes`), " +
+                    "(SELECT IFNULL(SUM(" + noteBytes("") + "), 0) FROM `notes`), " +
+                    "(SELECT COUNT(*) FROM `attachments`), " +
+                    "(SELECT IFNULL(SUM(`sizeBytes`), 0) FROM `attachments`))");
+            createStorageTriggers(db);
+        }
+    };
+
+    // Trash retention: when each note was trashed (0 for notes trashed before this)
+    private static final Migration MIGRATION_13_14 = new Migration(13, 14) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `trashedAt` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_trashedAt` ON `notes` (`trashedAt`)");
+        }
+    };
+
+    // Fractional todo ordering; existing items keep rank NULL and their position until
+    // their list is first reordered (NoteRepository ranks a whole list at once)
+    private static final Migration MIGRATION_14_15 = new Migration(14, 15) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `todo_items` ADD COLUMN `rank` TEXT");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_todo_items_noteId_rank` ON `todo_items` (`noteId`, `rank`)");
+        }
+    };
+
+    // Per-note checklist counters for the note cards
+    private static final Migration MIGRATION_15_16 = new Migration(15, 16) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `todo_progress` (" +
+                            "`noteId` TEXT NOT NULL PRIMARY KEY, " +
+                            "`total` INTEGER NOT NULL, " +
+                            "`done` INTEGER NOT NULL" +
+                            ")"
+            );
+            // One grouped pass over todo_items, once; the triggers keep it current from here on
+            db.execSQL("INSERT OR REPLACE INTO `todo_progress` " +
+                    "SELECT `noteId`, COUNT(*), SUM(`isCompleted`) FROM `todo_items` " +
+                    "WHERE `noteId` IS NOT NULL GROUP BY `noteId`");
+            createTodoProgressTriggers(db);
+        }
+    };
+
+    // Cross-note open tasks list
+    private static final Migration MIGRATION_16_17 = new Migration(16, 17) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_todo_items_isCompleted_createdAt` " +
+                    "ON `todo_items` (`isCompleted`, `createdAt`)");
+        }
+    };
+
+    // Large note bodies as encrypted blocks; existing notes stay inline until their next save
+    private static final Migration MIGRATION_17_18 = new Migration(17, 18) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `notes` ADD COLUMN `blockCount` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL(
+                    "CREATE TABLE IF NOT EXISTS `note_blocks` (" +
+                            "`id` TEXT NOT NULL PRIMARY KEY, " +
+                            "`noteId` TEXT, " +
+                            "`ord` INTEGER NOT NULL, " +
+                            "`mac` TEXT, " +
+                            "`encryptedHtml` TEXT, " +
+                            "`keyVersion` INTEGER NOT NULL" +
+                            ")"
+            );
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_blocks_noteId_ord` ON `note_blocks` (`noteId`, `ord`)");
+            createNoteBlockTriggers(db);
+        }
+    };
+
+    // Open tasks paging orders by (createdAt, id); with id in the index every page is a
+    // range seek, also across todos created in the same millisecond (imports, restores)
+    private static final Migration MIGRATION_18_19 = new Migration(18, 19) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("DROP INDEX IF EXISTS `index_todo_items_isCompleted_createdAt`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_todo_items_isCompleted_createdAt_id` " +
+                    "ON `todo_items` (`isCompleted`, `createdAt`, `id`)");
+        }
+    };
+
     private static final Migration[] ALL_MIGRATIONS = new Migration[]{
-            MIGRATION_5_6
+            MIGRATION_5_6,
+            MIGRATION_7_8,
+            MIGRATION_8_9,
+            MIGRATION_9_10,
+            MIGRATION_10_11,
+            MIGRATION_11_12,
+            MIGRATION_12_13,
+            MIGRATION_13_14,
+            MIGRATION_14_15,
+            MIGRATION_15_16,
+            MIGRATION_16_17,
+            MIGRATION_17_18,
+            MIGRATION_18_19
+    };
+
+    // Schemas before 7 have no complete migration path (6 -> 7 was never written);
+    // only those may still be rebuilt. From 7 on a missing migration is a crash, not data loss.
+    private static final int[] DESTRUCTIVE_FROM = {1, 2, 3, 4, 5, 6};
+
+
+    // ---------------------
+    // TRIGGER-MAINTAINED TOTALS
+    // ---------------------
+    // Room has no annotation for triggers, so they are created here for new databases
+    // and in the migration that added each table (12_13, 15_16, 17_18) for upgraded ones.
+
+    private static final RoomDatabase.Callback TRIGGERS_CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("INSERT OR REPLACE INTO `storage_totals` VALUES (1, 0, 0, 0, 0)");
+            createStorageTriggers(db);
+            createTodoProgressTriggers(db);
+            createNoteBlockTriggers(db);
+        }
+
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            // @Insert(onConflict = REPLACE) deletes the old row first; without this the
+            // DELETE triggers would not see it and the totals would only ever grow
+            db.execSQL("PRAGMA recursive_triggers = ON");
+        }
     };
 
+    private static String noteBytes(String row) {
+        return "IFNULL(LENGTH(" + row + "`encryptedTitle`), 0) + IFNULL(LENGTH(" + row + "`encryptedContent`), 0)";
+    }
+
+    private static void createStorageTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_notes_insert` AFTER INSERT ON `notes` BEGIN " +
+                "UPDATE `storage_totals` SET `noteCount` = `noteCount` + 1, " +
+                "`noteBytes` = `noteBytes` + " + noteBytes("NEW.") + " WHERE `id` = 1; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_notes_delete` AFTER DELETE ON `notes` BEGIN " +
+                "UPDATE `storage_totals` SET `noteCount` = `noteCount` - 1, " +
+                "`noteBytes` = `noteBytes` - (" + noteBytes("OLD.") + ") WHERE `id` = 1; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_notes_update` " +
+                "AFTER UPDATE OF `encryptedTitle`, `encryptedContent` ON `notes` BEGIN " +
+                "UPDATE `storage_totals` SET `noteBytes` = `noteBytes` + " + noteBytes("NEW.") +
+                " - (" + noteBytes("OLD.") + ") WHERE `id` = 1; END");
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_attachments_insert` AFTER INSERT ON `attachments` BEGIN " +
+                "UPDATE `storage_totals` SET `attachmentCount` = `attachmentCount` + 1, " +
+                "`attachmentBytes` = `attachmentBytes` + NEW.`sizeBytes` WHERE `id` = 1; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_attachments_delete` AFTER DELETE ON `attachments` BEGIN " +
+                "UPDATE `storage_totals` SET `attachmentCount` = `attachmentCount` - 1, " +
+                "`attachmentBytes` = `attachmentBytes` - OLD.`sizeBytes` WHERE `id` = 1; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_attachments_update` " +
+                "AFTER UPDATE OF `sizeBytes` ON `attachments` BEGIN " +
+                "UPDATE `storage_totals` SET `attachmentBytes` = `attachmentBytes` + NEW.`sizeBytes` " +
+                "- OLD.`sizeBytes` WHERE `id` = 1; END");
+    }
+
+    private static void createNoteBlockTriggers(SupportSQLiteDatabase db) {
+        // Block ciphertext counts towards note storage like encryptedContent does
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_note_blocks_insert` AFTER INSERT ON `note_blocks` BEGIN " +
+                "UPDATE `storage_totals` SET `noteBytes` = `noteBytes` + IFNULL(LENGTH(NEW.`encryptedHtml`), 0) " +
+                "WHERE `id` = 1; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_note_blocks_delete` AFTER DELETE ON `note_blocks` BEGIN " +
+                "UPDATE `storage_totals` SET `noteBytes` = `noteBytes` - IFNULL(LENGTH(OLD.`encryptedHtml`), 0) " +
+                "WHERE `id` = 1; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `storage_note_blocks_update` " +
+                "AFTER UPDATE OF `encryptedHtml` ON `note_blocks` BEGIN " +
+                "UPDATE `storage_totals` SET `noteBytes` = `noteBytes` + IFNULL(LENGTH(NEW.`encryptedHtml`), 0) " +
+                "- IFNULL(LENGTH(OLD.`encryptedHtml`), 0) WHERE `id` = 1; END");
+        // Every way of deleting a note (editor, bulk, trash purge, restore) drops its blocks.
+        // A REPLACE insert also lands here; NoteRepository saves block notes with UPDATE for that reason.
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `note_blocks_note_delete` AFTER DELETE ON `notes` BEGIN " +
+                "DELETE FROM `note_blocks` WHERE `noteId` = OLD.`id`; END");
+    }
+
+    // The row is created with NOT EXISTS rather than INSERT OR IGNORE: inside a trigger the
+    // outer statement's conflict policy wins, and TodoDao inserts with REPLACE, which would
+    // reset the counters.
+    private static String addTodo(String row) {
+        return "INSERT INTO `todo_progress` SELECT " + row + "`noteId`, 0, 0 WHERE " + row + "`noteId` IS NOT NULL AND NOT EXISTS " +
+                "(SELECT 1 FROM `todo_progress` WHERE `noteId` = " + row + "`noteId`); " +
+                "UPDATE `todo_progress` SET `total` = `total` + 1, `done` = `done` + " + row +
+                "`isCompleted` WHERE `noteId` = " + row + "`noteId`; ";
+    }
+
+    private static String removeTodo(String row) {
+        return "UPDATE `todo_progress` SET `total` = `total` - 1, `done` = `done` - " + row +
+                "`isCompleted` WHERE `noteId` = " + row + "`noteId`; " +
+                "DELETE FROM `todo_progress` WHERE `noteId` = " + row + "`noteId` AND `total` <= 0; ";
+    }
+
+    private static void createTodoProgressTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `todo_progress_insert` AFTER INSERT ON `todo_items` " +
+                "WHEN NEW.`noteId` IS NOT NULL BEGIN " + addTodo("NEW.") + "END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `todo_progress_delete` AFTER DELETE ON `todo_items` " +
+                "WHEN OLD.`noteId` IS NOT NULL BEGIN " + removeTodo("OLD.") + "END");
+        // Text and rank edits (the common case) do not touch the counters
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS `todo_progress_update` " +
+                "AFTER UPDATE OF `isCompleted`, `noteId` ON `todo_items` " +
+                "WHEN OLD.`isCompleted` != NEW.`isCompleted` OR OLD.`noteId` IS NOT NEW.`noteId` BEGIN " +
+                removeTodo("OLD.") + addTodo("NEW.") + "END");
+    }
+
 
     // ---------------------
     // INSTANCE
@@ -70,8 +363,9 @@ public abstract class AppDatabase extends RoomDatabase {
                                     AppDatabase.class,
                                     "securenote_db"
                             )
-                            .fallbackToDestructiveMigration()
+                            .fallbackToDestructiveMigrationFrom(DESTRUCTIVE_FROM)
                             .addMigrations(ALL_MIGRATIONS)
+                            .addCallback(TRIGGERS_CALLBACK)
                             .build();
                 }
             }
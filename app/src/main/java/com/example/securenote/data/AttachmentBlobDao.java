@@ -0,0 +1,72 @@
+package com.example.securenote.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.securenote.model.AttachmentBlob;
+
+import java.util.List;
+
+@Dao
+public interface AttachmentBlobDao {
+
+    @Query("SELECT * FROM attachment_blobs WHERE id = :id")
+    AttachmentBlob get(String id);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertIfAbsent(AttachmentBlob blob);
+
+    @Query("UPDATE attachment_blobs SET refCount = refCount + 1 WHERE id = :id")
+    void addRef(String id);
+
+    @Query("UPDATE attachment_blobs SET refCount = refCount - 1 WHERE id = :id")
+    void releaseRef(String id);
+
+    @Query("DELETE FROM attachment_blobs WHERE id = :id AND refCount <= 0")
+    int deleteIfUnreferenced(String id);
+
+    @Query("UPDATE attachment_blobs SET keyVersion = :keyVersion, storedBytes = :storedBytes WHERE id = :id")
+    void setKeyVersion(String id, int keyVersion, long storedBytes);
+
+    /** Points a blob at a new copy of its data (packId null = dedicated file). */
+    @Query("UPDATE attachment_blobs SET packId = :packId, packOffset = :packOffset, " +
+            "keyVersion = :keyVersion, storedBytes = :storedBytes WHERE id = :id")
+    void setLocation(String id, Integer packId, long packOffset, int keyVersion, long storedBytes);
+
+    /**
+     * Moves a packed blob only if it is still where the caller copied it from;
+     * returns 0 if it was deleted or moved in the meantime.
+     */
+    @Query("UPDATE attachment_blobs SET packId = :toPack, packOffset = :toOffset, " +
+            "keyVersion = :keyVersion, storedBytes = :storedBytes " +
+            "WHERE id = :id AND packId = :fromPack AND packOffset = :fromOffset")
+    int movePacked(String id, int fromPack, long fromOffset, int toPack, long toOffset,
+                   int keyVersion, long storedBytes);
+
+    @Query("SELECT * FROM attachment_blobs WHERE packId = :packId ORDER BY packOffset")
+    List<AttachmentBlob> getInPack(int packId);
+
+    @Query("SELECT COALESCE(SUM(storedBytes), 0) FROM attachment_blobs WHERE packId = :packId")
+    long liveBytesInPack(int packId);
+
+    // ---- Garbage collection ----
+
+    /** Blobs no attachment points at, regardless of what refCount says. */
+    @Query("SELECT * FROM attachment_blobs WHERE createdAt < :createdBefore AND NOT EXISTS " +
+            "(SELECT 1 FROM attachments WHERE attachments.blobId = attachment_blobs.id) LIMIT :limit")
+    List<AttachmentBlob> getUnreferenced(long createdBefore, int limit);
+
+    @Query("DELETE FROM attachment_blobs WHERE id = :id AND NOT EXISTS " +
+            "(SELECT 1 FROM attachments WHERE attachments.blobId = attachment_blobs.id)")
+    int deleteIfUnused(String id);
+
+    @Query("SELECT id FROM attachment_blobs WHERE id IN (:ids)")
+    List<String> getExistingIds(List<String> ids);
+
+    /** Re-derives every ref count from the attachments table (after bulk imports). */
+    @Query("UPDATE attachment_blobs SET refCount = " +
+            "(SELECT COUNT(*) FROM attachments WHERE attachments.blobId = attachment_blobs.id)")
+    void recomputeRefCounts();
+}
@@ -0,0 +1,709 @@
+package com.example.securenote.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Base64;
+import android.util.Base64InputStream;
+
+import com.example.securenote.model.Attachment;
+import com.example.securenote.model.AttachmentBlob;
+import com.example.securenote.util.EncryptionUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Mac;
+
+/**
+ * Content-addressed storage for attachment payloads.
+ *
+ * A blob is named by a keyed hash (HMAC-SHA256, Keystore key) of its plaintext and is
+ * encrypted once into files/blobs/<id>.bin; attachments point at it via blobId and
+ * attachment_blobs.refCount tracks how many do. The file goes when the last reference does.
+ *
+ * Blobs up to PACK_THRESHOLD_BYTES do not get a file of their own but are appended to a
+ * shared pack file (see BlobPackFiles), which saves an inode, a directory entry and an
+ * fsync per attachment. Space of deleted packed blobs is reclaimed by compact().
+ *
+ * Attachments created before this store (blobId == null) keep their own Base64-text file
+ * at encryptedFilePath; every read/delete path here handles both kinds.
+ */
+public class AttachmentBlobStore {
+
+    private static final String BLOB_DIR = "blobs";
+    private static final int HASH_BUFFER_BYTES = 64 * 1024;
+
+    // Plaintext size up to which a blob goes into a pack file instead of its own file
+    private static final long PACK_THRESHOLD_BYTES = 256 * 1024;
+    // A pack is compacted once at least this share of it is dead
+    private static final double COMPACT_DEAD_RATIO = 0.5;
+
+    /** Told how many source bytes have been read so far; may throw to abort the put. */
+    public interface ReadListener {
+        void onRead(long totalBytes) throws IOException;
+    }
+
+    private static AttachmentBlobStore INSTANCE;
+
+    private final File blobDir;
+    private final AppDatabase db;
+    private final AttachmentBlobDao blobDao;
+    private final BlobPackFiles packs;
+    // Held from a pack append until its row is written, and while a pack is compacted,
+    // so compaction never mistakes a blob being stored for dead bytes
+    private final Object packLock = new Object();
+    private final ExecutorService compactionExecutor;
+    // Blobs returned by put() whose attachment row is not written yet, with the number of
+    // puts in flight for each (imports run in parallel); GC leaves them alone
+    private final Map<String, Integer> pending = new HashMap<>();
+
+    private AttachmentBlobStore(Context context) {
+        this.blobDir = new File(context.getFilesDir(), BLOB_DIR);
+        this.db = AppDatabase.getInstance(context);
+        this.blobDao = db.attachmentBlobDao();
+        this.packs = new BlobPackFiles(blobDir);
+        this.compactionExecutor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "blob-compaction"));
+    }
+
+    public static synchronized AttachmentBlobStore getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new AttachmentBlobStore(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    // ---------- Writing ----------
+
+    /**
+     * Makes sure the content behind sourceUri is stored and returns its blob. Does not add a
+     * reference: call addReference() in the same transaction that inserts the attachment row,
+     * then release() (the blob is shielded from garbage collection until then).
+     *
+     * The source is read twice: once to hash it, and only if the blob is new, once more to
+     * encrypt it. Re-attaching an existing file therefore costs no encryption or storage.
+     */
+    public AttachmentBlob put(Context context, Uri sourceUri) throws IOException {
+        return put(context, sourceUri, null);
+    }
+
+    /** As put(context, sourceUri), reporting reads (both passes) to listener if non-null. */
+    public AttachmentBlob put(Context context, Uri sourceUri, ReadListener listener) throws IOException {
+        String id;
+        long size;
+        long[] read = new long[1];
+        try (InputStream in = open(context, sourceUri, listener, read)) {
+            if (in == null) throw new IOException("Cannot open input stream for Uri: " + sourceUri);
+            Mac mac = EncryptionUtil.newContentMac();
+            byte[] buffer = new byte[HASH_BUFFER_BYTES];
+            size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                mac.update(buffer, 0, read);
+                size += read;
+            }
+            id = toHex(mac.doFinal());
+        }
+
+        synchronized (pending) {
+            Integer count = pending.get(id);
+            pending.put(id, count == null ? 1 : count + 1);
+        }
+        try {
+            return store(context, sourceUri, listener, read, id, size);
+        } catch (IOException | RuntimeException e) {
+            release(id);
+            throw e;
+        }
+    }
+
+    private AttachmentBlob store(Context context, Uri sourceUri, ReadListener listener, long[] read,
+                                 String id, long size) throws IOException {
+        AttachmentBlob existing = blobDao.get(id);
+        if (existing != null && isStored(existing)) return existing;
+
+        if (size <= PACK_THRESHOLD_BYTES) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) size + 64);
+            try (InputStream in = open(context, sourceUri, listener, read)) {
+                if (in == null) throw new IOException("Cannot open input stream for Uri: " + sourceUri);
+                if (EncryptionUtil.encryptStream(in, buffer) != size) {
+                    throw new IOException("Attachment changed while it was being read");
+                }
+            }
+            return storePacked(id, size, buffer.toByteArray(), existing);
+        }
+
+        // Unique name: the same content may be imported twice at the same time
+        File tmp = new File(ensureBlobDir(), id + "-" + java.util.UUID.randomUUID() + ".bin.part");
+        long plainBytes;
+        try (InputStream in = open(context, sourceUri, listener, read);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            if (in == null) throw new IOException("Cannot open input stream for Uri: " + sourceUri);
+            plainBytes = EncryptionUtil.encryptStream(in, out);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw e;
+        }
+        if (plainBytes != size) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Attachment changed while it was being read");
+        }
+
+        AttachmentBlob blob = new AttachmentBlob(id, 0, size, tmp.length(),
+                EncryptionUtil.getCurrentKeyVersion(), System.currentTimeMillis());
+        moveIntoPlace(tmp, getBlobFile(id));
+        saveLocation(blob, existing);
+        return blob;
+    }
+
+    /** Appends an encrypted blob to the active pack and records where it went. */
+    private AttachmentBlob storePacked(String id, long size, byte[] encrypted,
+                                       AttachmentBlob existing) throws IOException {
+        AttachmentBlob blob = new AttachmentBlob(id, 0, size, encrypted.length,
+                EncryptionUtil.keyVersionOfStream(encrypted, encrypted.length),
+                System.currentTimeMillis());
+        synchronized (packLock) {
+            // Bytes are synced before the row exists; a crash in between only leaves dead bytes
+            BlobPackFiles.Location loc = packs.append(encrypted);
+            blob.setPackId(loc.packId);
+            blob.setPackOffset(loc.offset);
+            saveLocation(blob, existing);
+        }
+        return blob;
+    }
+
+    private void saveLocation(AttachmentBlob blob, AttachmentBlob existing) {
+        if (existing == null) {
+            blobDao.insertIfAbsent(blob);
+        } else {
+            // The row survived but its data was lost; the data is now back
+            blobDao.setLocation(blob.getId(), blob.getPackId(), blob.getPackOffset(),
+                    blob.getKeyVersion(), blob.getStoredBytes());
+        }
+    }
+
+    /** Counts one more attachment row pointing at the blob. */
+    public void addReference(AttachmentBlob blob) {
+        // Re-creates the row if the last reference was dropped since put()
+        AttachmentBlob row = new AttachmentBlob(blob.getId(), 0, blob.getSizeBytes(),
+                blob.getStoredBytes(), blob.getKeyVersion(), blob.getCreatedAt());
+        row.setPackId(blob.getPackId());
+        row.setPackOffset(blob.getPackOffset());
+        blobDao.insertIfAbsent(row);
+        blobDao.addRef(blob.getId());
+    }
+
+    /** Ends the protection put() gives a blob, once its attachment row is written (or not). */
+    public void release(String blobId) {
+        synchronized (pending) {
+            Integer count = pending.get(blobId);
+            if (count == null || count <= 1) {
+                pending.remove(blobId);
+            } else {
+                pending.put(blobId, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Where a blob's encrypted file is written while a backup is being restored.
+     * Pass the result to commitImported() once it is complete.
+     */
+    public File newImportFile(String blobId) {
+        return new File(ensureBlobDir(), blobId + ".bin.part");
+    }
+
+    /**
+     * Installs a blob file received from a backup. If the blob already exists locally the
+     * received copy is dropped. Ref counts are fixed up by recomputeRefCounts() afterwards.
+     */
+    public void commitImported(String blobId, long sizeBytes, File partFile) throws IOException {
+        AttachmentBlob existing = blobDao.get(blobId);
+        if (existing != null && isStored(existing)) {
+            //noinspection ResultOfMethodCallIgnored
+            partFile.delete();
+            return;
+        }
+        if (sizeBytes <= PACK_THRESHOLD_BYTES) {
+            byte[] encrypted;
+            try (InputStream in = new FileInputStream(partFile)) {
+                encrypted = readAll(in);
+            }
+            storePacked(blobId, sizeBytes, encrypted, existing);
+            //noinspection ResultOfMethodCallIgnored
+            partFile.delete();
+            return;
+        }
+        File target = getBlobFile(blobId);
+        moveIntoPlace(partFile, target);
+        blobDao.insertIfAbsent(new AttachmentBlob(blobId, 0, sizeBytes, target.length(),
+                readKeyVersion(target), System.currentTimeMillis()));
+    }
+
+    public void recomputeRefCounts() {
+        blobDao.recomputeRefCounts();
+    }
+
+    // ---------- Reading ----------
+
+    /** Decrypted bytes of an attachment, whichever way it is stored. */
+    public byte[] readPlain(Attachment attachment) throws IOException {
+        if (attachment.getBlobId() != null) {
+            try (InputStream in = EncryptionUtil.decryptStream(openEncrypted(attachment))) {
+                return readAll(in);
+            }
+        }
+
+        File file = getLegacyFile(attachment);
+        if (file == null || !file.exists()) {
+            throw new IOException("Attachment file does not exist");
+        }
+        // Legacy: encrypted Base64 string -> Base64(plainBytes) -> bytes
+        String encryptedBase64;
+        try (InputStream in = new FileInputStream(file)) {
+            encryptedBase64 = new String(readAll(in), StandardCharsets.UTF_8);
+        }
+        String base64Plain = EncryptionUtil.decrypt(encryptedBase64);
+        return Base64.decode(base64Plain, Base64.NO_WRAP);
+    }
+
+    /**
+     * Size of the encrypted data behind an attachment, as copied into backups, or -1 if it
+     * is missing. The data is only meaningful together with the attachment's blobId.
+     */
+    public long getEncryptedLength(Attachment attachment) {
+        if (attachment.getBlobId() == null) {
+            File file = getLegacyFile(attachment);
+            return file != null && file.exists() ? file.length() : -1;
+        }
+        AttachmentBlob blob = blobDao.get(attachment.getBlobId());
+        return blob != null && isStored(blob) ? blob.getStoredBytes() : -1;
+    }
+
+    /**
+     * Identifies the stored data of an attachment without reading it, for incremental
+     * backups, or null if it is missing. Blob ids are content MACs, so a blob is identified
+     * by its id and size; a legacy file by its size and modification time.
+     */
+    public String getDataFingerprint(Attachment attachment) {
+        long length = getEncryptedLength(attachment);
+        if (length < 0) return null;
+        if (attachment.getBlobId() != null) return attachment.getBlobId() + ":" + length;
+        File file = getLegacyFile(attachment);
+        return length + ":" + (file != null ? file.lastModified() : 0);
+    }
+
+    /**
+     * Plaintext size of an attachment, as portable backups carry it, or -1 if its data is
+     * missing. Reads the whole file for legacy attachments; see getDataFingerprint().
+     */
+    public long getPlainLength(Attachment attachment) throws IOException {
+        if (attachment.getBlobId() == null) {
+            if (getEncryptedLength(attachment) < 0) return -1;
+            // Legacy files are Base64 inside the ciphertext; only decoding tells the size
+            long length = 0;
+            byte[] buffer = new byte[8192];
+            try (InputStream in = openPlain(attachment)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) length += read;
+            }
+            return length;
+        }
+        AttachmentBlob blob = blobDao.get(attachment.getBlobId());
+        return blob != null && isStored(blob) ? blob.getSizeBytes() : -1;
+    }
+
+    /** An attachment's plaintext, decrypted as it is read (see getPlainLength()). */
+    public InputStream openPlain(Attachment attachment) throws IOException {
+        if (attachment.getBlobId() != null) {
+            return EncryptionUtil.decryptStream(openEncrypted(attachment));
+        }
+        InputStream in = openEncrypted(attachment);
+        try {
+            InputStream text = EncryptionUtil.decryptTextStream(in);
+            if (text != null) {
+                // Legacy: encrypted Base64 string -> Base64(plainBytes) -> bytes
+                return new Base64InputStream(text, Base64.NO_WRAP);
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        // Compressed values only decrypt whole
+        in.close();
+        return new ByteArrayInputStream(readPlain(attachment));
+    }
+
+    /** The encrypted data behind an attachment (see getEncryptedLength()). */
+    public InputStream openEncrypted(Attachment attachment) throws IOException {
+        if (attachment.getBlobId() == null) {
+            File file = getLegacyFile(attachment);
+            if (file == null) throw new IOException("Attachment file path is empty");
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+        AttachmentBlob blob = blobDao.get(attachment.getBlobId());
+        if (blob == null) throw new IOException("Attachment blob is missing");
+        if (!blob.isPacked()) {
+            return new BufferedInputStream(new FileInputStream(getBlobFile(blob.getId())));
+        }
+        try {
+            return new ByteArrayInputStream(readPacked(blob));
+        } catch (java.io.FileNotFoundException e) {
+            // Compaction moved it and removed the old pack between our lookup and the read
+            blob = blobDao.get(attachment.getBlobId());
+            if (blob == null || !blob.isPacked()) throw e;
+            return new ByteArrayInputStream(readPacked(blob));
+        }
+    }
+
+    // ---------- Deleting ----------
+
+    /**
+     * Drops one reference (the caller deletes the attachment row in the same transaction)
+     * and returns the file to delete once that transaction has committed, or null.
+     * A blob that an import has just been handed by put() keeps its row and file even
+     * when this was its last reference: the import is about to add one.
+     */
+    public File releaseReference(Attachment attachment) {
+        if (attachment.getBlobId() == null) {
+            return getLegacyFile(attachment);
+        }
+        String blobId = attachment.getBlobId();
+        AttachmentBlob blob = blobDao.get(blobId);
+        blobDao.releaseRef(blobId);
+        synchronized (pending) {
+            // Left unreferenced if the import fails; GC collects it then
+            if (pending.containsKey(blobId)) return null;
+            if (blobDao.deleteIfUnreferenced(blobId) == 0) return null;
+        }
+        // Packed bytes just become dead; compaction reclaims them
+        return blob != null && blob.isPacked() ? null : getBlobFile(blobId);
+    }
+
+    /**
+     * Releases the attachments and deletes their rows and unreferenced files.
+     * Returns the bytes of the files deleted (packed blobs are freed later by compaction).
+     */
+    public long deleteAttachments(List<Attachment> attachments, Runnable deleteRows) {
+        List<File> doomed = new ArrayList<>();
+        db.runInTransaction(() -> {
+            for (Attachment att : attachments) {
+                File f = releaseReference(att);
+                if (f != null) doomed.add(f);
+            }
+            deleteRows.run();
+        });
+        // Files go only after the rows are gone, so a crash leaves an orphan file at worst
+        long freed = 0;
+        synchronized (pending) {
+            for (File f : doomed) {
+                // put() may have handed this blob to an import since the rows were read;
+                // addReference() re-creates the row, so the file must stay
+                if (pending.containsKey(blobIdOf(f))) continue;
+                long size = f.length();
+                if (f.delete()) freed += size;
+            }
+        }
+        scheduleCompaction();
+        return freed;
+    }
+
+    // ---------- Compaction ----------
+
+    /** Runs compact() on a background-priority thread. */
+    public void scheduleCompaction() {
+        compactionExecutor.execute(this::compact);
+    }
+
+    /**
+     * Rewrites packs that are mostly dead: their live blobs are appended to the active
+     * pack, rows are repointed (only if still where they were copied from), and the old
+     * pack is deleted once nothing refers to it. Returns the bytes reclaimed.
+     */
+    long compact() {
+        long reclaimed = 0;
+        for (int packId : packs.listPackIds()) {
+            synchronized (packLock) {
+                long total = packs.length(packId);
+                long dead = total - blobDao.liveBytesInPack(packId);
+                if (total == 0 || dead < total * COMPACT_DEAD_RATIO) continue;
+
+                // Stop appending to it first, or the copies would land in the pack being emptied
+                packs.retire(packId);
+                try {
+                    for (AttachmentBlob blob : blobDao.getInPack(packId)) {
+                        BlobPackFiles.Location loc = packs.append(readPacked(blob));
+                        blobDao.movePacked(blob.getId(), packId, blob.getPackOffset(),
+                                loc.packId, loc.offset, blob.getKeyVersion(), blob.getStoredBytes());
+                    }
+                } catch (IOException e) {
+                    // Leave this pack as it is; every row still points at valid data
+                    continue;
+                }
+                if (blobDao.getInPack(packId).isEmpty() && packs.delete(packId)) {
+                    reclaimed += dead;
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    // ---------- Garbage collection ----------
+
+    /**
+     * Deletes up to limit blob rows that no attachment points at (created before
+     * createdBefore), with their dedicated files. Returns the bytes freed, or -1 when
+     * there was nothing left to collect.
+     */
+    long collectUnreferenced(long createdBefore, int limit) {
+        List<AttachmentBlob> batch = blobDao.getUnreferenced(createdBefore, limit);
+        if (batch.isEmpty()) return -1;
+
+        long freed = 0;
+        List<File> doomed = new ArrayList<>();
+        synchronized (pending) {
+            for (AttachmentBlob blob : batch) {
+                if (pending.containsKey(blob.getId())) continue;
+                if (blobDao.deleteIfUnused(blob.getId()) == 0) continue;
+                if (!blob.isPacked()) doomed.add(getBlobFile(blob.getId()));
+                freed += blob.getStoredBytes();
+            }
+        }
+        for (File f : doomed) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+        // Packed bytes are only freed on disk once their pack is compacted
+        if (freed > 0) scheduleCompaction();
+        return freed;
+    }
+
+    /**
+     * Deletes files in the blob dir that nothing refers to: <id>.bin without a row, and
+     * .part / .rekey leftovers of interrupted writes last modified before modifiedBefore.
+     * Returns the bytes freed.
+     */
+    long collectStrayFiles(long modifiedBefore, int batchSize) {
+        File[] files = blobDir.listFiles();
+        if (files == null) return 0;
+
+        long freed = 0;
+        List<File> candidates = new ArrayList<>();
+        for (File f : files) {
+            String name = f.getName();
+            if (f.lastModified() >= modifiedBefore) continue;
+            if (name.endsWith(".part") || name.endsWith(".rekey")) {
+                long size = f.length();
+                if (f.delete()) freed += size;
+            } else if (name.endsWith(".bin")) {
+                candidates.add(f);
+            }
+            if (candidates.size() == batchSize) {
+                freed += deleteBlobFilesWithoutRow(candidates);
+                candidates.clear();
+            }
+        }
+        freed += deleteBlobFilesWithoutRow(candidates);
+        return freed;
+    }
+
+    /** Blob id of a dedicated blob file (<id>.bin); other names give a non-id. */
+    private static String blobIdOf(File f) {
+        String name = f.getName();
+        return name.endsWith(".bin") ? name.substring(0, name.length() - ".bin".length()) : name;
+    }
+
+    private long deleteBlobFilesWithoutRow(List<File> files) {
+        if (files.isEmpty()) return 0;
+        List<String> ids = new ArrayList<>();
+        for (File f : files) {
+            ids.add(blobIdOf(f));
+        }
+        Set<String> known = new HashSet<>(blobDao.getExistingIds(ids));
+        long freed = 0;
+        synchronized (pending) {
+            for (int i = 0; i < files.size(); i++) {
+                if (known.contains(ids.get(i)) || pending.containsKey(ids.get(i))) continue;
+                long size = files.get(i).length();
+                if (files.get(i).delete()) freed += size;
+            }
+        }
+        return freed;
+    }
+
+    // ---------- Key rotation ----------
+
+    /**
+     * Re-encrypts a blob with the current key if it is below targetVersion.
+     * Returns the blob's key version afterwards, or -1 if it could not be read.
+     */
+    public int rotate(String blobId, int targetVersion) {
+        AttachmentBlob blob = blobDao.get(blobId);
+        if (blob != null && blob.isPacked()) return rotatePacked(blob, targetVersion);
+
+        File file = getBlobFile(blobId);
+        if (!file.exists()) return -1;
+        try {
+            int current = readKeyVersion(file);
+            if (current >= targetVersion) return current;
+
+            // Write next to the original and rename, so a crash leaves one intact file
+            File tmp = new File(file.getPath() + ".rekey");
+            try (InputStream in = EncryptionUtil.decryptStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+                 FileOutputStream fos = new FileOutputStream(tmp)) {
+                OutputStream out = new BufferedOutputStream(fos);
+                EncryptionUtil.encryptStream(in, out);
+                out.flush();
+                fos.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+                return -1;
+            }
+            int version = readKeyVersion(file);
+            blobDao.setKeyVersion(blobId, version, file.length());
+            return version;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /** Packed blobs are re-encrypted into the active pack; the old copy becomes dead. */
+    private int rotatePacked(AttachmentBlob blob, int targetVersion) {
+        try {
+            byte[] old = readPacked(blob);
+            int current = EncryptionUtil.keyVersionOfStream(old, old.length);
+            if (current >= targetVersion) return current;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(old.length);
+            try (InputStream in = EncryptionUtil.decryptStream(new ByteArrayInputStream(old))) {
+                EncryptionUtil.encryptStream(in, out);
+            }
+            byte[] data = out.toByteArray();
+            int version = EncryptionUtil.keyVersionOfStream(data, data.length);
+            synchronized (packLock) {
+                BlobPackFiles.Location loc = packs.append(data);
+                int moved = blobDao.movePacked(blob.getId(), blob.getPackId(), blob.getPackOffset(),
+                        loc.packId, loc.offset, version, data.length);
+                return moved > 0 ? version : -1;
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // ---------- Helpers ----------
+
+    File getBlobFile(String blobId) {
+        return new File(blobDir, blobId + ".bin");
+    }
+
+    /** Opens the source; with a listener, every read is counted into read[0] and reported. */
+    private static InputStream open(Context context, Uri sourceUri, ReadListener listener,
+                                    long[] read) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(sourceUri);
+        if (in == null || listener == null) return in;
+        return new java.io.FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) listener.onRead(++read[0]);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) listener.onRead(read[0] += n);
+                return n;
+            }
+        };
+    }
+
+    private boolean isStored(AttachmentBlob blob) {
+        return blob.isPacked()
+                ? packs.contains(blob.getPackId(), blob.getPackOffset(), blob.getStoredBytes())
+                : getBlobFile(blob.getId()).exists();
+    }
+
+    private byte[] readPacked(AttachmentBlob blob) throws IOException {
+        return packs.read(blob.getPackId(), blob.getPackOffset(), (int) blob.getStoredBytes());
+    }
+
+    private static File getLegacyFile(Attachment attachment) {
+        String path = attachment.getEncryptedFilePath();
+        return path == null || path.isEmpty() ? null : new File(path);
+    }
+
+    private File ensureBlobDir() {
+        if (!blobDir.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            blobDir.mkdirs();
+        }
+        return blobDir;
+    }
+
+    private static void moveIntoPlace(File tmp, File target) throws IOException {
+        if (target.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            target.delete();
+        }
+        if (!tmp.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Cannot store blob " + target.getName());
+        }
+    }
+
+    private static int readKeyVersion(File file) throws IOException {
+        byte[] head = new byte[EncryptionUtil.streamHeaderLength()];
+        int n;
+        try (InputStream in = new FileInputStream(file)) {
+            n = in.read(head);
+        }
+        return EncryptionUtil.keyVersionOfStream(head, Math.max(n, 0));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
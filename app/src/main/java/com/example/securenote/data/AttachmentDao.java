@@ -31,4 +31,43 @@ public interface AttachmentDao {
 
     @Query("SELECT * FROM attachments WHERE noteId = :noteId ORDER BY createdAt ASC")
     List<Attachment> getForNoteNow(String noteId);
+
+    @Query("SELECT * FROM attachments ORDER BY createdAt ASC")
+    List<Attachment> getAllNow();
+
+    @Query("SELECT * FROM attachments WHERE id IN (:ids)")
+    List<Attachment> getByIdsNow(List<String> ids);
+
+    @Query("DELETE FROM attachments WHERE id IN (:ids)")
+    void deleteByIds(List<String> ids);
+
+    @Query("SELECT * FROM attachments WHERE noteId IN (:noteIds)")
+    List<Attachment> getForNotesNow(List<String> noteIds);
+
+    @Query("DELETE FROM attachments WHERE noteId IN (:noteIds)")
+    void deleteForNotes(List<String> noteIds);
+
+    // ---- Garbage collection ----
+
+    /**
+     * Rows whose note does not exist. A new note's attachments are added before the note
+     * is first saved, hence createdBefore.
+     */
+    @Query("SELECT * FROM attachments WHERE createdAt < :createdBefore AND (noteId IS NULL " +
+            "OR noteId NOT IN (SELECT id FROM notes)) LIMIT :limit")
+    List<Attachment> getOrphansNow(long createdBefore, int limit);
+
+    @Query("SELECT id FROM attachments WHERE id IN (:ids)")
+    List<String> getExistingIds(List<String> ids);
+
+    // ---- Key rotation ----
+
+    @Query("SELECT * FROM attachments WHERE keyVersion < :keyVersion AND id > :afterId ORDER BY id LIMIT :limit")
+    List<Attachment> getBelowKeyVersion(int keyVersion, String afterId, int limit);
+
+    @Query("SELECT COUNT(*) FROM attachments WHERE keyVersion < :keyVersion")
+    int countBelowKeyVersion(int keyVersion);
+
+    @Query("UPDATE attachments SET keyVersion = :keyVersion WHERE id = :id")
+    void setKeyVersion(String id, int keyVersion);
 }
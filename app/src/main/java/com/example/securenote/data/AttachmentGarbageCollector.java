@@ -0,0 +1,240 @@
+package com.example.securenote.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.securenote.model.Attachment;
+import com.example.securenote.util.ImageTranscoder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reconciles attachment storage with Room and deletes what nothing refers to anymore:
+ * attachment rows whose note is gone, blob rows no attachment points at, files without
+ * a row (blobs, thumbnails and legacy files/attachments/*.bin), leftovers of interrupted writes, and
+ * the decrypted att_*.tmp copies that opening an attachment leaves in the cache dir. Edit
+ * journals of notes that no longer exist are deleted too.
+ *
+ * Works in small batches on a background-priority thread. Anything younger than a grace
+ * period is left alone, since it may belong to a write or a viewer that is still running.
+ */
+public class AttachmentGarbageCollector {
+
+    private static final String PREFS = "storage_gc";
+    private static final String KEY_LAST_RUN = "last_run";
+    private static final long RUN_INTERVAL_MS = 24L * 60 * 60 * 1000;
+
+    private static final int BATCH = 200;
+    private static final long BATCH_PAUSE_MS = 100;
+
+    // Files/rows newer than this may still be mid-write (a row is inserted after its file,
+    // a new note after its attachments)
+    private static final long WRITE_GRACE_MS = 60L * 60 * 1000;
+    // An external viewer may still be reading a decrypted copy for a while
+    private static final long TEMP_GRACE_MS = 10L * 60 * 1000;
+
+    public static class Result {
+        public final int orphanRows;        // attachment rows of deleted notes
+        public final long reclaimedBytes;
+
+        Result(int orphanRows, long reclaimedBytes) {
+            this.orphanRows = orphanRows;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+    }
+
+    private static AttachmentGarbageCollector INSTANCE;
+
+    private final File attachmentsDir;
+    private final File cacheDir;
+    private final File journalDir;
+    private final AttachmentDao attachmentDao;
+    private final NoteDao noteDao;
+    private final AttachmentBlobStore blobStore;
+    private final AttachmentThumbnails thumbnails;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor;
+
+    private AttachmentGarbageCollector(Context context) {
+        this.attachmentsDir = new File(context.getFilesDir(), "attachments");
+        this.cacheDir = context.getCacheDir();
+        this.journalDir = EditJournal.directory(context);
+        this.attachmentDao = AppDatabase.getInstance(context).attachmentDao();
+        this.noteDao = AppDatabase.getInstance(context).noteDao();
+        this.blobStore = AttachmentBlobStore.getInstance(context);
+        this.thumbnails = AttachmentThumbnails.getInstance(context);
+        this.prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "attachment-gc"));
+    }
+
+    public static synchronized AttachmentGarbageCollector getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new AttachmentGarbageCollector(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    /** Called at app start; collects at most once a day. */
+    public void runIfDue() {
+        long last = prefs.getLong(KEY_LAST_RUN, 0);
+        if (System.currentTimeMillis() - last < RUN_INTERVAL_MS) return;
+        run();
+    }
+
+    /** Runs a full pass; the LiveData receives the result, or null if it failed. */
+    public LiveData<Result> run() {
+        MutableLiveData<Result> result = new MutableLiveData<>();
+        executor.execute(() -> {
+            try {
+                result.postValue(collect());
+                prefs.edit().putLong(KEY_LAST_RUN, System.currentTimeMillis()).apply();
+            } catch (Exception e) {
+                result.postValue(null);
+            }
+        });
+        return result;
+    }
+
+    private Result collect() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long reclaimed = 0;
+
+        // 1) Attachment rows whose note no longer exists (or was never saved);
+        //    releases their blobs as well
+        int orphanRows = 0;
+        while (true) {
+            List<Attachment> orphans = attachmentDao.getOrphansNow(now - WRITE_GRACE_MS, BATCH);
+            if (orphans == null || orphans.isEmpty()) break;
+            List<String> ids = new ArrayList<>();
+            for (Attachment att : orphans) ids.add(att.getId());
+            reclaimed += blobStore.deleteAttachments(orphans, () -> attachmentDao.deleteByIds(ids));
+            orphanRows += orphans.size();
+            Thread.sleep(BATCH_PAUSE_MS);
+        }
+
+        // 2) Blob rows nothing points at (e.g. an attach that failed after put())
+        long freed;
+        while ((freed = blobStore.collectUnreferenced(now - WRITE_GRACE_MS, BATCH)) >= 0) {
+            reclaimed += freed;
+            if (freed == 0) break;      // only rows protected by a running attach are left
+            Thread.sleep(BATCH_PAUSE_MS);
+        }
+
+        // 3) Files without rows
+        reclaimed += blobStore.collectStrayFiles(now - WRITE_GRACE_MS, BATCH);
+        reclaimed += collectLegacyFiles(now - WRITE_GRACE_MS);
+        reclaimed += thumbnails.collectStray(now - WRITE_GRACE_MS, BATCH);
+
+        // 4) Decrypted copies handed to viewer apps, and downscaled images of interrupted imports
+        reclaimed += deleteFiles(cacheDir, "att_", ".tmp", now - TEMP_GRACE_MS);
+        reclaimed += deleteFiles(cacheDir, ImageTranscoder.TEMP_PREFIX, ImageTranscoder.TEMP_SUFFIX,
+                now - TEMP_GRACE_MS);
+
+        // 5) Journals of notes deleted by a path that crashed before removing them
+        reclaimed += collectOrphanJournals(now - WRITE_GRACE_MS);
+
+        // 6) Dead space in pack files, including what the steps above freed
+        reclaimed += blobStore.compact();
+
+        return new Result(orphanRows, reclaimed);
+    }
+
+    /** files/attachments/<attachmentId>.bin from before the blob store, and .part leftovers. */
+    private long collectLegacyFiles(long modifiedBefore) {
+        File[] files = attachmentsDir.listFiles();
+        if (files == null) return 0;
+
+        long freed = 0;
+        List<File> batch = new ArrayList<>();
+        for (File f : files) {
+            if (f.lastModified() >= modifiedBefore) continue;
+            if (f.getName().endsWith(".part")) {
+                freed += delete(f);
+            } else if (f.getName().endsWith(".bin")) {
+                batch.add(f);
+                if (batch.size() == BATCH) {
+                    freed += deleteLegacyWithoutRow(batch);
+                    batch.clear();
+                }
+            }
+        }
+        freed += deleteLegacyWithoutRow(batch);
+        return freed;
+    }
+
+    private long deleteLegacyWithoutRow(List<File> files) {
+        if (files.isEmpty()) return 0;
+        List<String> ids = new ArrayList<>();
+        for (File f : files) {
+            ids.add(f.getName().substring(0, f.getName().length() - ".bin".length()));
+        }
+        Set<String> known = new HashSet<>(attachmentDao.getExistingIds(ids));
+        long freed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            if (!known.contains(ids.get(i))) freed += delete(files.get(i));
+        }
+        return freed;
+    }
+
+    /** files/journal/<noteId>.<generation> whose note row is gone. */
+    private long collectOrphanJournals(long modifiedBefore) {
+        File[] files = journalDir.listFiles();
+        if (files == null) return 0;
+
+        long freed = 0;
+        List<File> batch = new ArrayList<>();
+        for (File f : files) {
+            if (f.lastModified() >= modifiedBefore || EditJournal.noteIdOf(f) == null) continue;
+            batch.add(f);
+            if (batch.size() == BATCH) {
+                freed += deleteJournalsWithoutNote(batch);
+                batch.clear();
+            }
+        }
+        freed += deleteJournalsWithoutNote(batch);
+        return freed;
+    }
+
+    private long deleteJournalsWithoutNote(List<File> files) {
+        if (files.isEmpty()) return 0;
+        Set<String> ids = new HashSet<>();
+        for (File f : files) ids.add(EditJournal.noteIdOf(f));
+        Set<String> known = new HashSet<>(noteDao.getExistingIds(new ArrayList<>(ids)));
+        long freed = 0;
+        for (File f : files) {
+            if (!known.contains(EditJournal.noteIdOf(f))) freed += delete(f);
+        }
+        return freed;
+    }
+
+    private static long deleteFiles(File dir, String prefix, String suffix, long modifiedBefore) {
+        File[] files = dir.listFiles();
+        if (files == null) return 0;
+        long freed = 0;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(prefix) && name.endsWith(suffix) && f.lastModified() < modifiedBefore) {
+                freed += delete(f);
+            }
+        }
+        return freed;
+    }
+
+    private static long delete(File f) {
+        long size = f.length();
+        return f.delete() ? size : 0;
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.securenote.data;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.OpenableColumns;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Imports many picked files at once on a small bounded pool, off the repository's
+ * single executor so note saves are never queued behind them. Each file is streamed
+ * through NoteRepository.importAttachment(); progress is published per file and for
+ * the whole batch, and a batch can be cancelled (files not yet stored are skipped,
+ * files being stored are aborted mid-stream).
+ */
+public class AttachmentImporter {
+
+    // Hashing/encryption is CPU-bound, decoding images memory-bound; a few at a time is plenty
+    private static final int POOL_SIZE =
+            Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long PUBLISH_INTERVAL_MS = 150;
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    public static class FileProgress {
+        public final Uri uri;
+        public final State state;
+        public final long size;          // -1 until known
+        public final long bytesRead;     // source bytes read, over both passes (hash, then encrypt)
+        public final String error;
+
+        FileProgress(Uri uri, State state, long size, long bytesRead, String error) {
+            this.uri = uri;
+            this.state = state;
+            this.size = size;
+            this.bytesRead = bytesRead;
+            this.error = error;
+        }
+    }
+
+    public static class Progress {
+        public final List<FileProgress> files;
+        public final int total;
+        public final int done;
+        public final int failed;
+        public final int cancelled;
+
+        Progress(List<FileProgress> files) {
+            this.files = Collections.unmodifiableList(files);
+            int d = 0, f = 0, c = 0;
+            for (FileProgress p : files) {
+                if (p.state == State.DONE) d++;
+                else if (p.state == State.FAILED) f++;
+                else if (p.state == State.CANCELLED) c++;
+            }
+            this.total = files.size();
+            this.done = d;
+            this.failed = f;
+            this.cancelled = c;
+        }
+
+        public int getFinished() {
+            return done + failed + cancelled;
+        }
+
+        public boolean isFinished() {
+            return getFinished() == total;
+        }
+    }
+
+    private static AttachmentImporter INSTANCE;
+
+    private final Context appContext;
+    private final NoteRepository repository;
+    private final ExecutorService pool;
+    private final MutableLiveData<Progress> progressLiveData = new MutableLiveData<>();
+
+    // Current batch; guarded by this
+    private final List<FileProgress> files = new ArrayList<>();
+    // Files before this index were in the batch when it was cancelled; later ones import
+    private int cancelledBefore;
+    private long lastPublish;
+
+    private AttachmentImporter(Context context) {
+        this.appContext = context;
+        this.repository = NoteRepository.getInstance(context);
+        this.pool = Executors.newFixedThreadPool(POOL_SIZE, r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "attachment-import"));
+    }
+
+    public static synchronized AttachmentImporter getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new AttachmentImporter(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    public LiveData<Progress> getProgressLiveData() {
+        return progressLiveData;
+    }
+
+    /** Queues the files; joins the running batch if there is one, else starts a new one. */
+    public synchronized void importAll(String noteId, List<Uri> uris) {
+        if (files.isEmpty() || new Progress(files).isFinished()) {
+            files.clear();
+            cancelledBefore = 0;
+        }
+        for (Uri uri : uris) {
+            int index = files.size();
+            files.add(new FileProgress(uri, State.QUEUED, -1, 0, null));
+            // The picker's read grant only lasts as long as the picking activity
+            takeReadPermission(uri);
+            pool.execute(() -> importOne(noteId, uri, index));
+        }
+        publish(true);
+    }
+
+    /**
+     * Skips queued files and aborts the ones in progress; stored files stay. Files queued
+     * afterwards, even while aborted ones are still winding down, are imported normally.
+     */
+    public synchronized void cancel() {
+        cancelledBefore = files.size();
+        for (int i = 0; i < files.size(); i++) {
+            if (files.get(i).state == State.QUEUED) {
+                files.set(i, new FileProgress(files.get(i).uri, State.CANCELLED, -1, 0, null));
+            }
+        }
+        publish(true);
+    }
+
+    private void importOne(String noteId, Uri uri, int index) {
+        synchronized (this) {
+            if (files.get(index).state != State.QUEUED) {
+                releaseReadPermission(uri);
+                return;
+            }
+        }
+        long size = querySize(uri);
+        synchronized (this) {
+            files.set(index, new FileProgress(uri, State.RUNNING, size, 0, null));
+            publish(true);
+        }
+        try {
+            repository.importAttachment(appContext, noteId, uri, read -> {
+                synchronized (AttachmentImporter.this) {
+                    if (index < cancelledBefore) throw new InterruptedIOException("Import cancelled");
+                    update(index, State.RUNNING, read, null);
+                }
+            });
+            synchronized (this) {
+                update(index, State.DONE, files.get(index).bytesRead, null);
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                update(index, index < cancelledBefore ? State.CANCELLED : State.FAILED,
+                        files.get(index).bytesRead, e.getMessage());
+            }
+        } finally {
+            releaseReadPermission(uri);
+        }
+    }
+
+    // Caller holds the lock
+    private void update(int index, State state, long bytesRead, String error) {
+        FileProgress old = files.get(index);
+        files.set(index, new FileProgress(old.uri, state, old.size, bytesRead, error));
+        publish(state != old.state);
+    }
+
+    // Caller holds the lock. Byte counts change every buffer, so those are throttled.
+    private void publish(boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        if (!force && now - lastPublish < PUBLISH_INTERVAL_MS) return;
+        lastPublish = now;
+        progressLiveData.postValue(new Progress(new ArrayList<>(files)));
+    }
+
+    private long querySize(Uri uri) {
+        try (Cursor c = appContext.getContentResolver().query(
+                uri, new String[]{OpenableColumns.SIZE}, null, null, null)) {
+            if (c != null && c.moveToFirst() && !c.isNull(0)) return c.getLong(0);
+        } catch (RuntimeException ignored) {
+        }
+        return -1;
+    }
+
+    private void takeReadPermission(Uri uri) {
+        try {
+            appContext.getContentResolver().takePersistableUriPermission(
+                    uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException ignored) {
+            // Not a persistable grant (e.g. a file:// or content URI from another picker)
+        }
+    }
+
+    private void releaseReadPermission(Uri uri) {
+        try {
+            appContext.getContentResolver().releasePersistableUriPermission(
+                    uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        } catch (SecurityException ignored) {
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.securenote.data;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+
+import com.example.securenote.model.Attachment;
+import com.example.securenote.util.EncryptionUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Small previews of image attachments, so the attachment list never has to decrypt and
+ * decode a full photo.
+ *
+ * A thumbnail is a downsampled JPEG, encrypted like a blob and stored in files/thumbs,
+ * named after the blob it shows (or "a_<attachmentId>" for attachments from before the
+ * blob store). It is written when the image is attached; older attachments get theirs
+ * the first time they are shown. Decoded bitmaps are kept in an LruCache sized from the
+ * app's memory class, and all decoding happens on a small background pool.
+ */
+public class AttachmentThumbnails {
+
+    public interface Callback {
+        void onThumbnail(String key, Bitmap bitmap);
+    }
+
+    private static final String THUMB_DIR = "thumbs";
+    private static final String THUMB_SUFFIX = ".thm";
+    private static final String LEGACY_PREFIX = "a_";
+
+    // Longest edge of a stored thumbnail
+    private static final int THUMB_PX = 192;
+    private static final int THUMB_QUALITY = 80;
+    private static final int DECODE_THREADS = 2;
+
+    private static AttachmentThumbnails INSTANCE;
+
+    private final File thumbDir;
+    private final AttachmentBlobStore blobStore;
+    private final AttachmentBlobDao blobDao;
+    private final AttachmentDao attachmentDao;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ExecutorService decoder;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Keys known to have no thumbnail (not an image, or undecodable); not retried this session
+    private final Set<String> missing = new HashSet<>();
+
+    private AttachmentThumbnails(Context context) {
+        this.thumbDir = new File(context.getFilesDir(), THUMB_DIR);
+        this.blobStore = AttachmentBlobStore.getInstance(context);
+        AppDatabase db = AppDatabase.getInstance(context);
+        this.blobDao = db.attachmentBlobDao();
+        this.attachmentDao = db.attachmentDao();
+
+        // 1/16 of the per-app heap: 12 MB on a 192 MB device, roughly 80 thumbnails
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheKb = am.getMemoryClass() * 1024 / 16;
+        this.memoryCache = new LruCache<String, Bitmap>(cacheKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+        this.decoder = Executors.newFixedThreadPool(DECODE_THREADS, r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "thumbnail-decode"));
+    }
+
+    public static synchronized AttachmentThumbnails getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new AttachmentThumbnails(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    public static boolean isImage(Attachment attachment) {
+        return attachment.getMimeType() != null && attachment.getMimeType().startsWith("image/");
+    }
+
+    /** Cache key and file name of an attachment's thumbnail. */
+    public static String keyOf(Attachment attachment) {
+        return attachment.getBlobId() != null
+                ? attachment.getBlobId()
+                : LEGACY_PREFIX + attachment.getId();
+    }
+
+    // ---------- Writing ----------
+
+    /**
+     * Creates the thumbnail for a newly stored blob from its source image. Call from a
+     * background thread; does nothing if the blob already has one (deduplicated attach).
+     */
+    public void createFromUri(Context context, Uri sourceUri, String blobId) {
+        File file = getFile(blobId);
+        if (file.exists()) return;
+        try {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            try (InputStream in = context.getContentResolver().openInputStream(sourceUri)) {
+                if (in == null) return;
+                BitmapFactory.decodeStream(in, null, bounds);
+            }
+
+            Bitmap bitmap;
+            try (InputStream in = context.getContentResolver().openInputStream(sourceUri)) {
+                if (in == null) return;
+                bitmap = BitmapFactory.decodeStream(in, null, sampled(bounds));
+            }
+            if (bitmap != null) save(blobId, bitmap);
+        } catch (IOException | RuntimeException ignored) {
+            // No thumbnail; the list falls back to the type icon
+        }
+    }
+
+    // ---------- Reading ----------
+
+    /** Decoded thumbnail if it is in memory, else null (use load()). */
+    public Bitmap getCached(Attachment attachment) {
+        return memoryCache.get(keyOf(attachment));
+    }
+
+    /**
+     * Loads the thumbnail in the background and delivers it on the main thread; the
+     * bitmap is null if the attachment has none. Views should check that the key still
+     * matches what they show, since they may have been recycled meanwhile.
+     */
+    public void load(Attachment attachment, Callback callback) {
+        String key = keyOf(attachment);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            callback.onThumbnail(key, cached);
+            return;
+        }
+        synchronized (missing) {
+            if (missing.contains(key)) {
+                callback.onThumbnail(key, null);
+                return;
+            }
+        }
+
+        decoder.execute(() -> {
+            Bitmap bitmap = readOrCreate(attachment, key);
+            if (bitmap != null) {
+                memoryCache.put(key, bitmap);
+            } else {
+                synchronized (missing) {
+                    missing.add(key);
+                }
+            }
+            mainHandler.post(() -> callback.onThumbnail(key, bitmap));
+        });
+    }
+
+    private Bitmap readOrCreate(Attachment attachment, String key) {
+        File file = getFile(key);
+        if (file.exists()) {
+            try (InputStream in = EncryptionUtil.decryptStream(new FileInputStream(file))) {
+                Bitmap bitmap = BitmapFactory.decodeStream(in);
+                if (bitmap != null) return bitmap;
+            } catch (IOException | RuntimeException ignored) {
+                // Fall through and rebuild it
+            }
+        }
+        if (!isImage(attachment)) return null;
+
+        // Attached before thumbnails existed: decode the full image once, downsampled
+        try {
+            byte[] plain = blobStore.readPlain(attachment);
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(plain, 0, plain.length, bounds);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(plain, 0, plain.length, sampled(bounds));
+            if (bitmap != null) save(key, bitmap);
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ---------- Garbage collection ----------
+
+    /** Deletes thumbnails whose blob or (legacy) attachment is gone. Returns bytes freed. */
+    long collectStray(long modifiedBefore, int batchSize) {
+        File[] files = thumbDir.listFiles();
+        if (files == null) return 0;
+
+        long freed = 0;
+        List<File> batch = new ArrayList<>();
+        for (File f : files) {
+            if (f.lastModified() >= modifiedBefore) continue;
+            if (f.getName().endsWith(".part")) {
+                long size = f.length();
+                if (f.delete()) freed += size;
+            } else if (f.getName().endsWith(THUMB_SUFFIX)) {
+                batch.add(f);
+                if (batch.size() == batchSize) {
+                    freed += deleteUnowned(batch);
+                    batch.clear();
+                }
+            }
+        }
+        freed += deleteUnowned(batch);
+        return freed;
+    }
+
+    private long deleteUnowned(List<File> files) {
+        if (files.isEmpty()) return 0;
+        List<String> blobIds = new ArrayList<>();
+        List<String> attachmentIds = new ArrayList<>();
+        for (File f : files) {
+            String key = f.getName().substring(0, f.getName().length() - THUMB_SUFFIX.length());
+            if (key.startsWith(LEGACY_PREFIX)) {
+                attachmentIds.add(key.substring(LEGACY_PREFIX.length()));
+            } else {
+                blobIds.add(key);
+            }
+        }
+        Set<String> owned = new HashSet<>();
+        if (!blobIds.isEmpty()) owned.addAll(blobDao.getExistingIds(blobIds));
+        if (!attachmentIds.isEmpty()) {
+            for (String id : attachmentDao.getExistingIds(attachmentIds)) owned.add(LEGACY_PREFIX + id);
+        }
+
+        long freed = 0;
+        for (File f : files) {
+            String key = f.getName().substring(0, f.getName().length() - THUMB_SUFFIX.length());
+            if (owned.contains(key)) continue;
+            long size = f.length();
+            if (f.delete()) {
+                freed += size;
+                memoryCache.remove(key);
+            }
+        }
+        return freed;
+    }
+
+    // ---------- Helpers ----------
+
+    private void save(String key, Bitmap bitmap) throws IOException {
+        Bitmap scaled = scaleDown(bitmap);
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        scaled.compress(Bitmap.CompressFormat.JPEG, THUMB_QUALITY, jpeg);
+
+        if (!thumbDir.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            thumbDir.mkdirs();
+        }
+        File tmp = new File(thumbDir, key + THUMB_SUFFIX + ".part");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            EncryptionUtil.encryptStream(new ByteArrayInputStream(jpeg.toByteArray()), out);
+        }
+        if (!tmp.renameTo(getFile(key))) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+        memoryCache.put(key, scaled);
+    }
+
+    /** Decode options that load the image at no less than THUMB_PX on its shorter edge. */
+    private static BitmapFactory.Options sampled(BitmapFactory.Options bounds) {
+        int shorter = Math.min(bounds.outWidth, bounds.outHeight);
+        int sample = 1;
+        while (shorter / (sample * 2) >= THUMB_PX) sample *= 2;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        return options;
+    }
+
+    private static Bitmap scaleDown(Bitmap bitmap) {
+        int longer = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longer <= THUMB_PX) return bitmap;
+        float scale = (float) THUMB_PX / longer;
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+    }
+
+    private File getFile(String key) {
+        return new File(thumbDir, key + THUMB_SUFFIX);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.securenote.data;
+
+import com.example.securenote.model.MigrationProgress;
+
+import java.util.List;
+
+/**
+ * A data transformation that runs in the background after its schema change has been
+ * applied by a (fast) Room migration. BackfillRunner calls prepare() outside any
+ * transaction, then applies the batch and the checkpoint together in one transaction.
+ *
+ * Batches must be idempotent: after process death the last uncommitted batch is
+ * prepared again from the previous cursor. Readers must accept rows in both the old
+ * and the new format until the backfill has completed.
+ */
+public interface Backfill {
+
+    /** Unique, stable name; the key of this backfill's row in migration_progress. */
+    String getName();
+
+    /**
+     * Reads and transforms the next rows after cursor (null on the first call).
+     * Returns null when there is nothing left to do.
+     */
+    Batch prepare(String cursor) throws Exception;
+
+    /** Called on the runner thread after every committed batch and on completion. */
+    default void onProgress(MigrationProgress progress) { }
+
+    /** The prepared result of one step. */
+    interface Batch {
+        /** Writes the batch; runs inside a Room transaction. */
+        void apply();
+
+        /** Cursor to resume from once this batch is committed. */
+        String getCursor();
+
+        int getProcessed();
+
+        int getFailed();
+    }
+
+    /** A batch of prepared row updates, applied in order. */
+    class RowBatch implements Batch {
+        private final String cursor;
+        private final int processed;
+        private final int failed;
+        private final List<Runnable> updates;
+
+        public RowBatch(String cursor, int processed, int failed, List<Runnable> updates) {
+            this.cursor = cursor;
+            this.processed = processed;
+            this.failed = failed;
+            this.updates = updates;
+        }
+
+        @Override
+        public void apply() {
+            for (Runnable update : updates) update.run();
+        }
+
+        @Override
+        public String getCursor() { return cursor; }
+
+        @Override
+        public int getProcessed() { return processed; }
+
+        @Override
+        public int getFailed() { return failed; }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.securenote.data;
+
+import android.content.Context;
+import android.os.Process;
+
+import androidx.lifecycle.LiveData;
+
+import com.example.securenote.model.MigrationProgress;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs Backfills one after another on a background-priority thread, batch by batch,
+ * persisting each one's progress in migration_progress. A backfill that has completed
+ * is never run again; one that was interrupted continues from its last checkpoint.
+ */
+public class BackfillRunner {
+
+    // Pause between batches so backfills yield the disk and CPU to the UI
+    private static final long BATCH_PAUSE_MS = 250;
+
+    private static BackfillRunner INSTANCE;
+
+    private final AppDatabase db;
+    private final MigrationProgressDao progressDao;
+    private final ExecutorService executor;
+    private final Set<String> queued = new HashSet<>();
+
+    private BackfillRunner(Context context) {
+        this.db = AppDatabase.getInstance(context);
+        this.progressDao = db.migrationProgressDao();
+        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "backfill"));
+    }
+
+    public static synchronized BackfillRunner getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new BackfillRunner(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    public LiveData<List<MigrationProgress>> getProgressLiveData() {
+        return progressDao.getAllLive();
+    }
+
+    /** Queues a backfill unless it is already queued; completed ones finish immediately. */
+    public synchronized void enqueue(Backfill backfill) {
+        if (!queued.add(backfill.getName())) return;
+        executor.execute(() -> {
+            try {
+                run(backfill);
+            } finally {
+                synchronized (BackfillRunner.this) {
+                    queued.remove(backfill.getName());
+                }
+            }
+        });
+    }
+
+    private void run(Backfill backfill) {
+        MigrationProgress progress = progressDao.get(backfill.getName());
+        if (progress == null) {
+            progress = new MigrationProgress(backfill.getName(), null, 0, 0, false,
+                    System.currentTimeMillis());
+        }
+        if (progress.isCompleted()) {
+            backfill.onProgress(progress);
+            return;
+        }
+
+        try {
+            while (true) {
+                Backfill.Batch batch = backfill.prepare(progress.getCursor());
+                if (batch == null) break;
+
+                MigrationProgress next = new MigrationProgress(
+                        backfill.getName(),
+                        batch.getCursor(),
+                        progress.getDone() + batch.getProcessed(),
+                        progress.getFailed() + batch.getFailed(),
+                        false,
+                        System.currentTimeMillis());
+                // Rows and checkpoint commit together, so a resume never skips or repeats work
+                db.runInTransaction(() -> {
+                    batch.apply();
+                    progressDao.save(next);
+                });
+                progress = next;
+                backfill.onProgress(progress);
+
+                Thread.sleep(BATCH_PAUSE_MS);
+            }
+
+            progress.setCompleted(true);
+            progress.setUpdatedAt(System.currentTimeMillis());
+            progressDao.save(progress);
+            backfill.onProgress(progress);
+        } catch (Exception e) {
+            // Checkpoint is intact; the next enqueue (at the latest on app start) resumes it
+            backfill.onProgress(progress);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.securenote.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only pack files (files/blobs/pack-<n>.dat) holding many small encrypted blobs
+ * back to back. Only the newest ("active") pack is ever appended to; older ones are
+ * read-only until compaction copies their live blobs out and deletes them.
+ *
+ * Where each blob lives (pack, offset, length) is recorded in attachment_blobs; a pack
+ * has no header or index of its own, so bytes not referenced from Room are simply dead.
+ */
+class BlobPackFiles {
+
+    private static final String PREFIX = "pack-";
+    private static final String SUFFIX = ".dat";
+
+    // A full pack is closed and a new one started; keeps compaction copies bounded
+    static final long MAX_PACK_BYTES = 32L * 1024 * 1024;
+
+    static class Location {
+        final int packId;
+        final long offset;
+
+        Location(int packId, long offset) {
+            this.packId = packId;
+            this.offset = offset;
+        }
+    }
+
+    private final File dir;
+    private int activePackId = -1;     // guarded by this
+
+    BlobPackFiles(File dir) {
+        this.dir = dir;
+    }
+
+    /** Appends data to the active pack and syncs it; returns where it was written. */
+    synchronized Location append(byte[] data) throws IOException {
+        int packId = activePack();
+        File file = getFile(packId);
+        if (file.length() + data.length > MAX_PACK_BYTES && file.length() > 0) {
+            packId = ++activePackId;
+            file = getFile(packId);
+        }
+        long offset = file.length();
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            fos.write(data);
+            fos.getFD().sync();
+        }
+        return new Location(packId, offset);
+    }
+
+    byte[] read(int packId, long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(packId), "r")) {
+            raf.seek(offset);
+            raf.readFully(data);
+        }
+        return data;
+    }
+
+    /** True if [offset, offset + length) lies within the pack file. */
+    boolean contains(int packId, long offset, long length) {
+        File file = getFile(packId);
+        return file.exists() && offset >= 0 && offset + length <= file.length();
+    }
+
+    long length(int packId) {
+        return getFile(packId).length();
+    }
+
+    synchronized boolean isActive(int packId) {
+        return packId == activePack();
+    }
+
+    /** Closes the active pack if it is packId, so that it can be compacted. */
+    synchronized void retire(int packId) {
+        if (packId == activePack()) activePackId++;
+    }
+
+    synchronized boolean delete(int packId) {
+        if (packId == activePack()) return false;
+        return getFile(packId).delete();
+    }
+
+    List<Integer> listPackIds() {
+        List<Integer> ids = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) return ids;
+        for (File f : files) {
+            int id = parseId(f.getName());
+            if (id > 0) ids.add(id);
+        }
+        return ids;
+    }
+
+    private int activePack() {
+        if (activePackId < 0) {
+            if (!dir.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                dir.mkdirs();
+            }
+            int max = 0;
+            for (int id : listPackIds()) max = Math.max(max, id);
+            activePackId = max == 0 ? 1 : max;
+        }
+        return activePackId;
+    }
+
+    private File getFile(int packId) {
+        return new File(dir, PREFIX + packId + SUFFIX);
+    }
+
+    private static int parseId(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return -1;
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
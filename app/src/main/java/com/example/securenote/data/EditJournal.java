@@ -0,0 +1,260 @@
+package com.example.securenote.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.securenote.util.EncryptionUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of the edits made in the editor since the note was last saved, so
+ * that a killed process loses at most JOURNAL_DELAY_MS of typing rather than everything
+ * since the last full save.
+ *
+ * Edits are plain-text replacements (start, removed length, inserted text) and title
+ * changes. They are batched, encrypted as one line per batch and appended to the current
+ * segment file, journal/<noteId>.<generation>. Each segment starts with the version
+ * (save timestamp) of the note it applies to. A full save rotates to a new segment based
+ * on the version being saved, and older segments are deleted once that save commits.
+ *
+ * On open, recover() returns the edits of the segments based on the stored version or a
+ * later one (a save that had not committed yet); segments based on older versions are
+ * stale and dropped.
+ * Inserted text comes back without formatting spans; the stored body keeps its own.
+ */
+public class EditJournal {
+
+    private static final String DIR = "journal";
+    private static final long JOURNAL_DELAY_MS = 250;
+
+    // Journal writes of all editors, in order, off the main thread
+    private static final ExecutorService IO = Executors.newSingleThreadExecutor();
+
+    /** One recorded edit; title != null for a title change, else a text replacement. */
+    public static class Edit {
+        public final int start;
+        public final int removed;
+        public final String inserted;
+        public final String title;
+
+        Edit(int start, int removed, String inserted, String title) {
+            this.start = start;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.title = title;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject o = new JSONObject();
+            if (title != null) {
+                o.put("t", title);
+            } else {
+                o.put("s", start);
+                o.put("r", removed);
+                o.put("i", inserted);
+            }
+            return o;
+        }
+
+        static Edit fromJson(JSONObject o) {
+            if (o.has("t")) return new Edit(0, 0, null, o.optString("t"));
+            return new Edit(o.optInt("s"), o.optInt("r"), o.optString("i"), null);
+        }
+    }
+
+    private final File dir;
+    private final String noteId;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+
+    // Main thread only
+    private final List<Edit> pending = new ArrayList<>();
+    private int generation = -1;
+
+    public EditJournal(Context context, String noteId) {
+        this.dir = new File(context.getFilesDir(), DIR);
+        this.noteId = noteId;
+    }
+
+    /**
+     * Passes the edits made after the note was stored as version (possibly none) to
+     * onRecovered on the main thread. version must be the stored note's timestamp as read
+     * from the database. Call before start().
+     */
+    public void recover(long version, Consumer<List<Edit>> onRecovered) {
+        IO.execute(() -> {
+            List<Edit> edits = new ArrayList<>();
+            for (File segment : segments(dir, noteId)) {
+                List<Edit> segmentEdits = new ArrayList<>();
+                long base = read(segment, segmentEdits);
+                if (base >= version) {
+                    edits.addAll(segmentEdits);
+                } else {
+                    //noinspection ResultOfMethodCallIgnored
+                    segment.delete();   // based on an older save, which has been superseded
+                }
+            }
+            handler.post(() -> onRecovered.accept(edits));
+        });
+    }
+
+    /** Deletes the journal of a note that has been deleted. */
+    public static void delete(Context context, String noteId) {
+        File dir = new File(context.getFilesDir(), DIR);
+        IO.execute(() -> {
+            for (File segment : segments(dir, noteId)) {
+                //noinspection ResultOfMethodCallIgnored
+                segment.delete();
+            }
+        });
+    }
+
+    /** True once start() has been called; edits are recorded from then on. */
+    public boolean isStarted() {
+        return generation >= 0;
+    }
+
+    /** Opens a new segment for edits to the note as stored at version; returns its generation. */
+    public int start(long version) {
+        flush();
+        // Main thread: listing here may miss a segment being created, never one already written
+        File[] existing = segments(dir, noteId);
+        int last = existing.length == 0 ? -1 : generationOf(existing[existing.length - 1], noteId);
+        int next = Math.max(generation, last) + 1;
+        generation = next;
+        File file = new File(dir, noteId + "." + next);
+        IO.execute(() -> {
+            try {
+                JSONObject header = new JSONObject().put("base", version);
+                append(file, header.toString());
+            } catch (IOException | JSONException | RuntimeException ignored) {
+                // Journal is best-effort; the regular save still runs
+            }
+        });
+        return next;
+    }
+
+    public void recordEdit(int start, int removed, CharSequence inserted) {
+        if (generation < 0) return;
+        pending.add(new Edit(start, removed, inserted.toString(), null));
+        schedule();
+    }
+
+    public void recordTitle(String title) {
+        if (generation < 0) return;
+        // Only the latest title matters within a batch
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).title != null) pending.remove(i);
+        }
+        pending.add(new Edit(0, 0, null, title));
+        schedule();
+    }
+
+    /** Deletes segments older than generation; call once the save that started it has committed. */
+    public void discardBefore(int generation) {
+        IO.execute(() -> {
+            for (File segment : segments(dir, noteId)) {
+                if (generationOf(segment, noteId) < generation) {
+                    //noinspection ResultOfMethodCallIgnored
+                    segment.delete();
+                }
+            }
+        });
+    }
+
+    /** Writes batched edits now. */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (pending.isEmpty() || generation < 0) return;
+        List<Edit> batch = new ArrayList<>(pending);
+        pending.clear();
+        File file = new File(dir, noteId + "." + generation);
+        IO.execute(() -> {
+            try {
+                JSONArray array = new JSONArray();
+                for (Edit e : batch) array.put(e.toJson());
+                append(file, array.toString());
+            } catch (IOException | JSONException | RuntimeException ignored) {
+                // As above
+            }
+        });
+    }
+
+    private void schedule() {
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, JOURNAL_DELAY_MS);
+    }
+
+    // IO thread. One encrypted line per record; a torn last line fails to decrypt and ends replay.
+    private static void append(File file, String record) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create journal directory");
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write((EncryptionUtil.encrypt(record) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    /** Reads one segment's edits into edits; returns its base version, or -1 if unreadable. */
+    private static long read(File segment, List<Edit> edits) {
+        long base = -1;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(segment), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            if (line == null) return -1;
+            base = new JSONObject(EncryptionUtil.decrypt(line)).getLong("base");
+            while ((line = reader.readLine()) != null) {
+                JSONArray batch = new JSONArray(EncryptionUtil.decrypt(line));
+                for (int i = 0; i < batch.length(); i++) edits.add(Edit.fromJson(batch.getJSONObject(i)));
+            }
+        } catch (IOException | JSONException | RuntimeException e) {
+            // Keep what was read up to the damaged record
+        }
+        return base;
+    }
+
+    /** Directory of all journal segments. */
+    static File directory(Context context) {
+        return new File(context.getFilesDir(), DIR);
+    }
+
+    /** Note id of a journal segment file, or null if it is not one. */
+    static String noteIdOf(File segment) {
+        String name = segment.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0 || !name.substring(dot + 1).matches("\\d+")) return null;
+        return name.substring(0, dot);
+    }
+
+    private static File[] segments(File dir, String noteId) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith(noteId + ".")
+                && name.substring(noteId.length() + 1).matches("\\d+"));
+        if (files == null) return new File[0];
+        Arrays.sort(files, (a, b) -> Integer.compare(generationOf(a, noteId), generationOf(b, noteId)));
+        return files;
+    }
+
+    private static int generationOf(File segment, String noteId) {
+        return Integer.parseInt(segment.getName().substring(noteId.length() + 1));
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.securenote.data;
+
+import com.example.securenote.model.Attachment;
+import com.example.securenote.model.Note;
+import com.example.securenote.model.NoteBlock;
+import com.example.securenote.util.EncryptionUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves notes, then attachments, that are below the target key version onto it.
+ * Cursor: "n:" or "a:" (phase) followed by the last processed row id.
+ */
+class KeyRotationBackfill implements Backfill {
+
+    private static final String PHASE_NOTES = "n:";
+    private static final String PHASE_ATTACHMENTS = "a:";
+
+    private static final int NOTE_BATCH = 20;
+    private static final int ATTACHMENT_BATCH = 4;
+
+    interface Listener {
+        void onProgress(int targetVersion, int done, int total, int failed, boolean completed);
+    }
+
+    private final NoteDao noteDao;
+    private final NoteBlockDao noteBlockDao;
+    private final AttachmentDao attachmentDao;
+    private final AttachmentBlobStore blobStore;
+    private final int target;
+    private final Listener listener;
+    private int total = -1;
+
+    KeyRotationBackfill(AppDatabase db, AttachmentBlobStore blobStore, int target, Listener listener) {
+        this.noteDao = db.noteDao();
+        this.noteBlockDao = db.noteBlockDao();
+        this.attachmentDao = db.attachmentDao();
+        this.blobStore = blobStore;
+        this.target = target;
+        this.listener = listener;
+    }
+
+    @Override
+    public String getName() {
+        return "key_rotation_v" + target;
+    }
+
+    @Override
+    public void onProgress(com.example.securenote.model.MigrationProgress progress) {
+        if (total < 0) {
+            total = progress.getDone()
+                    + noteDao.countBelowKeyVersion(target)
+                    + attachmentDao.countBelowKeyVersion(target);
+        }
+        listener.onProgress(target, progress.getDone(), Math.max(total, progress.getDone()),
+                progress.getFailed(), progress.isCompleted());
+    }
+
+    @Override
+    public Batch prepare(String cursor) throws IOException {
+        if (cursor == null) cursor = PHASE_NOTES;
+
+        if (cursor.startsWith(PHASE_NOTES)) {
+            List<Note> notes = noteDao.getBelowKeyVersion(target,
+                    cursor.substring(PHASE_NOTES.length()), NOTE_BATCH);
+            if (notes == null || notes.isEmpty()) {
+                // Switch phase: an empty batch that only moves the cursor
+                return new Backfill.RowBatch(PHASE_ATTACHMENTS, 0, 0, new ArrayList<>());
+            }
+
+            // Keystore work happens here, outside the transaction, so the write lock
+            // is held only for the row updates
+            List<Runnable> updates = new ArrayList<>();
+            int failed = 0;
+            for (Note n : notes) {
+                Runnable update = rotateNote(n);
+                if (update == null) {
+                    failed++;
+                } else {
+                    updates.add(update);
+                }
+            }
+            String last = notes.get(notes.size() - 1).getId();
+            return new Backfill.RowBatch(PHASE_NOTES + last, notes.size(), failed, updates);
+        }
+
+        List<Attachment> attachments = attachmentDao.getBelowKeyVersion(target,
+                cursor.substring(PHASE_ATTACHMENTS.length()), ATTACHMENT_BATCH);
+        if (attachments == null || attachments.isEmpty()) return null;
+
+        List<Runnable> updates = new ArrayList<>();
+        int failed = 0;
+        for (Attachment att : attachments) {
+            Runnable update = rotateAttachment(att);
+            if (update == null) {
+                failed++;
+            } else {
+                updates.add(update);
+            }
+        }
+        String last = attachments.get(attachments.size() - 1).getId();
+        return new Backfill.RowBatch(PHASE_ATTACHMENTS + last, attachments.size(), failed, updates);
+    }
+
+    /** Re-encrypts one note and returns the row update to apply, or null if it failed. */
+    private Runnable rotateNote(Note n) {
+        String id = n.getId();
+        String oldTitle = n.getEncryptedTitle();
+        String oldContent = n.getEncryptedContent();
+
+        // Block-stored body: blocks below the target are re-encrypted along with the row
+        List<NoteBlock> blocks = n.isContentChunked() ? noteBlockDao.getForNote(id) : new ArrayList<>();
+
+        // Imported rows are tagged 0 but may already use a newer key
+        int current = Math.min(EncryptionUtil.keyVersionOf(oldTitle), EncryptionUtil.keyVersionOf(oldContent));
+        for (NoteBlock b : blocks) current = Math.min(current, EncryptionUtil.keyVersionOf(b.getEncryptedHtml()));
+        if (current >= target) {
+            int version = current;
+            return () -> noteDao.setKeyVersion(id, version);
+        }
+
+        try {
+            String title = EncryptionUtil.encrypt(EncryptionUtil.decrypt(oldTitle));
+            String content = EncryptionUtil.encryptCompressed(EncryptionUtil.decrypt(oldContent));
+            List<Runnable> blockUpdates = new ArrayList<>();
+            for (NoteBlock b : blocks) {
+                String oldCipher = b.getEncryptedHtml();
+                if (EncryptionUtil.keyVersionOf(oldCipher) >= target) continue;
+                String cipher = EncryptionUtil.encryptCompressed(EncryptionUtil.decrypt(oldCipher));
+                blockUpdates.add(() -> noteBlockDao.replaceCiphertext(b.getId(), oldCipher, cipher, target));
+            }
+            // 0 rows means the note was edited meanwhile, and that save already used the new key
+            return () -> {
+                for (Runnable update : blockUpdates) update.run();
+                noteDao.replaceCiphertext(id, oldTitle, oldContent, title, content, target);
+            };
+        } catch (RuntimeException e) {
+            // Not decryptable on this device (e.g. restored from another install's backup)
+            return null;
+        }
+    }
+
+    /**
+     * Rewrites one attachment file under the new key and returns the row update, or null.
+     * The file is replaced before the transaction; that is safe because decryption reads
+     * the key version from the file itself, whatever the row says.
+     */
+    private Runnable rotateAttachment(Attachment att) {
+        if (att.getBlobId() != null) {
+            // Shared blobs are rewritten once; later rows just pick up the blob's version
+            int version = blobStore.rotate(att.getBlobId(), target);
+            return version < 0 ? null : () -> attachmentDao.setKeyVersion(att.getId(), version);
+        }
+
+        String path = att.getEncryptedFilePath();
+        if (path == null || path.isEmpty() || !new File(path).exists()) {
+            return null;
+        }
+        File file = new File(path);
+
+        try {
+            String oldCipher = readText(file);
+            int current = EncryptionUtil.keyVersionOf(oldCipher);
+            if (current < target) {
+                String newCipher = EncryptionUtil.encrypt(EncryptionUtil.decrypt(oldCipher));
+
+                // Write next to the original and rename, so a crash leaves one intact file
+                File tmp = new File(file.getPath() + ".rekey");
+                try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                    fos.write(newCipher.getBytes(StandardCharsets.UTF_8));
+                    fos.getFD().sync();
+                }
+                if (!tmp.renameTo(file)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    tmp.delete();
+                    return null;
+                }
+            }
+            int version = Math.max(current, target);
+            return () -> attachmentDao.setKeyVersion(att.getId(), version);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readText(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+            return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
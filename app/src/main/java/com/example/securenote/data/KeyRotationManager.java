@@ -0,0 +1,127 @@
+package com.example.securenote.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.securenote.util.EncryptionUtil;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Rotates the Keystore key: creates a new key version (used for all new writes at once),
+ * then hands re-encryption of existing notes and attachments to BackfillRunner, which
+ * works through them in small checkpointed batches on a background-priority thread.
+ *
+ * Only the target version is kept here (SharedPreferences); batch progress lives in
+ * migration_progress. Reads never depend on it: each ciphertext names its own key version.
+ * The target is committed before its key is created, so a crash in between leaves a
+ * recorded rotation whose key is created on resume, never a key nobody knows about.
+ */
+public class KeyRotationManager {
+
+    private static final String PREFS = "key_rotation";
+    private static final String KEY_TARGET = "target_version";    // 0 = no rotation pending
+
+    public static class Progress {
+        public final int targetVersion;
+        public final int done;
+        public final int total;
+        public final int failed;     // rows that could not be decrypted; left as they were
+        public final boolean running;
+
+        Progress(int targetVersion, int done, int total, int failed, boolean running) {
+            this.targetVersion = targetVersion;
+            this.done = done;
+            this.total = total;
+            this.failed = failed;
+            this.running = running;
+        }
+    }
+
+    private static KeyRotationManager INSTANCE;
+
+    private final AppDatabase db;
+    private final BackfillRunner runner;
+    private final AttachmentBlobStore blobStore;
+    private final SharedPreferences prefs;
+    // Key creation only; the re-encryption itself runs on the BackfillRunner
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final MutableLiveData<Progress> progressLiveData = new MutableLiveData<>();
+
+    private KeyRotationManager(Context context) {
+        this.db = AppDatabase.getInstance(context);
+        this.runner = BackfillRunner.getInstance(context);
+        this.blobStore = AttachmentBlobStore.getInstance(context);
+        this.prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized KeyRotationManager getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new KeyRotationManager(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    public LiveData<Progress> getProgressLiveData() {
+        return progressLiveData;
+    }
+
+    public boolean isRotationPending() {
+        return prefs.getInt(KEY_TARGET, 0) > 0;
+    }
+
+    /**
+     * Starts a new rotation, or continues the pending one (a second key is never created
+     * while rows are still being moved to the previous one). Call from the main thread.
+     */
+    public void startRotation() {
+        // Replace any finished state right away so observers don't see a stale result
+        progressLiveData.setValue(new Progress(0, 0, 0, 0, true));
+        executor.execute(() -> {
+            int target = prefs.getInt(KEY_TARGET, 0);
+            try {
+                if (target <= 0) {
+                    target = EncryptionUtil.nextKeyVersion();
+                    if (!prefs.edit().putInt(KEY_TARGET, target).commit()) {
+                        progressLiveData.postValue(new Progress(0, 0, 0, 0, false));
+                        return;
+                    }
+                }
+                EncryptionUtil.rotateKey(target);
+            } catch (RuntimeException e) {
+                progressLiveData.postValue(new Progress(0, 0, 0, 0, false));
+                return;
+            }
+            runner.enqueue(newBackfill(target));
+        });
+    }
+
+    /**
+     * Called at app start; picks up a rotation that was interrupted by process death,
+     * first creating its key if the process died before that happened.
+     */
+    public void resumeIfPending() {
+        int target = prefs.getInt(KEY_TARGET, 0);
+        if (target <= 0) return;
+        executor.execute(() -> {
+            try {
+                EncryptionUtil.rotateKey(target);
+            } catch (RuntimeException e) {
+                // Keystore unavailable; the target stays recorded for the next start
+                return;
+            }
+            runner.enqueue(newBackfill(target));
+        });
+    }
+
+    private Backfill newBackfill(int target) {
+        return new KeyRotationBackfill(db, blobStore, target, (version, done, total, failed, completed) -> {
+            if (completed) prefs.edit().putInt(KEY_TARGET, 0).commit();
+            progressLiveData.postValue(new Progress(version, done, total, failed, !completed));
+        });
+    }
+}
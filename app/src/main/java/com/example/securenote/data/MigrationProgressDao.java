@@ -0,0 +1,24 @@
+package com.example.securenote.data;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.securenote.model.MigrationProgress;
+
+import java.util.List;
+
+@Dao
+public interface MigrationProgressDao {
+
+    @Query("SELECT * FROM migration_progress WHERE name = :name")
+    MigrationProgress get(String name);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void save(MigrationProgress progress);
+
+    @Query("SELECT * FROM migration_progress ORDER BY updatedAt DESC")
+    LiveData<List<MigrationProgress>> getAllLive();
+}
@@ -0,0 +1,39 @@
+package com.example.securenote.data;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.securenote.model.NoteBlock;
+
+import java.util.List;
+
+@Dao
+public interface NoteBlockDao {
+
+    @Query("SELECT * FROM note_blocks WHERE noteId = :noteId ORDER BY ord")
+    List<NoteBlock> getForNote(String noteId);
+
+    /** A note's blocks without their ciphertext; enough to match them against a new body. */
+    @Query("SELECT id, noteId, ord, mac, NULL AS encryptedHtml, keyVersion " +
+            "FROM note_blocks WHERE noteId = :noteId ORDER BY ord")
+    List<NoteBlock> getRefsForNote(String noteId);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<NoteBlock> blocks);
+
+    @Query("UPDATE note_blocks SET ord = :ord WHERE id = :id")
+    void setOrd(String id, int ord);
+
+    @Query("DELETE FROM note_blocks WHERE id IN (:ids)")
+    void deleteByIds(List<String> ids);
+
+    @Query("DELETE FROM note_blocks WHERE noteId = :noteId")
+    void deleteForNote(String noteId);
+
+    /** Key rotation; 0 rows if the block was replaced by a save meanwhile. */
+    @Query("UPDATE note_blocks SET encryptedHtml = :cipher, keyVersion = :keyVersion " +
+            "WHERE id = :id AND encryptedHtml IS :oldCipher")
+    int replaceCiphertext(String id, String oldCipher, String cipher, int keyVersion);
+}
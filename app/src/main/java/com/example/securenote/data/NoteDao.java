@@ -26,8 +26,11 @@ public interface NoteDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insert(Note note);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<Note> notes);
+
     @Update
-    void update(Note note);
+    int update(Note note);
 
     @Delete
     void delete(Note note);
@@ -35,19 +38,86 @@ public interface NoteDao {
     @Query("DELETE FROM notes WHERE id = :id")
     void deleteById(String id);
 
-    @Query("UPDATE notes SET inTrash = 1 WHERE id = :id")
-    void moveToTrash(String id);
+    @Query("DELETE FROM notes WHERE id IN (:ids)")
+    void deleteByIds(List<String> ids);
+
+    @Query("UPDATE notes SET inTrash = 1, trashedAt = :trashedAt WHERE id = :id")
+    void moveToTrash(String id, long trashedAt);
 
-    @Query("UPDATE notes SET inTrash = 0 WHERE id = :id")
+    @Query("UPDATE notes SET inTrash = 0, trashedAt = 0 WHERE id = :id")
     void restoreFromTrash(String id);
 
     @Query("DELETE FROM notes WHERE id = :id AND inTrash = 1")
     void deleteFromTrash(String id);
 
+    // ---- Bulk (multi-select); callers keep ids below SQLite's parameter limit ----
+
+    @Query("UPDATE notes SET inTrash = 1, trashedAt = :trashedAt WHERE id IN (:ids) AND inTrash = 0")
+    void moveToTrashByIds(List<String> ids, long trashedAt);
+
+    @Query("UPDATE notes SET inTrash = 0, trashedAt = 0 WHERE id IN (:ids) AND inTrash = 1")
+    void restoreFromTrashByIds(List<String> ids);
+
+    @Query("UPDATE notes SET pinned = :pinned WHERE id IN (:ids)")
+    void setPinnedByIds(List<String> ids, boolean pinned);
+
+    @Query("UPDATE notes SET category = :category WHERE id IN (:ids)")
+    void setCategoryByIds(List<String> ids, String category);
+
+    @Query("SELECT id FROM notes WHERE id IN (:ids)")
+    List<String> getExistingIds(List<String> ids);
+
+    @Query("SELECT id FROM notes WHERE id IN (:ids) AND inTrash = 1")
+    List<String> getTrashedIds(List<String> ids);
+
+    @Query("DELETE FROM notes WHERE id IN (:ids) AND inTrash = 1")
+    void deleteTrashedByIds(List<String> ids);
+
     @Query("SELECT * FROM notes WHERE inTrash = 0")
     List<Note> getActiveNotesNow();
 
     @Query("SELECT * FROM notes WHERE inTrash = 1")
     List<Note> getTrashNotesNow();
 
+    @Query("SELECT * FROM notes WHERE id = :id")
+    Note getByIdNow(String id);
+
+    // ---- Trash retention ----
+
+    /** Notes trashed before trashedAt was recorded start their retention period now. */
+    @Query("UPDATE notes SET trashedAt = :now WHERE inTrash = 1 AND trashedAt = 0")
+    int startTrashClock(long now);
+
+    @Query("SELECT id FROM notes WHERE inTrash = 1 AND trashedAt > 0 AND trashedAt < :trashedBefore " +
+            "ORDER BY trashedAt LIMIT :limit")
+    List<String> getExpiredTrashIds(long trashedBefore, int limit);
+
+    /** Deletes those of ids that are still expired trash; a restored note is left alone. */
+    @Query("DELETE FROM notes WHERE id IN (:ids) AND inTrash = 1 AND trashedAt > 0 " +
+            "AND trashedAt < :trashedBefore")
+    int deleteExpiredTrash(List<String> ids, long trashedBefore);
+
+    // ---- Background backfills ----
+
+    @Query("SELECT * FROM notes WHERE id > :afterId ORDER BY id LIMIT :limit")
+    List<Note> getPageAfter(String afterId, int limit);
+
+    @Query("SELECT * FROM notes WHERE keyVersion < :keyVersion AND id > :afterId ORDER BY id LIMIT :limit")
+    List<Note> getBelowKeyVersion(int keyVersion, String afterId, int limit);
+
+    @Query("SELECT COUNT(*) FROM notes WHERE keyVersion < :keyVersion")
+    int countBelowKeyVersion(int keyVersion);
+
+    /**
+     * Swaps in re-encrypted values only if the row still holds the ones that were read,
+     * so a concurrent edit is never overwritten. Returns the number of rows updated.
+     */
+    @Query("UPDATE notes SET encryptedTitle = :title, encryptedContent = :content, keyVersion = :keyVersion " +
+            "WHERE id = :id AND encryptedTitle IS :oldTitle AND encryptedContent IS :oldContent")
+    int replaceCiphertext(String id, String oldTitle, String oldContent,
+                          String title, String content, int keyVersion);
+
+    @Query("UPDATE notes SET keyVersion = :keyVersion WHERE id = :id")
+    void setKeyVersion(String id, int keyVersion);
+
 }
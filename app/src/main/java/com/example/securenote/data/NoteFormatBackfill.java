@@ -0,0 +1,57 @@
+package com.example.securenote.data;
+
+import com.example.securenote.model.Note;
+import com.example.securenote.util.EncryptionUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Re-encodes notes still stored in the legacy or v1 ciphertext layout into the current
+ * one, which also compresses note bodies (CompressionCodec) and records the key version.
+ * Cursor: id of the last note looked at.
+ */
+public class NoteFormatBackfill implements Backfill {
+
+    private static final int BATCH = 25;
+
+    private final NoteDao noteDao;
+
+    public NoteFormatBackfill(AppDatabase db) {
+        this.noteDao = db.noteDao();
+    }
+
+    @Override
+    public String getName() {
+        return "note_format_v2";
+    }
+
+    @Override
+    public Batch prepare(String cursor) {
+        List<Note> notes = noteDao.getPageAfter(cursor != null ? cursor : "", BATCH);
+        if (notes == null || notes.isEmpty()) return null;
+
+        List<Runnable> updates = new ArrayList<>();
+        int failed = 0;
+        for (Note n : notes) {
+            String id = n.getId();
+            String oldTitle = n.getEncryptedTitle();
+            String oldContent = n.getEncryptedContent();
+            if (EncryptionUtil.isCurrentFormat(oldTitle) && EncryptionUtil.isCurrentFormat(oldContent)) {
+                continue;
+            }
+            try {
+                String title = EncryptionUtil.encrypt(EncryptionUtil.decrypt(oldTitle));
+                String content = EncryptionUtil.encryptCompressed(EncryptionUtil.decrypt(oldContent));
+                int keyVersion = Math.min(EncryptionUtil.keyVersionOf(title), EncryptionUtil.keyVersionOf(content));
+                // Skipped if the note was saved meanwhile; that save already used the new format
+                updates.add(() -> noteDao.replaceCiphertext(id, oldTitle, oldContent, title, content, keyVersion));
+            } catch (RuntimeException e) {
+                // Not decryptable here (another install's backup); stays readable-as-is elsewhere
+                failed++;
+            }
+        }
+        String last = notes.get(notes.size() - 1).getId();
+        return new RowBatch(last, notes.size(), failed, updates);
+    }
+}
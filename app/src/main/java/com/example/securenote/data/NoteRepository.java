@@ -3,30 +3,59 @@ package com.example.securenote.data;
 import android.content.Context;
 import android.os.Environment;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.util.Base64;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
 
+import com.example.securenote.model.AttachmentBlob;
 import com.example.securenote.model.Note;
+import com.example.securenote.model.NoteBlock;
+import com.example.securenote.model.NoteStorage;
+import com.example.securenote.model.StorageBucket;
+import com.example.securenote.model.StorageTotals;
+import com.example.securenote.util.BackupIndexReader;
+import com.example.securenote.util.BackupManifest;
+import com.example.securenote.util.BackupReader;
+import com.example.securenote.util.BackupStats;
 import com.example.securenote.util.BackupUtils;
+import com.example.securenote.util.BackupVerifier;
+import com.example.securenote.util.BackupWriter;
 import com.example.securenote.util.EncryptionUtil;
+import com.example.securenote.util.ImageTranscoder;
+import com.example.securenote.util.NoteBlocks;
+import com.example.securenote.util.RankUtil;
 import com.example.securenote.model.Attachment;
 import com.example.securenote.model.TodoItem;
+import com.example.securenote.model.TodoProgress;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 
 
 
@@ -34,9 +63,22 @@ public class NoteRepository {
 
     private static NoteRepository INSTANCE;
 
+    // Hashes of what the last backup contained, used for incremental exports
+    private static final String BACKUP_MANIFEST_FILE = "backup_manifest.json";
+    private static final int SQL_IN_BATCH = 500;
+
+    // Segment sealing threads for backup export; keep one core for the UI
+    private static final int BACKUP_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final AppDatabase db;
     private final NoteDao noteDao;
     private final AttachmentDao attachmentDao;
+    private final StorageDao storageDao;
+    private final AttachmentBlobStore blobStore;
     private final ExecutorService executor;
+    // Long-running backup work, kept off the CRUD executor so saves are never blocked
+    private final ExecutorService backupExecutor;
     private final MutableLiveData<String> errorLiveData = new MutableLiveData<>();
 
     // LiveData from Room (encrypted in DB)
@@ -47,14 +89,38 @@ public class NoteRepository {
     private final LiveData<List<Note>> activeNotesDecrypted;
     private final LiveData<List<Note>> trashNotesDecrypted;
     private final TodoDao todoDao;
+    private final TodoWriteBuffer todoWrites;
+    private final NoteBlockDao noteBlockDao;
+    private final Context appContext;
+
+    // Lower-cased full bodies of block-stored notes for search, by note id. Filled on the
+    // executor; entries are also dropped by TrashPurger (see forgetDeletedNotes())
+    private final Map<String, SearchableBody> searchableBodies = new ConcurrentHashMap<>();
+
+    private static class SearchableBody {
+        final long timestamp;   // the note version the text was read from
+        final String text;
+
+        SearchableBody(long timestamp, String text) {
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+    }
 
 
     private NoteRepository(Context context) {
-        AppDatabase db = AppDatabase.getInstance(context);
+        this.appContext = context;
+        this.db = AppDatabase.getInstance(context);
         this.noteDao = db.noteDao();
         this.attachmentDao = db.attachmentDao();
+        this.storageDao = db.storageDao();
+        this.blobStore = AttachmentBlobStore.getInstance(context);
         this.todoDao = db.todoDao();
+        this.noteBlockDao = db.noteBlockDao();
         this.executor = Executors.newSingleThreadExecutor();
+        this.todoWrites = new TodoWriteBuffer(db, todoDao, executor,
+                e -> errorLiveData.postValue("Failed to save to-dos: " + e.getMessage()));
+        this.backupExecutor = Executors.newSingleThreadExecutor();
 
         // DAO returns encrypted entities directly from Room
         activeNotesEncrypted = noteDao.getActiveNotes();
@@ -97,6 +163,11 @@ public class NoteRepository {
     // Encrypt a UI note before storing it in Room
     private Note encryptForStorage(Note plain) {
         if (plain == null) return null;
+        return encryptForStorage(plain, plain.getContent());
+    }
+
+    // As above, storing storedContent (e.g. a preview of a block-stored body) as content
+    private Note encryptForStorage(Note plain, String storedContent) {
 
         Note stored = new Note();
         stored.setId(plain.getId());
@@ -105,16 +176,20 @@ public class NoteRepository {
         stored.setLocked(plain.isLocked());
         stored.setLockPassword(plain.getLockPassword());
         stored.setInTrash(plain.isInTrash());
+        stored.setTrashedAt(plain.getTrashedAt());
 
         // PERBAIKAN KRITIS UNTUK KATEGORI: Salin kategori agar tersimpan di Room.
         stored.setCategory(plain.getCategory());
 
         String title = plain.getTitle() != null ? plain.getTitle() : "";
-        String content = plain.getContent() != null ? plain.getContent() : "";
+        String content = storedContent != null ? storedContent : "";
 
         // AES-GCM via CryptoManager – requires key initialized in LockActivity
         stored.setEncryptedTitle(EncryptionUtil.encrypt(title));
-        stored.setEncryptedContent(EncryptionUtil.encrypt(content));
+        stored.setEncryptedContent(EncryptionUtil.encryptCompressed(content));
+        stored.setKeyVersion(Math.min(
+                EncryptionUtil.keyVersionOf(stored.getEncryptedTitle()),
+                EncryptionUtil.keyVersionOf(stored.getEncryptedContent())));
 
         // Plaintext title/content are NOT stored in DB
         return stored;
@@ -138,6 +213,9 @@ public class NoteRepository {
         ui.setLocked(stored.isLocked());
         ui.setLockPassword(stored.getLockPassword());
         ui.setInTrash(stored.isInTrash());
+        ui.setTrashedAt(stored.getTrashedAt());
+        // For block-stored bodies the content below is a preview; see loadNoteContent()
+        ui.setBlockCount(stored.getBlockCount());
 
         // PERBAIKAN: Salin nilai kategori dari objek yang tersimpan ke objek UI
         ui.setCategory(stored.getCategory());
@@ -199,9 +277,7 @@ public class NoteRepository {
                     note.setId(UUID.randomUUID().toString());
                 }
                 note.setTimestamp(System.currentTimeMillis());
-
-                Note enc = encryptForStorage(note);
-                noteDao.insert(enc);
+                saveNote(note, false);
 
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to add note: " + e.getMessage());
@@ -213,20 +289,177 @@ public class NoteRepository {
         executor.execute(() -> {
             try {
                 note.setTimestamp(System.currentTimeMillis());
-                Note enc = encryptForStorage(note);
-                noteDao.update(enc);
+                saveNote(note, true);
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to update note: " + e.getMessage());
             }
         });
     }
 
+    /**
+     * Saves a note from the editor as it is, timestamp included: the editor's EditJournal
+     * uses that timestamp to tell which journal segments follow the stored version.
+     * onSaved runs on the repository thread once the note is stored.
+     */
+    public void saveEditedNote(Note note, boolean update, Runnable onSaved) {
+        executor.execute(() -> {
+            try {
+                saveNote(note, update);
+                onSaved.run();
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to save note: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stores a note from the editor. Bodies below NoteBlocks.CHUNK_THRESHOLD go inline into
+     * encryptedContent. Longer ones are split into blocks: blocks whose keyed hash matches a
+     * stored block are kept as they are (at most their ord changes), so a save encrypts and
+     * writes only the blocks that were edited, plus the note row with a short preview.
+     */
+    private void saveNote(Note note, boolean update) {
+        String content = note.getContent() != null ? note.getContent() : "";
+        if (!NoteBlocks.shouldChunk(content)) {
+            Note enc = encryptForStorage(note);
+            db.runInTransaction(() -> {
+                if (update) noteDao.update(enc);
+                else noteDao.insert(enc);
+                // The body may have been block-stored before it shrank
+                noteBlockDao.deleteForNote(enc.getId());
+            });
+            return;
+        }
+
+        // Stored blocks by plaintext hash; identical paragraphs groups may occur twice
+        Map<String, Deque<NoteBlock>> stored = new HashMap<>();
+        for (NoteBlock b : noteBlockDao.getRefsForNote(note.getId())) {
+            Deque<NoteBlock> same = stored.get(b.getMac());
+            if (same == null) stored.put(b.getMac(), same = new ArrayDeque<>());
+            same.add(b);
+        }
+
+        List<String> blocks = NoteBlocks.split(content);
+        List<NoteBlock> added = new ArrayList<>();
+        List<NoteBlock> moved = new ArrayList<>();
+        int keyVersion = Integer.MAX_VALUE;
+        javax.crypto.Mac mac = EncryptionUtil.newContentMac();
+        for (int i = 0; i < blocks.size(); i++) {
+            String html = blocks.get(i);
+            String hash = AttachmentBlobStore.toHex(mac.doFinal(html.getBytes(StandardCharsets.UTF_8)));
+            Deque<NoteBlock> same = stored.get(hash);
+            NoteBlock kept = same != null ? same.poll() : null;
+            if (kept != null) {
+                if (kept.getOrd() != i) {
+                    kept.setOrd(i);
+                    moved.add(kept);
+                }
+                keyVersion = Math.min(keyVersion, kept.getKeyVersion());
+            } else {
+                String cipher = EncryptionUtil.encryptCompressed(html);
+                int version = EncryptionUtil.keyVersionOf(cipher);
+                added.add(new NoteBlock(UUID.randomUUID().toString(), note.getId(), i, hash, cipher, version));
+                keyVersion = Math.min(keyVersion, version);
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (Deque<NoteBlock> left : stored.values()) {
+            for (NoteBlock b : left) removed.add(b.getId());
+        }
+
+        Note enc = encryptForStorage(note, NoteBlocks.preview(content));
+        enc.setBlockCount(blocks.size());
+        enc.setKeyVersion(Math.min(enc.getKeyVersion(), keyVersion));
+
+        db.runInTransaction(() -> {
+            // Never REPLACE an existing row here: its DELETE trigger would drop all blocks
+            if (noteDao.update(enc) == 0) noteDao.insert(enc);
+            for (List<String> batch : batches(removed)) noteBlockDao.deleteByIds(batch);
+            for (NoteBlock b : moved) noteBlockDao.setOrd(b.getId(), b.getOrd());
+            if (!added.isEmpty()) noteBlockDao.insertAll(added);
+        });
+    }
+
+    /**
+     * Ids of those notes whose full body contains query (lower case), for block-stored notes,
+     * whose list entries only carry a preview. Runs on the executor; a body is decrypted from
+     * its blocks once and kept until the note is saved again, so typing a query stays cheap.
+     */
+    public LiveData<Set<String>> findInBlockStoredBodies(List<Note> notes, String query) {
+        MutableLiveData<Set<String>> result = new MutableLiveData<>();
+        executor.execute(() -> {
+            Set<String> matches = new HashSet<>();
+            for (Note n : notes) {
+                try {
+                    SearchableBody body = searchableBodies.get(n.getId());
+                    if (body == null || body.timestamp != n.getTimestamp()) {
+                        StringBuilder html = new StringBuilder();
+                        for (NoteBlock b : noteBlockDao.getForNote(n.getId())) {
+                            html.append(EncryptionUtil.decrypt(b.getEncryptedHtml()));
+                        }
+                        body = new SearchableBody(n.getTimestamp(), html.toString().toLowerCase());
+                        searchableBodies.put(n.getId(), body);
+                    }
+                    if (body.text.contains(query)) matches.add(n.getId());
+                } catch (Exception e) {
+                    // Unreadable body: the note can still match on its title and preview
+                }
+            }
+            result.postValue(matches);
+        });
+        return result;
+    }
+
+    /**
+     * Full HTML body of a note, decrypted on the executor: from its blocks, or from
+     * encryptedContent for inline notes. The LiveData receives null if it cannot be read.
+     */
+    public LiveData<String> loadNoteContent(String noteId) {
+        MutableLiveData<String> result = new MutableLiveData<>();
+        executor.execute(() -> {
+            try {
+                List<NoteBlock> blocks = noteBlockDao.getForNote(noteId);
+                if (blocks.isEmpty()) {
+                    Note stored = noteDao.getByIdNow(noteId);
+                    result.postValue(stored == null || stored.getEncryptedContent() == null
+                            ? "" : EncryptionUtil.decrypt(stored.getEncryptedContent()));
+                    return;
+                }
+                StringBuilder html = new StringBuilder();
+                for (NoteBlock b : blocks) html.append(EncryptionUtil.decrypt(b.getEncryptedHtml()));
+                result.postValue(html.toString());
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to load note: " + e.getMessage());
+                result.postValue(null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Timestamp of the stored note, the version its edit journal is based on; null if the
+     * note is not stored (or cannot be read).
+     */
+    public LiveData<Long> loadNoteVersion(String noteId) {
+        MutableLiveData<Long> result = new MutableLiveData<>();
+        executor.execute(() -> {
+            try {
+                Note stored = noteDao.getByIdNow(noteId);
+                result.postValue(stored == null ? null : stored.getTimestamp());
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to load note: " + e.getMessage());
+                result.postValue(null);
+            }
+        });
+        return result;
+    }
+
     public void deleteNote(Note note) {
         executor.execute(() -> {
             try {
                 // Only id really matters for delete; we can re-encrypt for consistency
                 Note enc = encryptForStorage(note);
-                noteDao.delete(enc);
+                deleteWithAttachments(note.getId(), () -> noteDao.delete(enc));
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to delete note: " + e.getMessage());
             }
@@ -236,7 +469,7 @@ public class NoteRepository {
     public void moveToTrash(Note note) {
         executor.execute(() -> {
             try {
-                noteDao.moveToTrash(note.getId());
+                noteDao.moveToTrash(note.getId(), System.currentTimeMillis());
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to move to trash: " + e.getMessage());
             }
@@ -256,35 +489,121 @@ public class NoteRepository {
     public void deleteFromTrash(Note note) {
         executor.execute(() -> {
             try {
-                noteDao.deleteFromTrash(note.getId());
+                deleteWithAttachments(note.getId(), () -> noteDao.deleteFromTrash(note.getId()));
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to delete from trash: " + e.getMessage());
+            }
+        });
+    }
+
+    // ----------------- Bulk operations (multi-select) -----------------
+    // Each runs as one executor task and one transaction, so Room invalidates the note
+    // lists once however many notes are affected.
+
+    public void moveNotesToTrash(List<String> noteIds) {
+        long now = System.currentTimeMillis();
+        runBulk("move to trash", () -> {
+            for (List<String> batch : batches(noteIds)) noteDao.moveToTrashByIds(batch, now);
+        });
+    }
+
+    public void restoreNotesFromTrash(List<String> noteIds) {
+        runBulk("restore from trash", () -> {
+            for (List<String> batch : batches(noteIds)) noteDao.restoreFromTrashByIds(batch);
+        });
+    }
+
+    public void setNotesPinned(List<String> noteIds, boolean pinned) {
+        runBulk("update notes", () -> {
+            for (List<String> batch : batches(noteIds)) noteDao.setPinnedByIds(batch, pinned);
+        });
+    }
+
+    public void setNotesCategory(List<String> noteIds, String category) {
+        runBulk("update notes", () -> {
+            for (List<String> batch : batches(noteIds)) noteDao.setCategoryByIds(batch, category);
+        });
+    }
+
+    /** Permanently deletes those of noteIds that are in the trash, with their todos and attachments. */
+    public void deleteNotesFromTrash(List<String> noteIds) {
+        executor.execute(() -> {
+            try {
+                List<String> trashed = new ArrayList<>();
+                List<Attachment> attachments = new ArrayList<>();
+                for (List<String> batch : batches(noteIds)) trashed.addAll(noteDao.getTrashedIds(batch));
+                for (List<String> batch : batches(trashed)) attachments.addAll(attachmentDao.getForNotesNow(batch));
+
+                blobStore.deleteAttachments(attachments, () -> {
+                    for (List<String> batch : batches(trashed)) {
+                        attachmentDao.deleteForNotes(batch);
+                        todoDao.deleteByNoteIds(batch);
+                        noteDao.deleteTrashedByIds(batch);
+                    }
+                });
+                forgetDeletedNotes(trashed);
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to delete from trash: " + e.getMessage());
             }
         });
     }
 
+    private void runBulk(String what, Runnable statements) {
+        executor.execute(() -> {
+            try {
+                db.runInTransaction(statements);
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to " + what + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /** Deletes a note's attachments (rows and unreferenced data) together with the note. */
+    private void deleteWithAttachments(String noteId, Runnable deleteNote) {
+        List<Attachment> attachments = attachmentDao.getForNoteNow(noteId);
+        blobStore.deleteAttachments(attachments != null ? attachments : new ArrayList<>(), () -> {
+            attachmentDao.deleteForNote(noteId);
+            deleteNote.run();
+        });
+        forgetDeletedNotes(java.util.Collections.singletonList(noteId));
+    }
+
+    /**
+     * Drops what is kept about permanently deleted notes outside Room: their edit journals
+     * (encrypted, but still their content) and cached search text. Every path that deletes
+     * note rows calls this once they are gone; AttachmentGarbageCollector sweeps up journals
+     * a crash left behind.
+     */
+    public void forgetDeletedNotes(List<String> noteIds) {
+        for (String id : noteIds) {
+            EditJournal.delete(appContext, id);
+            searchableBodies.remove(id);
+        }
+    }
+
     /**
      * Synchronous backup export.
      * Call this from a background thread (NOT main/UI thread).
      * Returns the absolute file path of the created backup file.
+     * A full backup also starts a new incremental chain.
      */
     public String exportBackupSync(Context context, String backupPassword) {
-        try {
-            // 1) Get all notes from DB in encrypted form (as stored in Room)
-            List<Note> activeEnc = noteDao.getActiveNotesNow();
-            List<Note> trashEnc  = noteDao.getTrashNotesNow();
-
-            List<Note> allEnc = new ArrayList<>();
-            if (activeEnc != null) allEnc.addAll(activeEnc);
-            if (trashEnc  != null) allEnc.addAll(trashEnc);
-
-            // 2) JSON (still encryptedTitle/encryptedContent)
-            String json = BackupUtils.notesToJson(allEnc);
+        return exportBackupSync(context, backupPassword, false);
+    }
 
-            // 3) Encrypt JSON with backup password
-            String encrypted = BackupUtils.encryptBackup(json, backupPassword);
+    /**
+     * Synchronous incremental export: only records added, changed or deleted since the
+     * last backup (full or incremental) are written, plus a reference to that backup.
+     * Falls back to a full backup if no previous backup manifest exists.
+     * Call this from a background thread (NOT main/UI thread).
+     */
+    public String exportIncrementalBackupSync(Context context, String backupPassword) {
+        return exportBackupSync(context, backupPassword, true);
+    }
 
-            // 4) Save into PUBLIC Downloads folder instead of Android/data
+    private String exportBackupSync(Context context, String backupPassword, boolean incremental) {
+        try {
+            // Save into PUBLIC Downloads folder instead of Android/data
             File dir = Environment.getExternalStoragePublicDirectory(
                     Environment.DIRECTORY_DOWNLOADS
             );
@@ -292,23 +611,290 @@ public class NoteRepository {
                 dir.mkdirs();
             }
 
-            String fileName = "SecureNoteBackup_" + System.currentTimeMillis() + ".enc";
+            String fileName = "SecureNoteBackup_" + System.currentTimeMillis()
+                    + (incremental ? "_incr" : "") + ".enc";
             File outFile = new File(dir, fileName);
 
-            FileOutputStream fos = new FileOutputStream(outFile);
-            fos.write(encrypted.getBytes(StandardCharsets.UTF_8));
-            fos.flush();
-            fos.close();
+            try (OutputStream os = new FileOutputStream(outFile)) {
+                exportBackupSync(context, os, backupPassword, incremental);
+            }
 
             return outFile.getAbsolutePath();
 
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Backup export failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Synchronous export into any stream (e.g. a SAF document), using the parallel
+     * segment pipeline. The stream is closed when done.
+     * Call this from a background thread (NOT main/UI thread).
+     */
+    public BackupStats exportBackupSync(Context context, OutputStream os,
+                                        String backupPassword, boolean incremental) {
+        try {
+            File manifestFile = new File(context.getFilesDir(), BACKUP_MANIFEST_FILE);
+            BackupManifest base = incremental ? BackupManifest.load(manifestFile) : null;
+            return writeBackup(os, backupPassword, base, manifestFile, BACKUP_THREADS);
         } catch (Exception e) {
             throw new RuntimeException("Backup export failed: " + e.getMessage(), e);
         }
     }
 
+    /** Exports on the backup executor; the LiveData receives the stats once finished. */
+    public LiveData<BackupStats> exportBackup(Context context, Uri target,
+                                              String backupPassword, boolean incremental) {
+        MutableLiveData<BackupStats> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try {
+                OutputStream os = app.getContentResolver().openOutputStream(target);
+                if (os == null) throw new IOException("Cannot open " + target);
+                result.postValue(exportBackupSync(app, os, backupPassword, incremental));
+            } catch (Exception e) {
+                errorLiveData.postValue(e.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Checks a backup's integrity and password without importing anything.
+     * Runs on the backup executor; Room is never touched.
+     */
+    public LiveData<BackupVerifier.Report> verifyBackup(Context context, Uri source, String backupPassword) {
+        MutableLiveData<BackupVerifier.Report> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try (InputStream in = app.getContentResolver().openInputStream(source)) {
+                if (in == null) throw new IOException("Cannot open " + source);
+                result.postValue(BackupVerifier.verify(in, backupPassword));
+            } catch (Exception e) {
+                errorLiveData.postValue("Backup verification failed: " + e.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /** Imports on the backup executor; the LiveData receives true once finished. */
+    public LiveData<Boolean> importBackup(Context context, Uri source, String backupPassword) {
+        MutableLiveData<Boolean> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try (InputStream in = app.getContentResolver().openInputStream(source)) {
+                if (in == null) throw new IOException("Cannot open " + source);
+                importBackupSync(app, in, backupPassword);
+                result.postValue(true);
+            } catch (Exception e) {
+                errorLiveData.postValue(e.getMessage());
+                result.postValue(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Writes the active notes as a plain, unencrypted JSON array (the drawer's Export Backup)
+     * on the backup executor. Block-stored bodies are written in full. The LiveData receives
+     * the number of notes written; with none, nothing is written.
+     */
+    public LiveData<Integer> exportPlainJsonBackup(Context context, Uri target) {
+        MutableLiveData<Integer> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try {
+                JSONArray array = new JSONArray();
+                for (Note stored : noteDao.getActiveNotesNow()) {
+                    array.put(BackupUtils.noteToPlainExportJson(plainForBackup(stored)));
+                }
+                if (array.length() > 0) {
+                    try (OutputStream os = app.getContentResolver().openOutputStream(target)) {
+                        if (os == null) throw new IOException("Cannot open " + target);
+                        os.write(array.toString(2).getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                result.postValue(array.length());
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to export backup: " + e.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Tells a plain JSON export (a JSON array) from an encrypted backup by its first byte,
+     * read on the backup executor.
+     */
+    public LiveData<Boolean> isPlainJsonBackup(Context context, Uri source) {
+        MutableLiveData<Boolean> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try (InputStream in = app.getContentResolver().openInputStream(source)) {
+                if (in == null) throw new IOException("Cannot open " + source);
+                int first = in.read();
+                if (first == -1) throw new IOException("The file is empty");
+                result.postValue(first == '[');
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to read backup: " + e.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Imports a plain JSON export as new notes on the backup executor; the LiveData receives
+     * the number of notes imported.
+     */
+    public LiveData<Integer> importPlainJsonBackup(Context context, Uri source) {
+        MutableLiveData<Integer> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try (InputStream in = app.getContentResolver().openInputStream(source)) {
+                if (in == null) throw new IOException("Cannot open " + source);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) bytes.write(buffer, 0, n);
+
+                JSONArray array = new JSONArray(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                for (int i = 0; i < array.length(); i++) {
+                    Note note = BackupUtils.plainExportJsonToNote(array.getJSONObject(i));
+                    note.setId(UUID.randomUUID().toString());
+                    note.setTimestamp(System.currentTimeMillis());
+                    saveNote(note, false);
+                }
+                result.postValue(array.length());
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to import backup: " + e.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Streams notes, todo items and attachments into a segmented backup. Titles, bodies and
+     * attachment data are decrypted as they are written: the backup key seals them, and a
+     * backup has to restore on installs that do not have this device's Keystore key.
+     *
+     * @param base         manifest of the previous backup; when non-null only the difference
+     *                     against it is written
+     * @param manifestFile where the manifest describing this backup is saved on success
+     */
+    private BackupStats writeBackup(OutputStream os, String backupPassword, BackupManifest base,
+                                    File manifestFile, int parallelism) throws IOException {
+        // Notes in encrypted form (as stored in Room), including trash
+        List<Note> allEnc = new ArrayList<>();
+        List<Note> activeEnc = noteDao.getActiveNotesNow();
+        List<Note> trashEnc  = noteDao.getTrashNotesNow();
+        if (activeEnc != null) allEnc.addAll(activeEnc);
+        if (trashEnc  != null) allEnc.addAll(trashEnc);
+
+        List<TodoItem> allTodos = todoDao.getAllTodosSync();
+        List<Attachment> allAttachments = attachmentDao.getAllNow();
+
+        BackupManifest next = new BackupManifest(UUID.randomUUID().toString());
+        javax.crypto.Mac mac = EncryptionUtil.newContentMac();
+
+        try {
+            List<Note> notes = new ArrayList<>();
+            for (Note n : allEnc) {
+                List<NoteBlock> blocks = n.isContentChunked()
+                        ? noteBlockDao.getRefsForNote(n.getId()) : null;
+                JSONObject json = BackupUtils.noteToJson(n);
+                if (blocks != null) {
+                    // Block hashes stand in for the body, so an unchanged note keeps its hash
+                    JSONArray macs = new JSONArray();
+                    for (NoteBlock b : blocks) macs.put(b.getMac());
+                    json.put("blockMacs", macs);
+                }
+                String hash = BackupManifest.hash(mac, json);
+                if (next.track(base, BackupManifest.SECTION_NOTES, n.getId(), hash)) {
+                    notes.add(plainForBackup(n));
+                }
+            }
+
+            List<TodoItem> todos = new ArrayList<>();
+            if (allTodos != null) {
+                for (TodoItem t : allTodos) {
+                    String hash = BackupManifest.hash(mac, BackupUtils.todoToJson(t));
+                    if (next.track(base, BackupManifest.SECTION_TODOS, t.getId(), hash)) {
+                        todos.add(t);
+                    }
+                }
+            }
+
+            List<Attachment> attachments = new ArrayList<>();
+            List<Long> attachmentLengths = new ArrayList<>();
+            if (allAttachments != null) {
+                for (Attachment att : allAttachments) {
+                    String fingerprint = blobStore.getDataFingerprint(att);
+                    if (fingerprint == null) continue;   // dangling row, nothing to carry over
+
+                    // Metadata only: the plaintext length of a legacy file means decrypting it
+                    JSONObject json = BackupUtils.attachmentToJson(att, 0);
+                    json.remove("plainLength");
+                    json.put("data", fingerprint);
+                    String hash = BackupManifest.hash(mac, json);
+                    if (!next.track(base, BackupManifest.SECTION_ATTACHMENTS, att.getId(), hash)) continue;
+
+                    long length = blobStore.getPlainLength(att);
+                    if (length < 0) {
+                        // Removed meanwhile
+                        next.remove(BackupManifest.SECTION_ATTACHMENTS, att.getId());
+                        continue;
+                    }
+                    attachments.add(att);
+                    attachmentLengths.add(length);
+                }
+            }
+
+            BackupWriter writer = new BackupWriter(os, backupPassword, next.getBackupId(),
+                    base != null ? base.getBackupId() : null, parallelism);
+            boolean complete = false;
+            try {
+                writer.writeNotes(notes);
+                writer.writeTodos(todos);
+                for (int i = 0; i < attachments.size(); i++) {
+                    try (InputStream in = blobStore.openPlain(attachments.get(i))) {
+                        writer.writeAttachment(attachments.get(i), in, attachmentLengths.get(i));
+                    }
+                }
+
+                if (base != null) {
+                    JSONObject deletes = new JSONObject();
+                    int deleteCount = 0;
+                    for (String section : new String[]{BackupManifest.SECTION_NOTES,
+                            BackupManifest.SECTION_TODOS, BackupManifest.SECTION_ATTACHMENTS}) {
+                        JSONArray ids = new JSONArray();
+                        for (String id : base.ids(section)) {
+                            if (next.get(section, id) == null) ids.put(id);
+                        }
+                        deletes.put(section, ids);
+                        deleteCount += ids.length();
+                    }
+                    writer.writeDeletes(deletes, deleteCount);
+                }
+                complete = true;
+            } finally {
+                // Never seal a half-written backup with an END segment
+                if (complete) writer.close();
+                else writer.abort();
+            }
+
+            // Only advance the chain once the backup is completely written
+            next.save(manifestFile);
+            return new BackupStats(next.getBackupId(), base != null, writer);
+
+        } catch (org.json.JSONException e) {
+            throw new IOException("Failed to serialize backup", e);
+        }
+    }
+
     /**
-     * Synchronous backup import.
+     * Synchronous backup import (legacy v1 Base64 backups).
      * Decrypts the backup with backupPassword and writes notes into Room.
      * MUST be called from a background thread.
      */
@@ -325,14 +911,13 @@ public class NoteRepository {
             }
 
             // 3) Insert or replace into DB, as-is (they already contain encrypted fields)
-            //    We are not touching EncryptionUtil here.
             for (Note n : imported) {
                 // Defensive: if ID is missing for some reason, generate one
                 if (n.getId() == null || n.getId().trim().isEmpty()) {
                     n.setId(java.util.UUID.randomUUID().toString());
                 }
-                noteDao.insert(n);  // assuming @Insert(onConflict = REPLACE)
             }
+            storeImportedNotes(imported);
 
         } catch (Exception e) {
             throw new RuntimeException("Backup import failed: " + e.getMessage(), e);
@@ -340,119 +925,563 @@ public class NoteRepository {
     }
 
     /**
-     * Add an attachment to a note.
-     *
-     * This will:
-     * 1) Read the original file from the given Uri
-     * 2) Encrypt its bytes using EncryptionUtil
-     * 3) Store the encrypted data in an internal file
-     * 4) Insert an Attachment row with metadata
+     * Synchronous backup import from a stream. Accepts both the segmented v2 format
+     * and legacy v1 Base64 backups.
+     * Attachment files are written into this install's files/attachments directory
+     * and their encryptedFilePath is rewritten accordingly.
+     * MUST be called from a background thread.
      */
-    public void addAttachmentToNote(Context context, String noteId, Uri sourceUri) {
-        executor.execute(() -> {
-            try {
-                if (noteId == null || noteId.trim().isEmpty()) {
-                    throw new IllegalArgumentException("noteId is null/empty");
+    public void importBackupSync(Context context, InputStream in, String backupPassword) {
+        try {
+            BufferedInputStream bis = new BufferedInputStream(in);
+            if (!isSegmentedBackup(bis)) {
+                String legacy = new String(readAllBytes(bis), StandardCharsets.UTF_8).trim();
+                importBackupSync(context, legacy, backupPassword);
+                return;
+            }
+
+            try (BackupReader reader = new BackupReader(bis, backupPassword)) {
+                readBackup(context, reader, false, null);
+            }
+
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Backup import failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Restores an incremental chain: a full backup followed by incremental backups in
+     * the order they were taken. Each one must reference the previous one as its base.
+     * MUST be called from a background thread.
+     */
+    public void importBackupChainSync(Context context, List<InputStream> chain, String backupPassword) {
+        try {
+            String previousId = null;
+            for (int i = 0; i < chain.size(); i++) {
+                BufferedInputStream bis = new BufferedInputStream(chain.get(i));
+                if (!isSegmentedBackup(bis)) {
+                    throw new IOException("Backup " + (i + 1) + " is not a segmented backup");
                 }
+                try (BackupReader reader = new BackupReader(bis, backupPassword)) {
+                    previousId = readBackup(context, reader, true, previousId);
+                }
+            }
 
-                // 1) Read original bytes
-                byte[] originalBytes;
-                String displayName = "attachment";
-                String mimeType = null;
-                long sizeBytes;
-
-                // Try to get metadata from ContentResolver
-                if (sourceUri != null) {
-                    mimeType = context.getContentResolver().getType(sourceUri);
-
-                    // display name + size via query, best-effort
-                    try (android.database.Cursor cursor = context.getContentResolver()
-                            .query(sourceUri, null, null, null, null)) {
-
-                        if (cursor != null && cursor.moveToFirst()) {
-                            int nameIdx = cursor.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME);
-                            int sizeIdx = cursor.getColumnIndex(android.provider.OpenableColumns.SIZE);
-
-                            if (nameIdx >= 0) {
-                                String name = cursor.getString(nameIdx);
-                                if (name != null && !name.isEmpty()) {
-                                    displayName = name;
-                                }
-                            }
-
-                            if (sizeIdx >= 0) {
-                                sizeBytes = cursor.getLong(sizeIdx);
-                            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Backup import failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isSegmentedBackup(BufferedInputStream bis) throws IOException {
+        byte[] head = new byte[BackupUtils.MAGIC.length];
+        bis.mark(head.length);
+        int headLength = bis.read(head);
+        bis.reset();
+        return BackupUtils.isSegmentedBackup(head, headLength);
+    }
+
+    /**
+     * Applies one backup file to Room and the attachments dir.
+     *
+     * @param chained      if true, the backup must continue from expectedBase
+     *                     (null = must be a full backup)
+     * @return the backup id from the header
+     */
+    private String readBackup(Context context, BackupReader reader,
+                              boolean chained, String expectedBase) throws Exception {
+        File dir = getAttachmentsDir(context);
+
+        BackupReader.Segment first = reader.next();
+        if (first == null || first.type != BackupUtils.TYPE_HEADER) {
+            throw new IOException("Backup header missing");
+        }
+        JSONObject header = new JSONObject(new String(first.body, StandardCharsets.UTF_8));
+        String backupId = header.optString("backupId", null);
+        // Older backups hold Keystore ciphertext; storeImportedNotes() refuses them on other installs
+        String baseId = header.has("baseId") ? header.getString("baseId") : null;
+        if (chained) {
+            if (expectedBase == null && baseId != null) {
+                throw new IOException("A backup chain must start with a full backup");
+            }
+            if (expectedBase != null && !expectedBase.equals(baseId)) {
+                throw new IOException("Backup chain is broken: " + backupId
+                        + " does not continue from " + expectedBase);
+            }
+        }
+
+        Attachment pending = null;
+        File pendingFile = null;
+        OutputStream pendingOut = null;
+        long remaining = 0;
+
+        try {
+            BackupReader.Segment seg;
+            while ((seg = reader.next()) != null) {
+                switch (seg.type) {
+                    case BackupUtils.TYPE_NOTES:
+                        storeImportedNotes(BackupUtils.jsonArrayToNotes(
+                                new JSONArray(new String(seg.body, StandardCharsets.UTF_8))));
+                        break;
+
+                    case BackupUtils.TYPE_TODOS:
+                        todoDao.insertAll(BackupUtils.jsonArrayToTodos(
+                                new JSONArray(new String(seg.body, StandardCharsets.UTF_8))));
+                        break;
+
+                    case BackupUtils.TYPE_ATTACHMENT: {
+                        if (pending != null) {
+                            throw new IOException("Attachment data incomplete before offset " + seg.offset);
                         }
-                    } catch (Exception ignored) {
+                        JSONObject meta = new JSONObject(new String(seg.body, StandardCharsets.UTF_8));
+                        pending = BackupUtils.jsonToAttachment(meta);
+                        remaining = BackupUtils.attachmentDataLength(meta);
+                        boolean portable = BackupUtils.isPortableAttachment(meta);
+                        pendingFile = newPartFile(dir, pending, portable);
+                        pendingOut = openPartFile(pendingFile, portable);
+                        break;
                     }
 
-                    try (InputStream is = context.getContentResolver().openInputStream(sourceUri)) {
-                        if (is == null) {
-                            throw new IOException("Cannot open input stream for Uri: " + sourceUri);
+                    case BackupUtils.TYPE_BLOB_CHUNK:
+                        if (pending == null || seg.body.length > remaining) {
+                            throw new IOException("Unexpected attachment data at offset " + seg.offset);
+                        }
+                        pendingOut.write(seg.body);
+                        remaining -= seg.body.length;
+                        break;
+
+                    case BackupUtils.TYPE_DELETES:
+                        applyDeletes(new JSONObject(new String(seg.body, StandardCharsets.UTF_8)));
+                        break;
+
+                    default:
+                        // END / unknown types carry nothing to restore
+                        break;
+                }
+
+                if (pending != null && remaining == 0) {
+                    pendingOut.close();
+                    pendingOut = null;
+                    commitAttachmentFile(dir, pending, pendingFile);
+
+                    pending = null;
+                    pendingFile = null;
+                }
+            }
+
+            if (pending != null) {
+                throw new IOException("Backup ended inside attachment " + pending.getId());
+            }
+        } finally {
+            // Restored rows replace local ones by id, so count blob references from scratch
+            blobStore.recomputeRefCounts();
+            if (pendingOut != null) {
+                try { pendingOut.close(); } catch (IOException ignored) { }
+            }
+            if (pendingFile != null && pendingFile.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                pendingFile.delete();
+            }
+        }
+
+        return backupId;
+    }
+
+    /**
+     * Where an attachment's encrypted data is written while it is being restored. Plaintext
+     * from portable backups is always stored as a blob; one without a blob id gets a new id.
+     */
+    private File newPartFile(File dir, Attachment attachment, boolean portable) {
+        if (portable && attachment.getBlobId() == null) {
+            attachment.setBlobId(UUID.randomUUID().toString().replace("-", ""));
+        }
+        return attachment.getBlobId() != null
+                ? blobStore.newImportFile(attachment.getBlobId())
+                : new File(dir, attachment.getId() + ".bin.part");
+    }
+
+    /** Portable data is plaintext, so it is encrypted for this install as it is written. */
+    private static OutputStream openPartFile(File partFile, boolean portable) throws IOException {
+        OutputStream out = new FileOutputStream(partFile);
+        return portable ? EncryptionUtil.encryptingStream(out) : out;
+    }
+
+    /**
+     * Stores notes read from a backup. Portable records carry plaintext and are saved like
+     * editor saves (encrypted for this install, large bodies as blocks). Records of older
+     * backups carry the exporting device's Keystore ciphertext: they are stored as they are
+     * where that key is available, and refused elsewhere rather than restored unreadable.
+     */
+    private void storeImportedNotes(List<Note> notes) throws IOException {
+        List<Note> sealed = new ArrayList<>();
+        for (Note n : notes) {
+            if (n.getEncryptedTitle() == null && n.getEncryptedContent() == null) {
+                saveNote(n, false);
+                continue;
+            }
+            try {
+                if (n.getEncryptedTitle() != null) EncryptionUtil.decrypt(n.getEncryptedTitle());
+            } catch (Exception e) {
+                throw new IOException("This backup was made by an older version and can only be "
+                        + "restored on the device that made it", e);
+            }
+            sealed.add(n);
+        }
+        if (!sealed.isEmpty()) noteDao.insertAll(sealed);
+    }
+
+    /**
+     * Moves a fully written .part file into place and inserts the attachment row.
+     * Blob references are not counted here; callers recompute them once they are done.
+     */
+    private void commitAttachmentFile(File dir, Attachment attachment, File partFile) throws IOException {
+        if (attachment.getBlobId() != null) {
+            blobStore.commitImported(attachment.getBlobId(), attachment.getSizeBytes(), partFile);
+            attachment.setEncryptedFilePath(null);
+            attachmentDao.insert(attachment);
+            return;
+        }
+
+        // Rewrite the path for this install's files dir
+        File finalFile = new File(dir, attachment.getId() + ".bin");
+        if (finalFile.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            finalFile.delete();
+        }
+        if (!partFile.renameTo(finalFile)) {
+            throw new IOException("Cannot store attachment " + attachment.getId());
+        }
+        attachment.setEncryptedFilePath(finalFile.getAbsolutePath());
+        attachmentDao.insert(attachment);
+    }
+
+    // ---------- Selective restore ----------
+
+    /** A note listed in a backup's index, with its title decrypted for display. */
+    public static class BackupEntry {
+        public final String noteId;
+        public final String title;
+        public final long timestamp;
+        public final boolean inTrash;
+
+        BackupEntry(String noteId, String title, long timestamp, boolean inTrash) {
+            this.noteId = noteId;
+            this.title = title;
+            this.timestamp = timestamp;
+            this.inTrash = inTrash;
+        }
+    }
+
+    /**
+     * Lists the notes in a backup by reading only its index segment, so browsing a large
+     * backup costs one seek and one small decrypt. Needs a seekable (file-backed) Uri.
+     */
+    public LiveData<List<BackupEntry>> listBackupContents(Context context, Uri source, String backupPassword) {
+        MutableLiveData<List<BackupEntry>> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try (BackupIndexReader reader = openIndexReader(app, source, backupPassword)) {
+                List<BackupEntry> entries = new ArrayList<>();
+                for (BackupIndexReader.Entry e : reader.getEntries()) {
+                    String title = e.title;
+                    if (title == null) {
+                        try {
+                            title = e.encryptedTitle != null ? EncryptionUtil.decrypt(e.encryptedTitle) : "";
+                        } catch (Exception ex) {
+                            // Older backup from another install: its Keystore key is not available here
+                            title = "[Decryption error]";
                         }
-                        originalBytes = readAllBytes(is);
                     }
-                } else {
-                    throw new IllegalArgumentException("sourceUri is null");
+                    entries.add(new BackupEntry(e.noteId, title, e.timestamp, e.inTrash));
                 }
+                result.postValue(entries);
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to read backup: " + e.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Restores the given notes, with their todo items and attachments, from an indexed backup.
+     * A note is skipped if the local copy is at least as new as the one in the backup.
+     * The LiveData receives the number of notes restored.
+     */
+    public LiveData<Integer> restoreNotesFromBackup(Context context, Uri source,
+                                                    String backupPassword, List<String> noteIds) {
+        MutableLiveData<Integer> result = new MutableLiveData<>();
+        Context app = context.getApplicationContext();
+        backupExecutor.execute(() -> {
+            try (BackupIndexReader reader = openIndexReader(app, source, backupPassword)) {
+                result.postValue(restoreNotes(app, reader, noteIds));
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to restore notes: " + e.getMessage());
+                result.postValue(0);
+            }
+        });
+        return result;
+    }
+
+    private BackupIndexReader openIndexReader(Context context, Uri source, String backupPassword)
+            throws IOException {
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(source, "r");
+        if (pfd == null) throw new IOException("Cannot open " + source);
+        FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+        try {
+            return new BackupIndexReader(in.getChannel(), backupPassword);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private int restoreNotes(Context context, BackupIndexReader reader, List<String> noteIds)
+            throws Exception {
+        java.util.Set<String> wanted = new java.util.HashSet<>(noteIds);
+        File dir = getAttachmentsDir(context);
+        int restored = 0;
+
+        try {
+            for (BackupIndexReader.Entry entry : reader.getEntries()) {
+                if (!wanted.contains(entry.noteId)) continue;
+
+                Note existing = noteDao.getByIdNow(entry.noteId);
+                if (existing != null && existing.getTimestamp() >= entry.timestamp) continue;
 
-                sizeBytes = originalBytes.length;
+                Note note = BackupUtils.jsonToNote(reader.readNote(entry));
+                storeImportedNotes(java.util.Collections.singletonList(note));
 
-                // 2) Encrypt bytes using EncryptionUtil (string-based)
-                //    We encode to Base64 first so we can reuse string encryption.
-                String base64Plain = Base64.encodeToString(originalBytes, Base64.NO_WRAP);
-                String encryptedBase64 = EncryptionUtil.encrypt(base64Plain);
+                JSONArray todos = new JSONArray(reader.readTodos(entry.noteId));
+                if (todos.length() > 0) todoDao.insertAll(BackupUtils.jsonArrayToTodos(todos));
 
-                // 3) Save encrypted data to internal file
-                String id = java.util.UUID.randomUUID().toString();
-                File dir = new File(context.getFilesDir(), "attachments");
-                if (!dir.exists()) {
-                    //noinspection ResultOfMethodCallIgnored
-                    dir.mkdirs();
+                for (long segment : reader.getAttachmentSegments(entry.noteId)) {
+                    restoreAttachment(reader, dir, segment);
                 }
-                File outFile = new File(dir, id + ".bin");
+                restored++;
+            }
+        } finally {
+            blobStore.recomputeRefCounts();
+        }
+        return restored;
+    }
 
-                try (FileOutputStream fos = new FileOutputStream(outFile)) {
-                    fos.write(encryptedBase64.getBytes(StandardCharsets.UTF_8));
-                    fos.flush();
+    /** Reads an attachment's metadata segment and the blob chunks that directly follow it. */
+    private void restoreAttachment(BackupIndexReader reader, File dir, long segment) throws Exception {
+        BackupReader.Segment meta = reader.readSegment(segment);
+        if (meta.type != BackupUtils.TYPE_ATTACHMENT) {
+            throw new IOException("Unexpected segment type at offset " + meta.offset);
+        }
+        JSONObject json = new JSONObject(new String(meta.body, StandardCharsets.UTF_8));
+        Attachment attachment = BackupUtils.jsonToAttachment(json);
+        long remaining = BackupUtils.attachmentDataLength(json);
+        boolean portable = BackupUtils.isPortableAttachment(json);
+
+        File partFile = newPartFile(dir, attachment, portable);
+        boolean complete = false;
+        try (OutputStream out = openPartFile(partFile, portable)) {
+            BackupReader.Segment current = meta;
+            long index = segment;
+            while (remaining > 0) {
+                current = reader.readSegmentAt(reader.nextOffset(current), ++index);
+                if (current.type != BackupUtils.TYPE_BLOB_CHUNK || current.body.length > remaining) {
+                    throw new IOException("Unexpected attachment data at offset " + current.offset);
                 }
+                out.write(current.body);
+                remaining -= current.body.length;
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                //noinspection ResultOfMethodCallIgnored
+                partFile.delete();
+            }
+        }
+        commitAttachmentFile(dir, attachment, partFile);
+    }
 
-                // 4) Build Attachment entity
-                Attachment att = new Attachment();
-                att.setId(id);
-                att.setNoteId(noteId);
-                att.setDisplayName(displayName);
-                att.setMimeType(mimeType);
-                att.setSizeBytes(sizeBytes);
-                att.setCreatedAt(System.currentTimeMillis());
-                att.setEncryptedFilePath(outFile.getAbsolutePath());
+    private void applyDeletes(JSONObject deletes) throws org.json.JSONException {
+        List<String> noteIds = jsonIds(deletes.optJSONArray(BackupManifest.SECTION_NOTES));
+        List<String> todoIds = jsonIds(deletes.optJSONArray(BackupManifest.SECTION_TODOS));
+        List<String> attachmentIds = jsonIds(deletes.optJSONArray(BackupManifest.SECTION_ATTACHMENTS));
 
-                attachmentDao.insert(att);
+        for (List<String> batch : batches(attachmentIds)) {
+            List<Attachment> gone = attachmentDao.getByIdsNow(batch);
+            blobStore.deleteAttachments(gone != null ? gone : new ArrayList<>(),
+                    () -> attachmentDao.deleteByIds(batch));
+        }
+        for (List<String> batch : batches(todoIds)) todoDao.deleteByIds(batch);
+        for (List<String> batch : batches(noteIds)) noteDao.deleteByIds(batch);
+        forgetDeletedNotes(noteIds);
+    }
+
+    /**
+     * A stored note with its title and full body decrypted, as backups carry them (inline,
+     * so they restore on any version). Unlike decryptForDisplay(), a note that cannot be
+     * decrypted fails the export instead of being backed up as a placeholder.
+     */
+    private Note plainForBackup(Note stored) {
+        Note plain = decryptForDisplay(stored);
+        plain.setTitle(stored.getEncryptedTitle() != null
+                ? EncryptionUtil.decrypt(stored.getEncryptedTitle()) : "");
+        if (stored.isContentChunked()) {
+            StringBuilder html = new StringBuilder();
+            for (NoteBlock b : noteBlockDao.getForNote(stored.getId())) {
+                html.append(EncryptionUtil.decrypt(b.getEncryptedHtml()));
+            }
+            plain.setContent(html.toString());
+        } else {
+            plain.setContent(stored.getEncryptedContent() != null
+                    ? EncryptionUtil.decrypt(stored.getEncryptedContent()) : "");
+        }
+        plain.setBlockCount(0);
+        return plain;
+    }
 
+    // SQLite caps bound parameters per statement (999 on older devices)
+    private static List<List<String>> batches(List<String> ids) {
+        List<List<String>> out = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += SQL_IN_BATCH) {
+            out.add(ids.subList(from, Math.min(ids.size(), from + SQL_IN_BATCH)));
+        }
+        return out;
+    }
+
+    private static List<String> jsonIds(JSONArray array) throws org.json.JSONException {
+        List<String> ids = new ArrayList<>();
+        if (array == null) return ids;
+        for (int i = 0; i < array.length(); i++) {
+            ids.add(array.getString(i));
+        }
+        return ids;
+    }
+
+    private static File getAttachmentsDir(Context context) {
+        File dir = new File(context.getFilesDir(), "attachments");
+        if (!dir.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    /**
+     * Add an attachment to a note.
+     *
+     * This will:
+     * 1) Read display name / type from the given Uri
+     * 2) Downscale large images, unless the user keeps originals (ImageTranscoder)
+     * 3) Store the content in the AttachmentBlobStore (deduplicated, encrypted once)
+     * 4) Insert an Attachment row pointing at the blob
+     */
+    public void addAttachmentToNote(Context context, String noteId, Uri sourceUri) {
+        executor.execute(() -> {
+            try {
+                importAttachment(context, noteId, sourceUri, null);
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to add attachment: " + e.getMessage());
             }
         });
     }
 
+    /**
+     * The work behind addAttachmentToNote(), on the calling thread. Safe to run for several
+     * files at once (see AttachmentImporter); listener may be null.
+     */
+    public Attachment importAttachment(Context context, String noteId, Uri sourceUri,
+                                       AttachmentBlobStore.ReadListener listener) throws Exception {
+        if (noteId == null || noteId.trim().isEmpty()) {
+            throw new IllegalArgumentException("noteId is null/empty");
+        }
+
+        // 1) Metadata from ContentResolver
+        String displayName = "attachment";
+        String mimeType = null;
+
+        if (sourceUri != null) {
+            mimeType = context.getContentResolver().getType(sourceUri);
+
+            // display name via query, best-effort (size is counted while hashing)
+            try (android.database.Cursor cursor = context.getContentResolver()
+                    .query(sourceUri, null, null, null, null)) {
+
+                if (cursor != null && cursor.moveToFirst()) {
+                    int nameIdx = cursor.getColumnIndex(android.provider.OpenableColumns.DISPLAY_NAME);
+
+                    if (nameIdx >= 0) {
+                        String name = cursor.getString(nameIdx);
+                        if (name != null && !name.isEmpty()) {
+                            displayName = name;
+                        }
+                    }
+                }
+            } catch (Exception ignored) {
+            }
+        } else {
+            throw new IllegalArgumentException("sourceUri is null");
+        }
+
+        // 2) Optional downscale; the temp file is plaintext, so it never outlives the attach
+        ImageTranscoder.Result transcoded = ImageTranscoder.transcode(context, sourceUri,
+                mimeType, ImageTranscoder.Options.load(context), context.getCacheDir());
+        Uri storeUri = sourceUri;
+        if (transcoded != null) {
+            storeUri = Uri.fromFile(transcoded.file);
+            if (!transcoded.mimeType.equals(mimeType)) {
+                displayName = ImageTranscoder.renameFor(displayName, transcoded.mimeType);
+                mimeType = transcoded.mimeType;
+            }
+        }
+
+        // 3) Hash, and encrypt only if this content is not stored yet
+        AttachmentBlob blob;
+        try {
+            blob = blobStore.put(context, storeUri, listener);
+            if (mimeType != null && mimeType.startsWith("image/")) {
+                AttachmentThumbnails.getInstance(context).createFromUri(context, storeUri, blob.getId());
+            }
+        } finally {
+            if (transcoded != null) {
+                //noinspection ResultOfMethodCallIgnored
+                transcoded.file.delete();
+            }
+        }
+
+        // 4) Build Attachment entity
+        Attachment att = new Attachment();
+        att.setId(java.util.UUID.randomUUID().toString());
+        att.setNoteId(noteId);
+        att.setDisplayName(displayName);
+        att.setMimeType(mimeType);
+        att.setSizeBytes(blob.getSizeBytes());
+        att.setCreatedAt(System.currentTimeMillis());
+        att.setBlobId(blob.getId());
+        att.setKeyVersion(blob.getKeyVersion());
+        if (transcoded != null) att.setOriginalSizeBytes(transcoded.originalBytes);
+
+        // 5) Row and reference count change together
+        try {
+            db.runInTransaction(() -> {
+                blobStore.addReference(blob);
+                attachmentDao.insert(att);
+            });
+        } finally {
+            blobStore.release(blob.getId());
+        }
+        return att;
+    }
+
     public void deleteAttachment(Context context, Attachment attachment) {
         if (attachment == null) return;
 
         executor.execute(() -> {
             try {
-                // Delete DB row
-                attachmentDao.delete(attachment);
-
-                // Delete file on disk
-                String path = attachment.getEncryptedFilePath();
-                if (path != null && !path.isEmpty()) {
-                    File f = new File(path);
-                    if (f.exists()) {
-                        //noinspection ResultOfMethodCallIgnored
-                        f.delete();
-                    }
-                }
+                // Row and reference go together; the blob file only once nothing uses it
+                List<Attachment> one = new ArrayList<>();
+                one.add(attachment);
+                blobStore.deleteAttachments(one, () -> attachmentDao.delete(attachment));
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to delete attachment: " + e.getMessage());
             }
@@ -462,22 +1491,10 @@ public class NoteRepository {
     public void deleteAllAttachmentsForNote(Context context, String noteId) {
         executor.execute(() -> {
             try {
-                // First, get all attachments now so we can delete files
+                // Get all attachments now so their blob references can be released
                 List<Attachment> list = attachmentDao.getForNoteNow(noteId);
-                if (list != null) {
-                    for (Attachment att : list) {
-                        String path = att.getEncryptedFilePath();
-                        if (path != null && !path.isEmpty()) {
-                            File f = new File(path);
-                            if (f.exists()) {
-                                //noinspection ResultOfMethodCallIgnored
-                                f.delete();
-                            }
-                        }
-                    }
-                }
-                // Then delete DB rows
-                attachmentDao.deleteForNote(noteId);
+                blobStore.deleteAttachments(list != null ? list : new ArrayList<>(),
+                        () -> attachmentDao.deleteForNote(noteId));
             } catch (Exception e) {
                 errorLiveData.postValue("Failed to delete attachments: " + e.getMessage());
             }
@@ -490,27 +1507,7 @@ public class NoteRepository {
      */
     public byte[] loadAttachmentBytes(Context context, Attachment attachment) {
         try {
-            String path = attachment.getEncryptedFilePath();
-            if (path == null || path.isEmpty()) {
-                throw new IllegalStateException("Attachment file path is empty");
-            }
-
-            File file = new File(path);
-            if (!file.exists()) {
-                throw new IOException("Attachment file does not exist");
-            }
-
-            // Read encrypted Base64 string
-            String encryptedBase64;
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] encBytes = readAllBytes(fis);
-                encryptedBase64 = new String(encBytes, StandardCharsets.UTF_8);
-            }
-
-            // Decrypt → Base64(plainBytes) → bytes
-            String base64Plain = EncryptionUtil.decrypt(encryptedBase64);
-            return Base64.decode(base64Plain, Base64.NO_WRAP);
-
+            return blobStore.readPlain(attachment);
         } catch (Exception e) {
             errorLiveData.postValue("Failed to load attachment: " + e.getMessage());
             return null;
@@ -522,15 +1519,125 @@ public class NoteRepository {
         return todoDao.getTodos(noteId);
     }
 
+    /** Done/total counts for every note that has todos. */
+    public LiveData<List<TodoProgress>> getTodoProgress() {
+        return todoDao.getAllProgress();
+    }
+
+    /**
+     * Loads the page of open todos that follows after (null = first page); see
+     * TodoDao.getOpenTodosPage(). The LiveData receives the page, or null on failure.
+     */
+    public LiveData<List<TodoItem>> loadOpenTodos(TodoItem after, int limit) {
+        MutableLiveData<List<TodoItem>> result = new MutableLiveData<>();
+        executor.execute(() -> {
+            try {
+                result.postValue(after == null
+                        ? todoDao.getOpenTodosPage(Long.MIN_VALUE, "", limit)
+                        : todoDao.getOpenTodosPage(after.getCreatedAt(), after.getId(), limit));
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to load tasks: " + e.getMessage());
+                result.postValue(null);
+            }
+        });
+        return result;
+    }
+
     public void addTodoItem(TodoItem item) {
         executor.execute(() -> todoDao.insert(item));
     }
 
+    /**
+     * Queues the item's text and checked state (never the rank, which only moves change).
+     * Edits are buffered and written together shortly after the last one; call
+     * flushTodoEdits() when the editor goes away.
+     */
     public void updateTodoItem(TodoItem item) {
-        executor.execute(() -> todoDao.update(item));
+        todoWrites.queue(item);
+    }
+
+    /** Writes all buffered todo edits now, in one transaction. */
+    public void flushTodoEdits() {
+        todoWrites.flush();
+    }
+
+    /**
+     * Inserts item right after the item with id afterId (null = at the top). Only the new
+     * row is written, with a rank between its neighbours; a list that has no ranks yet
+     * is ranked first, in the same transaction.
+     */
+    public void insertTodoAfter(TodoItem item, String afterId) {
+        executor.execute(() -> {
+            try {
+                db.runInTransaction(() -> {
+                    item.setRank(rankAfter(item.getNoteId(), item.getId(), afterId));
+                    todoDao.insert(item);
+                });
+                if (RankUtil.needsRebalance(item.getRank())) rebalanceTodos(item.getNoteId());
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to add to-do: " + e.getMessage());
+            }
+        });
+    }
+
+    /** Moves item to just after afterId (null = to the top), writing only its rank. */
+    public void moveTodoAfter(TodoItem item, String afterId) {
+        executor.execute(() -> {
+            try {
+                db.runInTransaction(() -> {
+                    item.setRank(rankAfter(item.getNoteId(), item.getId(), afterId));
+                    todoDao.setRank(item.getId(), item.getRank());
+                });
+                if (RankUtil.needsRebalance(item.getRank())) rebalanceTodos(item.getNoteId());
+            } catch (Exception e) {
+                errorLiveData.postValue("Failed to move to-do: " + e.getMessage());
+            }
+        });
+    }
+
+    // Runs in a transaction. itemId is excluded from the neighbours (it may be the one moving).
+    private String rankAfter(String noteId, String itemId, String afterId) {
+        if (todoDao.countUnranked(noteId) > 0) rankTodos(noteId);
+
+        String before = afterId != null ? todoDao.getRank(afterId) : null;
+        String after = before != null
+                ? todoDao.getNextRank(noteId, before, itemId)
+                : todoDao.getFirstRank(noteId, itemId);
+        String rank = RankUtil.between(before, after);
+        if (rank == null) {
+            // Duplicate ranks (e.g. two devices' backups merged): respread and retry once
+            rankTodos(noteId);
+            before = afterId != null ? todoDao.getRank(afterId) : null;
+            after = before != null
+                    ? todoDao.getNextRank(noteId, before, itemId)
+                    : todoDao.getFirstRank(noteId, itemId);
+            rank = RankUtil.between(before, after);
+        }
+        return rank;
+    }
+
+    /** Gives a note's todos fresh, short, evenly spaced ranks in their current order. */
+    private void rankTodos(String noteId) {
+        List<TodoItem> items = todoDao.getTodosSync(noteId);
+        String[] ranks = RankUtil.spread(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            todoDao.setRank(items.get(i).getId(), ranks[i]);
+        }
+    }
+
+    /** Queued respread of a list whose ranks have grown long; one transaction. */
+    private void rebalanceTodos(String noteId) {
+        executor.execute(() -> {
+            try {
+                db.runInTransaction(() -> rankTodos(noteId));
+            } catch (Exception ignored) {
+                // Long ranks still order correctly; retried after the next long insert
+            }
+        });
     }
 
     public void deleteTodoItem(TodoItem item) {
+        todoWrites.discard(item.getId());
         executor.execute(() -> todoDao.delete(item));
     }
 
@@ -542,6 +1649,43 @@ public class NoteRepository {
         return noteDao.getNotesByCategory(category);
     }
 
+    // ----------------- Storage usage -----------------
+
+    public LiveData<StorageTotals> getStorageTotals() {
+        return storageDao.getTotals();
+    }
+
+    public LiveData<Long> getStoredAttachmentBytes() {
+        return storageDao.getStoredBlobBytes();
+    }
+
+    /** The largest notes (ciphertext plus attachments), with titles decrypted for display. */
+    public LiveData<List<NoteStorage>> getHeaviestNotes(int limit) {
+        return Transformations.map(storageDao.getHeaviestNotes(limit), rows -> {
+            if (rows == null) return new ArrayList<>();
+            for (NoteStorage row : rows) {
+                try {
+                    row.title = row.encryptedTitle != null ? EncryptionUtil.decrypt(row.encryptedTitle) : "";
+                } catch (Exception e) {
+                    row.title = "[Decryption error]";
+                }
+            }
+            return rows;
+        });
+    }
+
+    public LiveData<List<StorageBucket>> getStorageByCategory() {
+        return storageDao.getByCategory();
+    }
+
+    public LiveData<List<StorageBucket>> getStorageByMimeType() {
+        return storageDao.getByMimeType();
+    }
+
+    public LiveData<List<StorageBucket>> getStorageTrashVersusActive() {
+        return storageDao.getTrashVersusActive();
+    }
+
     public void removeListener() {
         // No-op now; was for Firebase listeners.
     }
@@ -0,0 +1,61 @@
+package com.example.securenote.data;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Query;
+
+import com.example.securenote.model.NoteStorage;
+import com.example.securenote.model.StorageBucket;
+import com.example.securenote.model.StorageTotals;
+
+import java.util.List;
+
+/**
+ * Storage accounting. Everything here is answered from Room (sizes are columns or
+ * LENGTH() of the ciphertext), never by walking the file system.
+ */
+@Dao
+public interface StorageDao {
+
+    // Ciphertext of a note row and its body blocks; Base64 text, so characters are bytes
+    String NOTE_BYTES = "(IFNULL(LENGTH(n.encryptedTitle), 0) + IFNULL(LENGTH(n.encryptedContent), 0) + " +
+            "CASE WHEN n.blockCount > 0 THEN (SELECT IFNULL(SUM(LENGTH(b.encryptedHtml)), 0) " +
+            "FROM note_blocks b WHERE b.noteId = n.id) ELSE 0 END)";
+
+    // Per-note attachment sums, joined onto notes by the queries below (uses index_attachments_noteId)
+    String ATTACHMENTS_PER_NOTE = "(SELECT noteId, COUNT(*) AS cnt, SUM(sizeBytes) AS bytes " +
+            "FROM attachments GROUP BY noteId)";
+
+    @Query("SELECT * FROM storage_totals WHERE id = 1")
+    LiveData<StorageTotals> getTotals();
+
+    @Query("SELECT * FROM storage_totals WHERE id = 1")
+    StorageTotals getTotalsNow();
+
+    /** Bytes actually stored for attachments, after deduplication and packing. */
+    @Query("SELECT IFNULL(SUM(storedBytes), 0) FROM attachment_blobs")
+    LiveData<Long> getStoredBlobBytes();
+
+    @Query("SELECT n.id AS id, n.encryptedTitle AS encryptedTitle, n.category AS category, " +
+            "n.inTrash AS inTrash, " + NOTE_BYTES + " AS noteBytes, " +
+            "IFNULL(a.bytes, 0) AS attachmentBytes, IFNULL(a.cnt, 0) AS attachmentCount " +
+            "FROM notes n LEFT JOIN " + ATTACHMENTS_PER_NOTE + " a ON a.noteId = n.id " +
+            "ORDER BY noteBytes + attachmentBytes DESC LIMIT :limit")
+    LiveData<List<NoteStorage>> getHeaviestNotes(int limit);
+
+    @Query("SELECT IFNULL(n.category, 'All') AS label, COUNT(*) AS count, " +
+            "SUM(" + NOTE_BYTES + " + IFNULL(a.bytes, 0)) AS bytes " +
+            "FROM notes n LEFT JOIN " + ATTACHMENTS_PER_NOTE + " a ON a.noteId = n.id " +
+            "WHERE n.inTrash = 0 GROUP BY label ORDER BY bytes DESC")
+    LiveData<List<StorageBucket>> getByCategory();
+
+    @Query("SELECT IFNULL(mimeType, 'unknown') AS label, COUNT(*) AS count, SUM(sizeBytes) AS bytes " +
+            "FROM attachments GROUP BY label ORDER BY bytes DESC")
+    LiveData<List<StorageBucket>> getByMimeType();
+
+    @Query("SELECT CASE WHEN n.inTrash THEN 'Trash' ELSE 'Active' END AS label, COUNT(*) AS count, " +
+            "SUM(" + NOTE_BYTES + " + IFNULL(a.bytes, 0)) AS bytes " +
+            "FROM notes n LEFT JOIN " + ATTACHMENTS_PER_NOTE + " a ON a.noteId = n.id " +
+            "GROUP BY n.inTrash ORDER BY n.inTrash")
+    LiveData<List<StorageBucket>> getTrashVersusActive();
+}
@@ -9,6 +9,7 @@ import androidx.room.Query;
 import androidx.room.Update;
 
 import com.example.securenote.model.TodoItem;
+import com.example.securenote.model.TodoProgress;
 
 import java.util.List;
 
@@ -18,18 +19,70 @@ public interface TodoDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insert(TodoItem item);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<TodoItem> items);
+
     @Update
     void update(TodoItem item);
 
     @Delete
     void delete(TodoItem item);
 
-    @Query("SELECT * FROM todo_items WHERE noteId = :noteId ORDER BY position ASC, createdAt ASC")
+    // Items without a rank (older data) sort first, by their legacy position, until
+    // the note's list is next reordered and gets ranked as a whole
+
+    @Query("SELECT * FROM todo_items WHERE noteId = :noteId ORDER BY rank ASC, position ASC, createdAt ASC")
     LiveData<List<TodoItem>> getTodos(String noteId);
 
-    @Query("SELECT * FROM todo_items WHERE noteId = :noteId ORDER BY position ASC, createdAt ASC")
+    @Query("SELECT * FROM todo_items WHERE noteId = :noteId ORDER BY rank ASC, position ASC, createdAt ASC")
     List<TodoItem> getTodosSync(String noteId);
 
+    @Query("SELECT * FROM todo_items ORDER BY noteId, rank ASC, position ASC, createdAt ASC")
+    List<TodoItem> getAllTodosSync();
+
+    /** Text and checked state only; the rank is written by setRank() alone. */
+    @Query("UPDATE todo_items SET text = :text, isCompleted = :completed WHERE id = :id")
+    void updateContent(String id, String text, boolean completed);
+
+    // ---- Ordering (see RankUtil) ----
+
+    @Query("SELECT rank FROM todo_items WHERE id = :id")
+    String getRank(String id);
+
+    @Query("SELECT rank FROM todo_items WHERE noteId = :noteId AND rank > :rank AND id != :excludeId " +
+            "ORDER BY rank LIMIT 1")
+    String getNextRank(String noteId, String rank, String excludeId);
+
+    @Query("SELECT rank FROM todo_items WHERE noteId = :noteId AND id != :excludeId ORDER BY rank LIMIT 1")
+    String getFirstRank(String noteId, String excludeId);
+
+    @Query("SELECT COUNT(*) FROM todo_items WHERE noteId = :noteId AND rank IS NULL")
+    int countUnranked(String noteId);
+
+    @Query("UPDATE todo_items SET rank = :rank WHERE id = :id")
+    void setRank(String id, String rank);
+
+    /**
+     * One page of open todos of all active, unlocked notes, oldest first, starting after
+     * (afterCreatedAt, afterId); pass Long.MIN_VALUE and "" for the first page. Keyset
+     * paging: each page is a range seek on (isCompleted, createdAt, id), however deep.
+     */
+    @Query("SELECT * FROM todo_items WHERE isCompleted = 0 " +
+            "AND createdAt >= :afterCreatedAt AND (createdAt > :afterCreatedAt OR id > :afterId) " +
+            "AND noteId IN (SELECT id FROM notes WHERE inTrash = 0 AND locked = 0) " +
+            "ORDER BY createdAt, id LIMIT :limit")
+    List<TodoItem> getOpenTodosPage(long afterCreatedAt, String afterId, int limit);
+
+    // One small row per note with todos, maintained by triggers; no todo rows are read
+    @Query("SELECT * FROM todo_progress")
+    LiveData<List<TodoProgress>> getAllProgress();
+
     @Query("DELETE FROM todo_items WHERE noteId = :noteId")
     void deleteTodosByNoteId(String noteId);
+
+    @Query("DELETE FROM todo_items WHERE id IN (:ids)")
+    void deleteByIds(List<String> ids);
+
+    @Query("DELETE FROM todo_items WHERE noteId IN (:noteIds)")
+    void deleteByNoteIds(List<String> noteIds);
 }
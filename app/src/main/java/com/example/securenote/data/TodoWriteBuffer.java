@@ -0,0 +1,94 @@
+package com.example.securenote.data;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.securenote.model.TodoItem;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Collects todo edits (text, checked state) from all items being edited and writes them
+ * together. Repeated edits to one item collapse into its latest state, and each flush is
+ * a single transaction on the repository's executor, so typing through a long checklist
+ * costs one write per pause instead of one per item per keystroke.
+ *
+ * Edits are snapshotted when queued, so the caller may keep mutating its TodoItem.
+ */
+class TodoWriteBuffer {
+
+    private static final long FLUSH_DELAY_MS = 500;
+
+    private static class Edit {
+        final String id;
+        final String text;
+        final boolean completed;
+
+        Edit(TodoItem item) {
+            this.id = item.getId();
+            this.text = item.getText();
+            this.completed = item.isCompleted();
+        }
+    }
+
+    private final AppDatabase db;
+    private final TodoDao todoDao;
+    private final Executor executor;
+    private final Consumer<Exception> onError;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+
+    // Insertion-ordered so rows are written in the order they were first edited; guarded by this
+    private final Map<String, Edit> pending = new LinkedHashMap<>();
+
+    TodoWriteBuffer(AppDatabase db, TodoDao todoDao, Executor executor, Consumer<Exception> onError) {
+        this.db = db;
+        this.todoDao = todoDao;
+        this.executor = executor;
+        this.onError = onError;
+    }
+
+    /** Queues the item's current text and checked state; restarts the debounce. */
+    void queue(TodoItem item) {
+        synchronized (this) {
+            pending.put(item.getId(), new Edit(item));
+        }
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+    }
+
+    /** Drops a queued edit, e.g. because the item is being deleted. */
+    synchronized void discard(String itemId) {
+        pending.remove(itemId);
+    }
+
+    /**
+     * Writes everything queued now. The write is queued on the executor, so it runs
+     * before any repository task submitted after this call.
+     */
+    void flush() {
+        handler.removeCallbacks(flushRunnable);
+        List<Edit> edits;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            edits = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        executor.execute(() -> {
+            try {
+                db.runInTransaction(() -> {
+                    for (Edit edit : edits) {
+                        todoDao.updateContent(edit.id, edit.text, edit.completed);
+                    }
+                });
+            } catch (Exception e) {
+                onError.accept(e);
+            }
+        });
+    }
+}
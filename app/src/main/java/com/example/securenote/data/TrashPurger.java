@@ -0,0 +1,140 @@
+package com.example.securenote.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.securenote.model.Attachment;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes notes that have been in the trash longer than the retention period, together
+ * with their todos and attachments.
+ *
+ * Each batch of notes goes in one transaction, so observers (the trash list, the note
+ * list, storage totals) are invalidated once per batch rather than once per note; a
+ * typical run is a single batch. Attachment files are deleted after the commit.
+ */
+public class TrashPurger {
+
+    private static final String PREFS = "trash_prefs";
+    private static final String KEY_RETENTION_DAYS = "retention_days";
+    private static final String KEY_LAST_RUN = "last_run";
+
+    public static final int DEFAULT_RETENTION_DAYS = 30;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long RUN_INTERVAL_MS = 12L * 60 * 60 * 1000;
+
+    // Notes per transaction; keeps IN lists well below SQLite's parameter limit
+    private static final int BATCH = 200;
+    private static final long BATCH_PAUSE_MS = 100;
+    // A batch is retried if a note in it was restored meanwhile; give up after this many
+    private static final int MAX_CONFLICTS = 3;
+
+    private static TrashPurger INSTANCE;
+
+    private final NoteDao noteDao;
+    private final AttachmentDao attachmentDao;
+    private final TodoDao todoDao;
+    private final AttachmentBlobStore blobStore;
+    private final NoteRepository noteRepository;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor;
+
+    private TrashPurger(Context context) {
+        AppDatabase db = AppDatabase.getInstance(context);
+        this.noteDao = db.noteDao();
+        this.attachmentDao = db.attachmentDao();
+        this.todoDao = db.todoDao();
+        this.blobStore = AttachmentBlobStore.getInstance(context);
+        this.noteRepository = NoteRepository.getInstance(context);
+        this.prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "trash-purge"));
+    }
+
+    public static synchronized TrashPurger getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new TrashPurger(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    /** Days a note stays in the trash; 0 = keep until deleted by hand. */
+    public int getRetentionDays() {
+        return prefs.getInt(KEY_RETENTION_DAYS, DEFAULT_RETENTION_DAYS);
+    }
+
+    /** Changes the retention period and purges right away under the new one. */
+    public void setRetentionDays(int days) {
+        prefs.edit().putInt(KEY_RETENTION_DAYS, Math.max(0, days)).apply();
+        run();
+    }
+
+    /** Called at app start; purges at most twice a day. */
+    public void runIfDue() {
+        long last = prefs.getLong(KEY_LAST_RUN, 0);
+        if (System.currentTimeMillis() - last < RUN_INTERVAL_MS) return;
+        run();
+    }
+
+    /** Runs a purge; the LiveData receives the number of notes deleted, or null if it failed. */
+    public LiveData<Integer> run() {
+        MutableLiveData<Integer> result = new MutableLiveData<>();
+        executor.execute(() -> {
+            try {
+                result.postValue(purge());
+                prefs.edit().putLong(KEY_LAST_RUN, System.currentTimeMillis()).apply();
+            } catch (Exception e) {
+                result.postValue(null);
+            }
+        });
+        return result;
+    }
+
+    private int purge() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        // Notes trashed before trashedAt existed get a full retention period from now
+        noteDao.startTrashClock(now);
+
+        int days = getRetentionDays();
+        if (days <= 0) return 0;
+        long cutoff = now - days * DAY_MS;
+
+        int purged = 0;
+        int conflicts = 0;
+        while (true) {
+            List<String> ids = noteDao.getExpiredTrashIds(cutoff, BATCH);
+            if (ids == null || ids.isEmpty()) break;
+
+            List<Attachment> attachments = attachmentDao.getForNotesNow(ids);
+            try {
+                blobStore.deleteAttachments(attachments, () -> {
+                    attachmentDao.deleteForNotes(ids);
+                    todoDao.deleteByNoteIds(ids);
+                    // Restored since it was selected: roll back, its attachments must stay
+                    if (noteDao.deleteExpiredTrash(ids, cutoff) != ids.size()) {
+                        throw new IllegalStateException("Trash changed during purge");
+                    }
+                });
+                noteRepository.forgetDeletedNotes(ids);
+                purged += ids.size();
+            } catch (IllegalStateException e) {
+                if (++conflicts >= MAX_CONFLICTS) break;
+                continue;   // select again without the restored note
+            }
+
+            if (ids.size() < BATCH) break;
+            Thread.sleep(BATCH_PAUSE_MS);
+        }
+        return purged;
+    }
+}
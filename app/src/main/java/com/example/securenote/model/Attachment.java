@@ -1,6 +1,7 @@
 package com.example.securenote.model;
 
 import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 import androidx.room.Index;
@@ -8,7 +9,8 @@ import androidx.room.Index;
 @Entity(
         tableName = "attachments",
         indices = {
-                @Index(value = "noteId")
+                @Index(value = "noteId"),
+                @Index(value = "blobId")
         }
 )
 public class Attachment {
@@ -25,8 +27,20 @@ public class Attachment {
 
     // Path to encrypted file in internal storage
     // e.g. /data/data/..../files/attachments/<id>.bin
+    // Only for attachments added before blobs existed; null when blobId is set
     private String encryptedFilePath;
 
+    // Content-addressed payload in attachment_blobs (shared between attachments)
+    private String blobId;
+
+    // Keystore key version the file is encrypted with; 0 = original key or unknown
+    @ColumnInfo(defaultValue = "0")
+    private int keyVersion;
+
+    // Size of the picked file if it was downscaled on import; 0 = stored as picked
+    @ColumnInfo(defaultValue = "0")
+    private long originalSizeBytes;
+
     // --- getters / setters ---
 
     @NonNull
@@ -85,4 +99,33 @@ public class Attachment {
     public void setEncryptedFilePath(String encryptedFilePath) {
         this.encryptedFilePath = encryptedFilePath;
     }
+
+    public String getBlobId() {
+        return blobId;
+    }
+
+    public void setBlobId(String blobId) {
+        this.blobId = blobId;
+    }
+
+    public int getKeyVersion() {
+        return keyVersion;
+    }
+
+    public void setKeyVersion(int keyVersion) {
+        this.keyVersion = keyVersion;
+    }
+
+    public long getOriginalSizeBytes() {
+        return originalSizeBytes;
+    }
+
+    public void setOriginalSizeBytes(long originalSizeBytes) {
+        this.originalSizeBytes = originalSizeBytes;
+    }
+
+    /** Bytes saved by downscaling on import, 0 if the file was stored as picked. */
+    public long getSavedBytes() {
+        return originalSizeBytes > sizeBytes ? originalSizeBytes - sizeBytes : 0;
+    }
 }
@@ -0,0 +1,75 @@
+package com.example.securenote.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * One unique attachment payload, stored encrypted once no matter how many
+ * attachments (across notes) point at it.
+ *
+ * Small blobs live inside a shared pack file (packId/packOffset, storedBytes long);
+ * large ones, and all blobs written before packing existed, have packId == null
+ * and a dedicated file named after the id.
+ */
+@Entity(
+        tableName = "attachment_blobs",
+        indices = {
+                @Index(value = "packId")
+        }
+)
+public class AttachmentBlob {
+
+    @PrimaryKey
+    @NonNull
+    private String id;              // hex HMAC-SHA256 of the plaintext (device-local key)
+
+    private int refCount;           // attachments rows with this blobId
+    private long sizeBytes;         // plaintext size
+    private long storedBytes;       // encrypted size on disk
+    private int keyVersion;         // Keystore key version of the encrypted file
+    private long createdAt;
+
+    private Integer packId;         // pack file number, or null for a dedicated file
+    @ColumnInfo(defaultValue = "0")
+    private long packOffset;        // byte offset of the encrypted blob inside the pack
+
+    public AttachmentBlob(@NonNull String id, int refCount, long sizeBytes, long storedBytes,
+                          int keyVersion, long createdAt) {
+        this.id = id;
+        this.refCount = refCount;
+        this.sizeBytes = sizeBytes;
+        this.storedBytes = storedBytes;
+        this.keyVersion = keyVersion;
+        this.createdAt = createdAt;
+    }
+
+    @NonNull
+    public String getId() { return id; }
+    public void setId(@NonNull String id) { this.id = id; }
+
+    public int getRefCount() { return refCount; }
+    public void setRefCount(int refCount) { this.refCount = refCount; }
+
+    public long getSizeBytes() { return sizeBytes; }
+    public void setSizeBytes(long sizeBytes) { this.sizeBytes = sizeBytes; }
+
+    public long getStoredBytes() { return storedBytes; }
+    public void setStoredBytes(long storedBytes) { this.storedBytes = storedBytes; }
+
+    public int getKeyVersion() { return keyVersion; }
+    public void setKeyVersion(int keyVersion) { this.keyVersion = keyVersion; }
+
+    public long getCreatedAt() { return createdAt; }
+    public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+
+    public Integer getPackId() { return packId; }
+    public void setPackId(Integer packId) { this.packId = packId; }
+
+    public long getPackOffset() { return packOffset; }
+    public void setPackOffset(long packOffset) { this.packOffset = packOffset; }
+
+    public boolean isPacked() { return packId != null; }
+}
@@ -0,0 +1,52 @@
+package com.example.securenote.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Checkpoint of one background data backfill (see BackfillRunner).
+ * Written in the same transaction as the rows of each batch.
+ */
+@Entity(tableName = "migration_progress")
+public class MigrationProgress {
+
+    @PrimaryKey
+    @NonNull
+    private String name;
+
+    private String cursor;        // backfill-specific position; null = not started
+    private int done;
+    private int failed;           // rows the backfill had to leave as they were
+    private boolean completed;
+    private long updatedAt;
+
+    public MigrationProgress(@NonNull String name, String cursor, int done, int failed,
+                             boolean completed, long updatedAt) {
+        this.name = name;
+        this.cursor = cursor;
+        this.done = done;
+        this.failed = failed;
+        this.completed = completed;
+        this.updatedAt = updatedAt;
+    }
+
+    @NonNull
+    public String getName() { return name; }
+    public void setName(@NonNull String name) { this.name = name; }
+
+    public String getCursor() { return cursor; }
+    public void setCursor(String cursor) { this.cursor = cursor; }
+
+    public int getDone() { return done; }
+    public void setDone(int done) { this.done = done; }
+
+    public int getFailed() { return failed; }
+    public void setFailed(int failed) { this.failed = failed; }
+
+    public boolean isCompleted() { return completed; }
+    public void setCompleted(boolean completed) { this.completed = completed; }
+
+    public long getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(long updatedAt) { this.updatedAt = updatedAt; }
+}
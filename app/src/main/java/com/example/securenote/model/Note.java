@@ -4,9 +4,15 @@ import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "notes")
+@Entity(
+        tableName = "notes",
+        indices = {
+                @Index(value = "trashedAt")
+        }
+)
 public class Note {
 
     @PrimaryKey
@@ -32,6 +38,10 @@ public class Note {
     private String lockPassword;
     private boolean inTrash;
 
+    // When the note was moved to trash; 0 = not in trash, or trashed before this was recorded
+    @ColumnInfo(name = "trashedAt", defaultValue = "0")
+    private long trashedAt;
+
     // Category (plain string)
     @ColumnInfo(name = "category")
     private String category;
@@ -39,6 +49,15 @@ public class Note {
     @ColumnInfo(name = "isImportant")
     private boolean isImportant;
 
+    // Large bodies are stored as encrypted blocks in note_blocks (see NoteBlocks); then
+    // encryptedContent only holds a preview for the note list. 0 = body is inline
+    @ColumnInfo(name = "blockCount", defaultValue = "0")
+    private int blockCount;
+
+    // Keystore key version of encryptedTitle/encryptedContent; 0 = original key or unknown
+    @ColumnInfo(name = "keyVersion", defaultValue = "0")
+    private int keyVersion;
+
     // UI-only helper flag
     private transient boolean contentHidden = false;
 
@@ -123,6 +142,17 @@ public class Note {
 
     public void setInTrash(boolean inTrash) { this.inTrash = inTrash; }
 
+    public long getTrashedAt() { return trashedAt; }
+
+    public void setTrashedAt(long trashedAt) { this.trashedAt = trashedAt; }
+
+    public int getBlockCount() { return blockCount; }
+
+    public void setBlockCount(int blockCount) { this.blockCount = blockCount; }
+
+    /** True if content is only a preview and the full body has to be loaded from its blocks. */
+    public boolean isContentChunked() { return blockCount > 0; }
+
     public long getLastModified() { return timestamp; }
 
     public boolean isContentHidden() { return contentHidden; }
@@ -136,4 +166,8 @@ public class Note {
     public boolean isImportant() { return isImportant; }
 
     public void setImportant(boolean important) { this.isImportant = important; }
+
+    public int getKeyVersion() { return keyVersion; }
+
+    public void setKeyVersion(int keyVersion) { this.keyVersion = keyVersion; }
 }
@@ -0,0 +1,65 @@
+package com.example.securenote.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * One encrypted piece of a large note body; a note's blocks in ord order, concatenated,
+ * are its HTML. mac is a keyed hash of the plaintext (EncryptionUtil.newContentMac), so
+ * a save can tell which blocks are unchanged without decrypting them.
+ */
+@Entity(
+        tableName = "note_blocks",
+        indices = {
+                @Index(value = {"noteId", "ord"})
+        }
+)
+public class NoteBlock {
+
+    @PrimaryKey
+    @NonNull
+    private String id;
+
+    private String noteId;
+    private int ord;
+    private String mac;
+    private String encryptedHtml;
+    private int keyVersion;
+
+    public NoteBlock(@NonNull String id, String noteId, int ord, String mac,
+                     String encryptedHtml, int keyVersion) {
+        this.id = id;
+        this.noteId = noteId;
+        this.ord = ord;
+        this.mac = mac;
+        this.encryptedHtml = encryptedHtml;
+        this.keyVersion = keyVersion;
+    }
+
+    @NonNull
+    public String getId() { return id; }
+
+    public void setId(@NonNull String id) { this.id = id; }
+
+    public String getNoteId() { return noteId; }
+
+    public void setNoteId(String noteId) { this.noteId = noteId; }
+
+    public int getOrd() { return ord; }
+
+    public void setOrd(int ord) { this.ord = ord; }
+
+    public String getMac() { return mac; }
+
+    public void setMac(String mac) { this.mac = mac; }
+
+    public String getEncryptedHtml() { return encryptedHtml; }
+
+    public void setEncryptedHtml(String encryptedHtml) { this.encryptedHtml = encryptedHtml; }
+
+    public int getKeyVersion() { return keyVersion; }
+
+    public void setKeyVersion(int keyVersion) { this.keyVersion = keyVersion; }
+}
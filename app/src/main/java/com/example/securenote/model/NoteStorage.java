@@ -0,0 +1,23 @@
+package com.example.securenote.model;
+
+import androidx.room.Ignore;
+
+/** Space used by one note: its ciphertext plus the attachments it owns. */
+public class NoteStorage {
+
+    public String id;
+    public String encryptedTitle;
+    public String category;
+    public boolean inTrash;
+    public long noteBytes;
+    public long attachmentBytes;
+    public int attachmentCount;
+
+    // UI-only, filled in by the repository
+    @Ignore
+    public String title;
+
+    public long getTotalBytes() {
+        return noteBytes + attachmentBytes;
+    }
+}
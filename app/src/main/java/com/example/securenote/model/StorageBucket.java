@@ -0,0 +1,9 @@
+package com.example.securenote.model;
+
+/** One row of a storage breakdown: a group label (category, MIME type, ...) and its usage. */
+public class StorageBucket {
+
+    public String label;
+    public long count;
+    public long bytes;
+}
@@ -0,0 +1,44 @@
+package com.example.securenote.model;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Running storage totals, a single row (id = 1) kept current by SQLite triggers on
+ * notes and attachments (see AppDatabase), so the totals never need a table scan.
+ */
+@Entity(tableName = "storage_totals")
+public class StorageTotals {
+
+    public static final int ROW_ID = 1;
+
+    @PrimaryKey
+    private int id;
+
+    private long noteCount;
+    private long noteBytes;         // ciphertext of titles and contents
+    private long attachmentCount;
+    private long attachmentBytes;   // plaintext sizes, before deduplication
+
+    public int getId() { return id; }
+
+    public void setId(int id) { this.id = id; }
+
+    public long getNoteCount() { return noteCount; }
+
+    public void setNoteCount(long noteCount) { this.noteCount = noteCount; }
+
+    public long getNoteBytes() { return noteBytes; }
+
+    public void setNoteBytes(long noteBytes) { this.noteBytes = noteBytes; }
+
+    public long getAttachmentCount() { return attachmentCount; }
+
+    public void setAttachmentCount(long attachmentCount) { this.attachmentCount = attachmentCount; }
+
+    public long getAttachmentBytes() { return attachmentBytes; }
+
+    public void setAttachmentBytes(long attachmentBytes) { this.attachmentBytes = attachmentBytes; }
+
+    public long getTotalBytes() { return noteBytes + attachmentBytes; }
+}
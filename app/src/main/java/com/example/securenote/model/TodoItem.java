@@ -2,9 +2,17 @@ package com.example.securenote.model;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "todo_items")
+@Entity(
+        tableName = "todo_items",
+        indices = {
+                @Index(value = {"noteId", "rank"}),
+                // Open tasks across all notes, oldest first; id breaks createdAt ties
+                @Index(value = {"isCompleted", "createdAt", "id"})
+        }
+)
 public class TodoItem {
 
     @PrimaryKey
@@ -14,9 +22,13 @@ public class TodoItem {
     private String noteId;
     private String text;
     private boolean isCompleted;
+    // Legacy order, used only for items that have no rank yet
     private int position;
     private long createdAt;
 
+    // Fractional order key (RankUtil); null for items from before ranks were introduced
+    private String rank;
+
     public TodoItem(@NonNull String id, String noteId, String text, boolean isCompleted, int position, long createdAt) {
         this.id = id;
         this.noteId = noteId;
@@ -44,4 +56,7 @@ public class TodoItem {
 
     public long getCreatedAt() { return createdAt; }
     public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+
+    public String getRank() { return rank; }
+    public void setRank(String rank) { this.rank = rank; }
 }
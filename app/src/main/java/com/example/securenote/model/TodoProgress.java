@@ -0,0 +1,44 @@
+package com.example.securenote.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Checklist progress of one note, kept current by SQLite triggers on todo_items (see
+ * AppDatabase), so note cards can show "7/12 done" without loading any todo rows.
+ * Notes without todos have no row.
+ */
+@Entity(tableName = "todo_progress")
+public class TodoProgress {
+
+    @PrimaryKey
+    @NonNull
+    private String noteId;
+
+    private int total;
+    private int done;
+
+    public TodoProgress(@NonNull String noteId, int total, int done) {
+        this.noteId = noteId;
+        this.total = total;
+        this.done = done;
+    }
+
+    @NonNull
+    public String getNoteId() { return noteId; }
+
+    public void setNoteId(@NonNull String noteId) { this.noteId = noteId; }
+
+    public int getTotal() { return total; }
+
+    public void setTotal(int total) { this.total = total; }
+
+    public int getDone() { return done; }
+
+    public void setDone(int done) { this.done = done; }
+
+    public boolean sameCounts(TodoProgress other) {
+        return other != null && total == other.total && done == other.done;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.securenote.ui;
 
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
@@ -9,7 +10,9 @@ import android.text.Editable;
 import android.text.InputType;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.Layout;
 import android.text.TextWatcher;
+import android.text.style.AlignmentSpan;
 import android.text.style.StyleSpan;
 import android.text.style.UnderlineSpan;
 import android.graphics.Rect;
@@ -23,24 +26,30 @@ import android.widget.Toast;
 import android.content.res.ColorStateList;
 import android.text.Html;
 import android.text.TextUtils;
-import android.view.Gravity;
 import android.widget.TextView;
 
 
 import androidx.activity.OnBackPressedCallback;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
+import androidx.core.text.PrecomputedTextCompat;
 import androidx.core.widget.ImageViewCompat;
 import androidx.core.widget.NestedScrollView;
+import androidx.core.widget.TextViewCompat;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.securenote.R;
+import com.example.securenote.data.AttachmentImporter;
+import com.example.securenote.data.EditJournal;
 import com.example.securenote.databinding.ActivityAddEditNoteBinding;
 import com.example.securenote.model.Attachment;
 import com.example.securenote.model.Note;
@@ -50,10 +59,11 @@ import com.example.securenote.viewmodel.NoteViewModel;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class AddEditNoteActivity extends AppCompatActivity {
 
@@ -64,11 +74,20 @@ public class AddEditNoteActivity extends AppCompatActivity {
     public static final String EXTRA_PINNED = "note_pinned";
     public static final String EXTRA_LOCKED = "note_locked";
     public static final String EXTRA_LOCK_PASSWORD_HASH = "note_lock_password_hash";
+    // Body is stored as blocks and loaded here rather than passed in (see NoteBlocks)
+    public static final String EXTRA_CONTENT_CHUNKED = "note_content_chunked";
 
     // Misc constants
     private static final int REQUEST_CODE_PICK_ATTACHMENT = 1001;
     private static final int SCROLL_BUTTON_THRESHOLD = 350;
     private static final long SAVE_DELAY_MS = 500;
+    // Typing is journaled as it happens, so full saves of the body can be this far apart
+    private static final long COMPACT_DELAY_MS = 5000;
+    // Saved state: the body was shown, so the restored EditText holds the current text
+    private static final String STATE_CONTENT_LOADED = "content_loaded";
+
+    // Parses stored bodies for every editor, off the main thread
+    private static final ExecutorService CONTENT_EXECUTOR = Executors.newSingleThreadExecutor();
 
     // Core objects
     private ActivityAddEditNoteBinding binding;
@@ -81,23 +100,48 @@ public class AddEditNoteActivity extends AppCompatActivity {
     // State
     private boolean isTodoSectionVisible = false;
     private boolean isEditMode = false;
+    // False while a block-stored body is loading; nothing is saved until it is shown
+    private boolean contentLoaded = true;
+    // Recreated with the body in saved state; the Intent's copy of it may be older
+    private boolean contentRestored = false;
+    private CharSequence contentHint;
+    // While the journal is being replayed saves wait, so they cannot race the replay
+    private boolean journalRecovering = false;
+    private boolean saveDeferred = false;
     private boolean isKeyboardVisible = false;
     private boolean isFormattingToolbarVisible = false;
+    private boolean isImportRunning = false;
 
     private String noteId;
     private String existingPasswordHash;
     private Note note;
 
     // Autosave systems
-    private final Handler todoSaveHandler = new Handler(Looper.getMainLooper());
-    private final Map<String, Runnable> pendingTodoSaves = new HashMap<>();
     private final Handler noteSaveHandler = new Handler(Looper.getMainLooper());
     private Runnable noteSaveRunnable;
+    private EditJournal journal;
 
     // Attachment picker
     private final ActivityResultLauncher<String[]> attachmentPicker =
-            registerForActivityResult(new ActivityResultContracts.OpenDocument(),
-                    uri -> { if (uri != null) addAttachment(uri); });
+            registerForActivityResult(new ActivityResultContracts.OpenMultipleDocuments(),
+                    uris -> { if (uris != null && !uris.isEmpty()) addAttachments(uris); });
+
+    /** Intent that opens note in the editor. */
+    public static Intent newIntent(Context context, Note note) {
+        Intent intent = new Intent(context, AddEditNoteActivity.class);
+        intent.putExtra(EXTRA_ID, note.getId());
+        intent.putExtra(EXTRA_TITLE, note.getTitle());
+        if (note.isContentChunked()) {
+            intent.putExtra(EXTRA_CONTENT_CHUNKED, true);
+        } else {
+            intent.putExtra(EXTRA_CONTENT, note.getContent());
+        }
+        intent.putExtra(EXTRA_PINNED, note.isPinned());
+        intent.putExtra(EXTRA_LOCKED, note.isLocked());
+        intent.putExtra(EXTRA_LOCK_PASSWORD_HASH, note.getLockPassword());
+        intent.putExtra("note_category", note.getCategory());
+        return intent;
+    }
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -111,12 +155,20 @@ public class AddEditNoteActivity extends AppCompatActivity {
         noteViewModel = new ViewModelProvider(this).get(NoteViewModel.class);
         note = new Note();
 
+        contentRestored = savedInstanceState != null
+                && savedInstanceState.getBoolean(STATE_CONTENT_LOADED, false);
         receiveIntentData();
         ensureNoteIdInitialized();
 
+        journal = new EditJournal(this, noteId);
+        // A body still being loaded recovers once it is shown
+        if (isEditMode && contentRestored) resumeJournal();
+        else if (isEditMode && contentLoaded) recoverJournal();
+
         setupCategorySystem();
         setupFormattingToolbar();
         setupAttachmentUI();
+        setupTodoUI();
         setupQuickActionIcons();
         setupKeyboardListener();
         setupScrollButton();
@@ -190,19 +242,17 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
             noteId = i.getStringExtra(EXTRA_ID);
 
-            // ★ Restore HTML formatting safely
+            // ★ Restore HTML formatting safely (parsed off the main thread). After a
+            // recreation the EditText restores the text being edited instead; loading the
+            // Intent's copy would overwrite it with an older body.
             String html = i.getStringExtra(EXTRA_CONTENT);
-            if (!TextUtils.isEmpty(html)) {
-
-                CharSequence restored;
-
-                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-                    restored = Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY);
-                } else {
-                    restored = Html.fromHtml(html); // API < 24 fallback
+            if (!contentRestored) {
+                if (i.getBooleanExtra(EXTRA_CONTENT_CHUNKED, false)) {
+                    loadChunkedContent();
+                } else if (!TextUtils.isEmpty(html)) {
+                    showContentPlaceholder();
+                    showContent(html);
                 }
-
-                binding.etContent.setText(restored, TextView.BufferType.SPANNABLE);
             }
 
             // ★ DO NOT overwrite text again (this was destroying formatting)
@@ -233,6 +283,51 @@ public class AddEditNoteActivity extends AppCompatActivity {
     }
 
 
+    private void loadChunkedContent() {
+        showContentPlaceholder();
+        noteViewModel.loadNoteContent(noteId).observe(this, html -> {
+            if (html == null) {
+                // Unreadable: keep the editor read-only so a save cannot replace the body
+                binding.etContent.setHint("This note could not be loaded");
+                return;
+            }
+            showContent(html);
+        });
+    }
+
+    /** Read-only "Loading…" editor until showContent() is done; nothing is saved meanwhile. */
+    private void showContentPlaceholder() {
+        contentLoaded = false;
+        contentHint = binding.etContent.getHint();
+        binding.etContent.setEnabled(false);
+        binding.etContent.setHint("Loading…");
+    }
+
+    /**
+     * Parses the stored HTML into spans on a background thread and shows it. The text is
+     * also measured there with PrecomputedTextCompat: an editable text view copies what it
+     * is given, so the measurement itself cannot be handed over, but the glyph layouts it
+     * leaves in the platform text cache make the editor's own layout pass mostly cache hits.
+     */
+    private void showContent(String html) {
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(binding.etContent);
+        CONTENT_EXECUTOR.execute(() -> {
+            Spanned restored = Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY);
+            PrecomputedTextCompat.create(restored, params);
+            runOnUiThread(() -> {
+                if (isFinishing() || isDestroyed()) return;
+                binding.etContent.setText(restored, TextView.BufferType.SPANNABLE);
+                binding.etContent.setHint(contentHint);
+                binding.etContent.setEnabled(true);
+                contentLoaded = true;
+                // Showing the stored body is not an edit
+                if (noteSaveRunnable != null) noteSaveHandler.removeCallbacks(noteSaveRunnable);
+                noteSaveRunnable = null;
+                recoverJournal();
+            });
+        });
+    }
+
     private void ensureNoteIdInitialized() {
         if (noteId == null || noteId.isEmpty())
             noteId = UUID.randomUUID().toString();
@@ -245,11 +340,13 @@ public class AddEditNoteActivity extends AppCompatActivity {
     private void doSaveNote() {
 
         // Save pending TODOs
-        for (Runnable r : pendingTodoSaves.values()) {
-            todoSaveHandler.removeCallbacks(r);
-            r.run();
+        noteViewModel.flushTodoEdits();
+
+        if (!contentLoaded) return;
+        if (journalRecovering) {
+            saveDeferred = true;
+            return;
         }
-        pendingTodoSaves.clear();
 
         String title = binding.etTitle.getText().toString().trim();
 
@@ -270,21 +367,24 @@ public class AddEditNoteActivity extends AppCompatActivity {
             }
         }
 
+        long version = System.currentTimeMillis();
         Note n = new Note(
                 noteId,
                 title,
                 contentHtml, // save HTML, not plain text
-                System.currentTimeMillis(),
+                version,
                 binding.cbPinned.isChecked()
         );
 
         n.setLocked(locked);
         n.setLockPassword(passwordHash);
         n.setInTrash(note.isInTrash());
+        n.setTrashedAt(note.getTrashedAt());
         n.setCategory(note.getCategory());
 
-        if (isEditMode) noteViewModel.updateNote(n);
-        else noteViewModel.addNote(n);
+        // Edits from here on are journaled against this save; older segments go once it is stored
+        int generation = journal.start(version);
+        noteViewModel.saveEditedNote(n, isEditMode, () -> journal.discardBefore(generation));
     }
 
 
@@ -316,13 +416,13 @@ public class AddEditNoteActivity extends AppCompatActivity {
         binding.btnUnderline.setOnClickListener(v -> applyUnderline());
 
         // ALIGN LEFT
-        binding.btnAlignLeft.setOnClickListener(v -> applyAlignment(Gravity.START, "left"));
+        binding.btnAlignLeft.setOnClickListener(v -> applyAlignment(Layout.Alignment.ALIGN_NORMAL));
 
         // ALIGN CENTER
-        binding.btnAlignCenter.setOnClickListener(v -> applyAlignment(Gravity.CENTER_HORIZONTAL, "center"));
+        binding.btnAlignCenter.setOnClickListener(v -> applyAlignment(Layout.Alignment.ALIGN_CENTER));
 
         // ALIGN RIGHT
-        binding.btnAlignRight.setOnClickListener(v -> applyAlignment(Gravity.END, "right"));
+        binding.btnAlignRight.setOnClickListener(v -> applyAlignment(Layout.Alignment.ALIGN_OPPOSITE));
 
         // Toggle toolbar visibility
         binding.ibFormatting.setOnClickListener(v -> toggleFormattingToolbar());
@@ -363,22 +463,43 @@ public class AddEditNoteActivity extends AppCompatActivity {
         binding.etContent.setSelection(e);
     }
 
-    private void applyAlignment(int gravity, String alignHtml) {
-
-        // VISUAL alignment (Android)
-        binding.etContent.setGravity(gravity | Gravity.TOP);
-
-        // WRAP HTML alignment so it saves correctly
-        CharSequence current = binding.etContent.getText();
-        String html = Html.toHtml((Spanned) current);
+    /**
+     * Aligns the paragraphs touched by the selection by editing AlignmentSpans in place;
+     * Html.toHtml writes them out as <div align="...">. Left is the default, so it only
+     * removes alignment.
+     */
+    private void applyAlignment(Layout.Alignment alignment) {
+        Editable text = binding.etContent.getText();
+        if (text == null) return;
+
+        // Widen the selection to whole paragraphs, as paragraph spans require
+        int start = binding.etContent.getSelectionStart();
+        int end = binding.etContent.getSelectionEnd();
+        if (start < 0) start = end = 0;
+        start = TextUtils.lastIndexOf(text, '\n', start - 1) + 1;
+        // A selection ending right after a line break does not take in the next paragraph
+        int last = end > start && text.charAt(end - 1) == '\n' ? end - 1 : end;
+        int newline = TextUtils.indexOf(text, '\n', Math.max(start, last));
+        end = newline < 0 ? text.length() : newline + 1;
+
+        // Existing alignment keeps applying outside the range
+        for (AlignmentSpan span : text.getSpans(start, end, AlignmentSpan.class)) {
+            int spanStart = text.getSpanStart(span);
+            int spanEnd = text.getSpanEnd(span);
+            if (spanStart >= end || spanEnd <= start) continue;   // adjacent paragraph
+            text.removeSpan(span);
+            Layout.Alignment kept = span.getAlignment();
+            if (spanStart < start) setAlignment(text, kept, spanStart, start);
+            if (spanEnd > end) setAlignment(text, kept, end, spanEnd);
+        }
+        if (alignment != Layout.Alignment.ALIGN_NORMAL) setAlignment(text, alignment, start, end);
 
-        String wrapped =
-                "<div align=\"" + alignHtml + "\">" +
-                        html +
-                        "</div>";
+        // Span edits are not text changes, so the watchers do not see them
+        debouncedAutosaveNote();
+    }
 
-        CharSequence sp = Html.fromHtml(wrapped, Html.FROM_HTML_MODE_LEGACY);
-        binding.etContent.setText(sp, TextView.BufferType.SPANNABLE);
+    private static void setAlignment(Editable text, Layout.Alignment alignment, int start, int end) {
+        text.setSpan(new AlignmentSpan.Standard(alignment), start, end, Spanned.SPAN_PARAGRAPH);
     }
 
 
@@ -389,6 +510,7 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
     private void setupAttachmentUI() {
         attachmentAdapter = new AttachmentAdapter();
+        attachmentAdapter.setThumbnails(noteViewModel.getAttachmentThumbnails());
         binding.rvAttachments.setLayoutManager(new LinearLayoutManager(this));
         binding.rvAttachments.setAdapter(attachmentAdapter);
 
@@ -423,11 +545,44 @@ public class AddEditNoteActivity extends AppCompatActivity {
             @Override public void onAttachmentClick(Attachment att) { openAttachment(att); }
             @Override public void onAttachmentLongClick(Attachment att) { confirmDeleteAttachment(att); }
         });
+
+        binding.btnCancelImport.setOnClickListener(v -> noteViewModel.cancelAttachmentImport());
+        noteViewModel.getAttachmentImportProgress().observe(this, this::showImportProgress);
+    }
+
+    private void addAttachments(List<Uri> uris) {
+        noteViewModel.importAttachments(noteId, uris);
     }
 
-    private void addAttachment(Uri uri) {
-        noteViewModel.addAttachmentToNote(this, noteId, uri);
-        Toast.makeText(this, "Adding attachment...", Toast.LENGTH_SHORT).show();
+    private void showImportProgress(AttachmentImporter.Progress progress) {
+        if (progress == null || progress.total == 0) {
+            binding.layoutImportProgress.setVisibility(View.GONE);
+            return;
+        }
+        if (progress.isFinished()) {
+            binding.layoutImportProgress.setVisibility(View.GONE);
+            // The last batch's result stays in the LiveData; only report batches seen running here
+            boolean wasRunning = isImportRunning;
+            isImportRunning = false;
+            if (wasRunning && progress.failed > 0) {
+                Toast.makeText(this, progress.failed + " of " + progress.total
+                        + " attachments could not be added", Toast.LENGTH_LONG).show();
+            }
+            return;
+        }
+
+        // Finished files count fully; running ones by how far through their two passes they are
+        float fraction = progress.getFinished();
+        for (AttachmentImporter.FileProgress file : progress.files) {
+            if (file.state == AttachmentImporter.State.RUNNING && file.size > 0) {
+                fraction += Math.min(1f, (float) file.bytesRead / (2 * file.size));
+            }
+        }
+        isImportRunning = true;
+        binding.layoutImportProgress.setVisibility(View.VISIBLE);
+        binding.progressImport.setProgress(Math.round(1000 * fraction / progress.total));
+        binding.tvImportProgress.setText("Adding attachments: " + progress.getFinished()
+                + " of " + progress.total);
     }
 
     private void openAttachment(Attachment att) {
@@ -475,6 +630,80 @@ public class AddEditNoteActivity extends AppCompatActivity {
                 .show();
     }
 
+    /* ==========================================================================================
+     *  TODO LIST
+     * ========================================================================================== */
+
+    private void setupTodoUI() {
+        todoAdapter = new TodoAdapter();
+        binding.rvTodoItems.setLayoutManager(new LinearLayoutManager(this));
+        binding.rvTodoItems.setAdapter(todoAdapter);
+
+        noteViewModel.getTodosByNoteId(noteId).observe(this, items -> {
+            todoAdapter.setItems(items);
+            boolean show = isTodoSectionVisible || (items != null && !items.isEmpty());
+            binding.layoutTodoSection.setVisibility(show ? View.VISIBLE : View.GONE);
+        });
+
+        todoAdapter.setListener(new TodoAdapter.TodoListener() {
+            @Override
+            public void onChecked(TodoItem item, boolean isChecked) {
+                noteViewModel.updateTodoItem(item);
+            }
+
+            @Override
+            public void onTextChanged(TodoItem item, String text) {
+                noteViewModel.updateTodoItem(item);
+            }
+
+            @Override
+            public void onDelete(TodoItem item) {
+                noteViewModel.deleteTodoItem(item);
+            }
+
+            @Override
+            public void onAddAfter(int position) {
+                TodoItem after = todoAdapter.getItem(position);
+                addTodoAfter(after != null ? after.getId() : null);
+            }
+        });
+
+        // Long-press drag to reorder; only the dropped item's rank is written
+        new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(
+                ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0) {
+            private int dragFrom = RecyclerView.NO_POSITION;
+
+            @Override
+            public boolean onMove(@NonNull RecyclerView rv, @NonNull RecyclerView.ViewHolder from,
+                                  @NonNull RecyclerView.ViewHolder to) {
+                if (dragFrom == RecyclerView.NO_POSITION) dragFrom = from.getBindingAdapterPosition();
+                todoAdapter.moveItem(from.getBindingAdapterPosition(), to.getBindingAdapterPosition());
+                return true;
+            }
+
+            @Override
+            public void onSwiped(@NonNull RecyclerView.ViewHolder vh, int direction) { }
+
+            @Override
+            public void clearView(@NonNull RecyclerView rv, @NonNull RecyclerView.ViewHolder vh) {
+                super.clearView(rv, vh);
+                int to = vh.getBindingAdapterPosition();
+                if (dragFrom != RecyclerView.NO_POSITION && to != RecyclerView.NO_POSITION && to != dragFrom) {
+                    TodoItem previous = todoAdapter.getItem(to - 1);
+                    noteViewModel.moveTodoAfter(todoAdapter.getItem(to),
+                            previous != null ? previous.getId() : null);
+                }
+                dragFrom = RecyclerView.NO_POSITION;
+            }
+        }).attachToRecyclerView(binding.rvTodoItems);
+    }
+
+    private void addTodoAfter(String afterId) {
+        TodoItem item = new TodoItem(UUID.randomUUID().toString(), noteId, "", false, 0,
+                System.currentTimeMillis());
+        noteViewModel.insertTodoAfter(item, afterId);
+    }
+
     /* ==========================================================================================
      *  QUICK ACTION ICONS
      * ========================================================================================== */
@@ -488,6 +717,12 @@ public class AddEditNoteActivity extends AppCompatActivity {
             attachmentPicker.launch(new String[]{"image/*", "application/pdf", "audio/*"});
         });
 
+        binding.ibTodo.setOnClickListener(v -> {
+            isTodoSectionVisible = true;
+            binding.layoutTodoSection.setVisibility(View.VISIBLE);
+            if (todoAdapter.getItemCount() == 0) addTodoAfter(null);
+        });
+
         binding.ibPinned.setOnClickListener(v -> {
             binding.cbPinned.setChecked(!binding.cbPinned.isChecked());
             updatePinIcon();
@@ -664,14 +899,30 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
     private void setupAutosaveListeners() {
 
+        // Title and body edits go to the journal; the password is never journaled
+        binding.etContent.addTextChangedListener(new TextWatcher() {
+            @Override public void beforeTextChanged(CharSequence s, int st, int c, int a) {}
+            @Override public void onTextChanged(CharSequence s, int st, int b, int c) {
+                journal.recordEdit(st, b, s.subSequence(st, st + c));
+            }
+            @Override public void afterTextChanged(Editable s) { scheduleCompaction(); }
+        });
+
+        binding.etTitle.addTextChangedListener(new TextWatcher() {
+            @Override public void beforeTextChanged(CharSequence s, int st, int c, int a) {}
+            @Override public void onTextChanged(CharSequence s, int st, int b, int c) {}
+            @Override public void afterTextChanged(Editable s) {
+                journal.recordTitle(s.toString());
+                scheduleCompaction();
+            }
+        });
+
         TextWatcher watcher = new TextWatcher() {
             @Override public void beforeTextChanged(CharSequence s, int st, int c, int a) {}
             @Override public void onTextChanged(CharSequence s, int st, int b, int c) {}
             @Override public void afterTextChanged(Editable s) { debouncedAutosaveNote(); }
         };
 
-        binding.etTitle.addTextChangedListener(watcher);
-        binding.etContent.addTextChangedListener(watcher);
         binding.etLockPassword.addTextChangedListener(watcher);
 
         binding.cbPinned.setOnCheckedChangeListener((b, c) -> debouncedAutosaveNote());
@@ -682,27 +933,113 @@ public class AddEditNoteActivity extends AppCompatActivity {
         if (noteSaveRunnable != null)
             noteSaveHandler.removeCallbacks(noteSaveRunnable);
 
-        noteSaveRunnable = this::doSaveNote;
+        noteSaveRunnable = this::runPendingSave;
         noteSaveHandler.postDelayed(noteSaveRunnable, SAVE_DELAY_MS);
     }
 
+    /**
+     * Full save after journaled text edits: at most one every COMPACT_DELAY_MS while typing,
+     * since the journal already holds each edit. Until the journal has started (a new note's
+     * first save, or recovery still running) this is the regular debounced save.
+     */
+    private void scheduleCompaction() {
+        if (!journal.isStarted()) {
+            debouncedAutosaveNote();
+            return;
+        }
+        if (noteSaveRunnable != null) return;   // an earlier save is due anyway
+
+        noteSaveRunnable = this::runPendingSave;
+        noteSaveHandler.postDelayed(noteSaveRunnable, COMPACT_DELAY_MS);
+    }
+
+    private void runPendingSave() {
+        noteSaveRunnable = null;
+        doSaveNote();
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        // A body still loading, or still being replayed, is loaded again on recreation
+        outState.putBoolean(STATE_CONTENT_LOADED, contentLoaded && !journalRecovering);
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
 
-        // Finish pending todo saves
-        for (Runnable r : pendingTodoSaves.values()) {
-            todoSaveHandler.removeCallbacks(r);
-            r.run();
-        }
-        pendingTodoSaves.clear();
+        // Finish pending todo saves (one transaction for all of them)
+        noteViewModel.flushTodoEdits();
 
-        // Finish pending note save
+        // Write journaled edits now, then compact them into the note
+        journal.flush();
         if (noteSaveRunnable != null) {
             noteSaveHandler.removeCallbacks(noteSaveRunnable);
-            noteSaveRunnable.run();
-            noteSaveRunnable = null;
+            runPendingSave();
+        }
+    }
+
+    /* ==========================================================================================
+     *  EDIT JOURNAL
+     * ========================================================================================== */
+
+    /**
+     * Replays edits journaled after the stored version, i.e. typed before the app was killed
+     * and never saved, then starts journaling. Call once the stored body is shown. The
+     * version comes from the note row: the list entry that opened the editor may predate
+     * saves made since.
+     */
+    private void recoverJournal() {
+        journalRecovering = true;
+        noteViewModel.loadNoteVersion(noteId).observe(this, version -> {
+            if (version == null) {
+                // Not stored: journaling starts with the first save
+                endJournalRecovery(false);
+                return;
+            }
+            journal.recover(version, edits -> replayJournal(version, edits));
+        });
+    }
+
+    /**
+     * Starts journaling after a recreation with saved state: the restored text already
+     * holds the journaled edits, so nothing is replayed. The stored version is read after
+     * the previous instance's onPause save, which went to the same executor.
+     */
+    private void resumeJournal() {
+        noteViewModel.loadNoteVersion(noteId).observe(this, version -> {
+            if (version != null && !journal.isStarted()) journal.start(version);
+        });
+    }
+
+    private void replayJournal(long version, List<EditJournal.Edit> edits) {
+        if (isFinishing() || isDestroyed()) return;
+        if (edits.isEmpty()) {
+            journal.start(version);
+            endJournalRecovery(false);
+            return;
         }
+
+        Editable body = binding.etContent.getText();
+        for (EditJournal.Edit e : edits) {
+            if (e.title != null) {
+                binding.etTitle.setText(e.title);
+                continue;
+            }
+            int start = Math.min(e.start, body.length());
+            int end = Math.min(start + e.removed, body.length());
+            body.replace(start, end, e.inserted);
+        }
+        Toast.makeText(this, "Recovered unsaved changes", Toast.LENGTH_SHORT).show();
+        endJournalRecovery(true);   // the save also starts the journal on the new version
+    }
+
+    private void endJournalRecovery(boolean save) {
+        journalRecovering = false;
+        boolean deferred = saveDeferred;
+        saveDeferred = false;
+        if (save || deferred) doSaveNote();
     }
 
     /* ==========================================================================================
@@ -716,6 +1053,7 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
         String[] mimeTypes = {"image/*", "application/pdf", "audio/*"};
         i.putExtra(Intent.EXTRA_MIME_TYPES, mimeTypes);
+        i.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
 
         startActivityForResult(i, REQUEST_CODE_PICK_ATTACHMENT);
     }
@@ -726,12 +1064,17 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
         if (requestCode == REQUEST_CODE_PICK_ATTACHMENT
                 && resultCode == RESULT_OK
-                && data != null
-                && data.getData() != null) {
+                && data != null) {
 
-            Uri uri = data.getData();
-            noteViewModel.addAttachmentToNote(this, noteId, uri);
-            Toast.makeText(this, "Attachment added", Toast.LENGTH_SHORT).show();
+            List<Uri> uris = new ArrayList<>();
+            if (data.getClipData() != null) {
+                for (int i = 0; i < data.getClipData().getItemCount(); i++) {
+                    uris.add(data.getClipData().getItemAt(i).getUri());
+                }
+            } else if (data.getData() != null) {
+                uris.add(data.getData());
+            }
+            if (!uris.isEmpty()) addAttachments(uris);
         }
     }
 }
@@ -1,5 +1,6 @@
 package com.example.securenote.ui;
 
+import android.content.res.ColorStateList;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -7,9 +8,11 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.widget.ImageViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.securenote.R;
+import com.example.securenote.data.AttachmentThumbnails;
 import com.example.securenote.model.Attachment;
 
 import java.util.ArrayList;
@@ -24,6 +27,12 @@ public class AttachmentAdapter extends RecyclerView.Adapter<AttachmentAdapter.At
 
     private final List<Attachment> attachments = new ArrayList<>();
     private OnAttachmentClickListener listener;
+    private AttachmentThumbnails thumbnails;
+
+    /** Enables image previews; without it every attachment shows its type icon. */
+    public void setThumbnails(AttachmentThumbnails thumbnails) {
+        this.thumbnails = thumbnails;
+    }
 
     public void setOnAttachmentClickListener(OnAttachmentClickListener listener) {
         this.listener = listener;
@@ -61,19 +70,25 @@ public class AttachmentAdapter extends RecyclerView.Adapter<AttachmentAdapter.At
         private final ImageView ivIcon;
         private final TextView tvName;
         private final TextView tvSize;
+        private final ColorStateList iconTint;
 
         AttachmentViewHolder(@NonNull View itemView) {
             super(itemView);
             ivIcon = itemView.findViewById(R.id.ivAttachmentIcon);
             tvName = itemView.findViewById(R.id.tvAttachmentName);
             tvSize = itemView.findViewById(R.id.tvAttachmentSize);
+            iconTint = ImageViewCompat.getImageTintList(ivIcon);
         }
 
         void bind(Attachment attachment) {
             tvName.setText(attachment.getDisplayName());
 
             long sizeBytes = attachment.getSizeBytes();
-            tvSize.setText(formatSize(sizeBytes));
+            String size = formatSize(sizeBytes);
+            if (attachment.getSavedBytes() > 0) {
+                size += " · saved " + formatSize(attachment.getSavedBytes());
+            }
+            tvSize.setText(size);
 
             // Simple icon based on MIME type
             String mime = attachment.getMimeType();
@@ -87,7 +102,24 @@ public class AttachmentAdapter extends RecyclerView.Adapter<AttachmentAdapter.At
                     iconRes = android.R.drawable.ic_btn_speak_now;
                 }
             }
-            ivIcon.setImageResource(iconRes);
+            showIcon(iconRes);
+
+            // Real preview for images: from memory right away, else decoded in the background
+            if (thumbnails != null && AttachmentThumbnails.isImage(attachment)) {
+                String key = AttachmentThumbnails.keyOf(attachment);
+                ivIcon.setTag(key);
+                android.graphics.Bitmap cached = thumbnails.getCached(attachment);
+                if (cached != null) {
+                    showThumbnail(cached);
+                } else {
+                    thumbnails.load(attachment, (loadedKey, bitmap) -> {
+                        // The holder may have been rebound to another attachment meanwhile
+                        if (bitmap != null && loadedKey.equals(ivIcon.getTag())) showThumbnail(bitmap);
+                    });
+                }
+            } else {
+                ivIcon.setTag(null);
+            }
 
             itemView.setOnClickListener(v -> {
                 if (listener != null) listener.onAttachmentClick(attachment);
@@ -99,6 +131,18 @@ public class AttachmentAdapter extends RecyclerView.Adapter<AttachmentAdapter.At
             });
         }
 
+        private void showIcon(int iconRes) {
+            ivIcon.setScaleType(ImageView.ScaleType.FIT_CENTER);
+            ImageViewCompat.setImageTintList(ivIcon, iconTint);
+            ivIcon.setImageResource(iconRes);
+        }
+
+        private void showThumbnail(android.graphics.Bitmap bitmap) {
+            ivIcon.setScaleType(ImageView.ScaleType.CENTER_CROP);
+            ImageViewCompat.setImageTintList(ivIcon, null);
+            ivIcon.setImageBitmap(bitmap);
+        }
+
         private String formatSize(long bytes) {
             if (bytes <= 0) return "";
             double kb = bytes / 1024.0;
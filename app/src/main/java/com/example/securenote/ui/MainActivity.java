@@ -10,6 +10,7 @@ import android.view.MenuItem;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.text.InputType;
+import android.text.format.Formatter;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.content.ActivityNotFoundException;
@@ -17,7 +18,10 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.view.ActionMode;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.StaggeredGridLayoutManager;
 import androidx.annotation.NonNull;
@@ -36,7 +40,11 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import com.example.securenote.MyApp;
 import com.example.securenote.R;
 import com.example.securenote.databinding.ActivityMainBinding;
+import com.example.securenote.data.KeyRotationManager;
+import com.example.securenote.data.NoteRepository;
 import com.example.securenote.model.Note;
+import com.example.securenote.util.CompressionCodec;
+import com.example.securenote.util.ImageTranscoder;
 import com.example.securenote.viewmodel.NoteViewModel;
 import com.example.securenote.viewmodel.ProfileViewModel;
 
@@ -117,6 +125,19 @@ public class MainActivity extends AppCompatActivity
                     }
             );
 
+    private final ActivityResultLauncher<Intent> exportEncryptedBackupLauncher =
+            registerForActivityResult(
+                    new ActivityResultContracts.StartActivityForResult(),
+                    result -> {
+                        if (result.getResultCode() == RESULT_OK && result.getData() != null) {
+                            Uri uri = result.getData().getData();
+                            if (uri != null) {
+                                exportEncryptedBackupToUri(uri);
+                            }
+                        }
+                    }
+            );
+
     private final ActivityResultLauncher<Intent> importBackupLauncher =
             registerForActivityResult(
                     new ActivityResultContracts.StartActivityForResult(),
@@ -130,9 +151,41 @@ public class MainActivity extends AppCompatActivity
                     }
             );
 
+    private final ActivityResultLauncher<Intent> verifyBackupLauncher =
+            registerForActivityResult(
+                    new ActivityResultContracts.StartActivityForResult(),
+                    result -> {
+                        if (result.getResultCode() == RESULT_OK && result.getData() != null) {
+                            Uri uri = result.getData().getData();
+                            if (uri != null) {
+                                verifyBackupAtUri(uri);
+                            }
+                        }
+                    }
+            );
+
+    private final ActivityResultLauncher<Intent> restoreNotesLauncher =
+            registerForActivityResult(
+                    new ActivityResultContracts.StartActivityForResult(),
+                    result -> {
+                        if (result.getResultCode() == RESULT_OK && result.getData() != null) {
+                            Uri uri = result.getData().getData();
+                            if (uri != null) {
+                                browseBackupAtUri(uri);
+                            }
+                        }
+                    }
+            );
+
     // Cache current notes untuk optimistic delete
     private List<Note> currentNotes = new ArrayList<>();
 
+    // Categories a note can be given ("All" = uncategorised); the chips add "Pinned"
+    private static final String[] NOTE_CATEGORIES = {
+            "All", "Work", "Personal", "Urgent", "Study", "Goals", "Tasks"
+    };
+    private ActionMode selectionMode;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -190,6 +243,7 @@ public class MainActivity extends AppCompatActivity
 
         // [BARU/UBAH] Observer utama sekarang hanya pada filteredNotes
         noteViewModel.getFilteredNotes().observe(this, this::updateNotesDisplay);
+        noteViewModel.getTodoProgress().observe(this, noteAdapter::setTodoProgress);
 
         // Setup chip group untuk kategori
         setupCategoryChips();
@@ -198,6 +252,10 @@ public class MainActivity extends AppCompatActivity
         noteAdapter.setOnNoteClickListener(new NoteAdapter.OnNoteClickListener() {
             @Override
             public void onNoteClick(Note note) {
+                if (noteAdapter.isSelectionMode()) {
+                    toggleSelection(note);
+                    return;
+                }
                 if (note.isLocked()) {
                     if (note.getId() != null && unlockedNotes.contains(note.getId())) {
                         openNoteEditor(note);
@@ -211,26 +269,11 @@ public class MainActivity extends AppCompatActivity
 
             @Override
             public void onNoteLongClick(Note note) {
-                new AlertDialog.Builder(MainActivity.this)
-                        .setTitle("Delete Note")
-                        .setMessage("Move this note to Trash?")
-                        .setPositiveButton("Delete", (dialog, which) -> {
-                            // OPTIMISTIC DELETE - Update UI immediately
-                            deleteNoteOptimistically(note);
-
-                            // Then update database
-                            noteViewModel.moveToTrash(note);
-
-                            Snackbar.make(binding.getRoot(), "Moved to Trash", Snackbar.LENGTH_LONG)
-                                    .setAction("UNDO", v -> {
-                                        // Restore in database
-                                        noteViewModel.restoreFromTrash(note);
-                                        // UI will be updated by observer
-                                    })
-                                    .show();
-                        })
-                        .setNegativeButton("Cancel", null)
-                        .show();
+                // Long-press starts multi-select; trash, pin and category act on the selection
+                if (selectionMode == null) {
+                    selectionMode = startSupportActionMode(selectionCallback);
+                }
+                toggleSelection(note);
             }
         });
 
@@ -246,13 +289,13 @@ public class MainActivity extends AppCompatActivity
     /**
      * Optimistic delete - update UI immediately before database finishes
      */
-    private void deleteNoteOptimistically(Note note) {
+    private void deleteNotesOptimistically(Set<String> noteIds) {
         if (currentNotes == null || currentNotes.isEmpty()) return;
 
-        // Create new list without the deleted note
+        // Create new list without the deleted notes
         List<Note> updatedNotes = new ArrayList<>();
         for (Note n : currentNotes) {
-            if (n.getId() == null || note.getId() == null || !n.getId().equals(note.getId())) {
+            if (n.getId() == null || !noteIds.contains(n.getId())) {
                 updatedNotes.add(n);
             }
         }
@@ -261,6 +304,96 @@ public class MainActivity extends AppCompatActivity
         updateNotesDisplay(updatedNotes);
     }
 
+    // ----------------------------------------------------------
+    //                       MULTI-SELECT
+    // ----------------------------------------------------------
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_note_selection, menu);
+            noteAdapter.setSelectionMode(true);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            List<String> ids = noteAdapter.getSelectedIds();
+            int id = item.getItemId();
+
+            if (id == R.id.action_selection_select_all) {
+                noteAdapter.selectAll();
+                mode.setTitle(noteAdapter.getSelectedCount() + " selected");
+                return true;
+            }
+            if (ids.isEmpty()) return true;
+
+            if (id == R.id.action_selection_trash) {
+                moveSelectionToTrash(ids);
+            } else if (id == R.id.action_selection_pin) {
+                noteViewModel.setNotesPinned(ids, true);
+            } else if (id == R.id.action_selection_unpin) {
+                noteViewModel.setNotesPinned(ids, false);
+            } else if (id == R.id.action_selection_category) {
+                chooseCategoryForSelection(ids);
+                return true;    // the dialog ends selection mode
+            } else {
+                return false;
+            }
+            mode.finish();
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            noteAdapter.setSelectionMode(false);
+            selectionMode = null;
+        }
+    };
+
+    private void toggleSelection(Note note) {
+        noteAdapter.toggleSelection(note);
+        if (selectionMode == null) return;
+        int count = noteAdapter.getSelectedCount();
+        if (count == 0) {
+            selectionMode.finish();
+        } else {
+            selectionMode.setTitle(count + " selected");
+        }
+    }
+
+    private void moveSelectionToTrash(List<String> ids) {
+        // OPTIMISTIC DELETE - Update UI immediately
+        deleteNotesOptimistically(new HashSet<>(ids));
+
+        // Then update database, all notes in one transaction
+        noteViewModel.moveNotesToTrash(ids);
+
+        String message = ids.size() == 1 ? "Moved to Trash" : ids.size() + " notes moved to Trash";
+        Snackbar.make(binding.getRoot(), message, Snackbar.LENGTH_LONG)
+                .setAction("UNDO", v -> {
+                    // Restore in database; UI will be updated by observer
+                    noteViewModel.restoreNotesFromTrash(ids);
+                })
+                .show();
+    }
+
+    private void chooseCategoryForSelection(List<String> ids) {
+        new AlertDialog.Builder(this)
+                .setTitle("Change category of " + ids.size() + (ids.size() == 1 ? " note" : " notes"))
+                .setItems(NOTE_CATEGORIES, (d, which) -> {
+                    noteViewModel.setNotesCategory(ids, NOTE_CATEGORIES[which]);
+                    if (selectionMode != null) selectionMode.finish();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
     private void setupCategoryChips() {
         ChipGroup chipGroup = findViewById(R.id.chipGroupCategories);
         chipGroup.removeAllViews();
@@ -659,16 +792,7 @@ public class MainActivity extends AppCompatActivity
     }
 
     private void openNoteEditor(Note note) {
-        Intent intent = new Intent(MainActivity.this, AddEditNoteActivity.class);
-        intent.putExtra(AddEditNoteActivity.EXTRA_ID, note.getId());
-        intent.putExtra(AddEditNoteActivity.EXTRA_TITLE, note.getTitle());
-        intent.putExtra(AddEditNoteActivity.EXTRA_CONTENT, note.getContent());
-        intent.putExtra(AddEditNoteActivity.EXTRA_PINNED, note.isPinned());
-        intent.putExtra(AddEditNoteActivity.EXTRA_LOCKED, note.isLocked());
-        intent.putExtra(AddEditNoteActivity.EXTRA_LOCK_PASSWORD_HASH, note.getLockPassword());
-        // Tambahkan kategori agar AddEditNoteActivity dapat memuatnya
-        intent.putExtra("note_category", note.getCategory());
-        noteEditorLauncher.launch(intent);
+        noteEditorLauncher.launch(AddEditNoteActivity.newIntent(this, note));
     }
 
     // ----------------------------------------------------------
@@ -695,13 +819,46 @@ public class MainActivity extends AppCompatActivity
             // FIXED: Call exportBackup() directly
             exportBackup();
 
+        } else if (id == R.id.nav_export_encrypted_backup) {
+            exportEncryptedBackup();
+
         } else if (id == R.id.nav_import_backup) {
             // FIXED: Launch import intent directly
             Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
-            intent.setType("application/json");
+            intent.setType("*/*");
             importBackupLauncher.launch(intent);
 
+        } else if (id == R.id.nav_verify_backup) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            verifyBackupLauncher.launch(intent);
+
+        } else if (id == R.id.nav_rotate_key) {
+            confirmKeyRotation();
+
+        } else if (id == R.id.nav_image_quality) {
+            chooseImageQuality();
+
+        } else if (id == R.id.nav_compression) {
+            chooseCompression();
+
+        } else if (id == R.id.nav_open_tasks) {
+            startActivity(new Intent(this, TasksActivity.class));
+
+        } else if (id == R.id.nav_storage_usage) {
+            startActivity(new Intent(this, StorageActivity.class));
+
+        } else if (id == R.id.nav_clean_storage) {
+            cleanUpStorage();
+
+        } else if (id == R.id.nav_restore_notes) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            restoreNotesLauncher.launch(intent);
+
         } else if (id == R.id.nav_logout) {
             unlockedNotes.clear();
             Intent intent = new Intent(this, LockActivity.class);
@@ -779,126 +936,305 @@ public class MainActivity extends AppCompatActivity
     }
 
     /**
-     * Export backup to selected URI - FIXED
+     * Export backup to selected URI as plain JSON, written in the background.
      */
     private void exportBackupToUri(Uri uri) {
-        noteViewModel.getAllNotes().observe(this, notes -> {
-            if (notes == null || notes.isEmpty()) {
+        noteViewModel.exportPlainJsonBackup(this, uri).observe(this, count -> {
+            if (count == null) return;
+            if (count == 0) {
                 Toast.makeText(this, "No notes to export", Toast.LENGTH_SHORT).show();
                 return;
             }
+            Toast.makeText(this,
+                    "✓ Backup exported: " + count + " notes",
+                    Toast.LENGTH_LONG).show();
+        });
+    }
 
-            try {
-                org.json.JSONArray jsonArray = new org.json.JSONArray();
-                for (Note note : notes) {
-                    org.json.JSONObject jsonNote = new org.json.JSONObject();
-
-                    // Only export basic fields that exist in Note class
-                    if (note.getId() != null) jsonNote.put("id", note.getId());
-                    if (note.getTitle() != null) jsonNote.put("title", note.getTitle());
-                    if (note.getContent() != null) jsonNote.put("content", note.getContent());
-                    if (note.getCategory() != null) jsonNote.put("category", note.getCategory());
-
-                    jsonNote.put("pinned", note.isPinned());
-                    jsonNote.put("locked", note.isLocked());
+    private void exportEncryptedBackup() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("application/octet-stream");
+        intent.putExtra(Intent.EXTRA_TITLE, "securenote_backup_" +
+                System.currentTimeMillis() + ".enc");
+        exportEncryptedBackupLauncher.launch(intent);
+    }
 
-                    if (note.getLockPassword() != null) {
-                        jsonNote.put("lockPassword", note.getLockPassword());
-                    }
+    /**
+     * Export an encrypted backup to the selected URI.
+     * Asks for a backup password, then runs the export in the background.
+     */
+    private void exportEncryptedBackupToUri(Uri uri) {
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        input.setHint("Backup password");
 
-                    jsonNote.put("lastModified", note.getLastModified());
+        android.widget.CheckBox cbIncremental = new android.widget.CheckBox(this);
+        cbIncremental.setText("Only changes since last backup");
 
-                    // REMOVED: isDeleted() - this method doesn't exist in Note class
-                    // Only active notes are exported anyway (not trash)
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        LinearLayout container = new LinearLayout(this);
+        container.setOrientation(LinearLayout.VERTICAL);
+        container.setPadding(padding, padding, padding, padding);
+        container.addView(input);
+        container.addView(cbIncremental);
 
-                    jsonArray.put(jsonNote);
-                }
+        new AlertDialog.Builder(this)
+                .setTitle("Export backup")
+                .setView(container)
+                .setPositiveButton("Export", (dialog, which) -> {
+                    String password = input.getText().toString();
+                    if (password.isEmpty()) {
+                        Toast.makeText(this, "Password required", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
 
-                java.io.OutputStream output = getContentResolver().openOutputStream(uri);
-                if (output != null) {
-                    output.write(jsonArray.toString(2).getBytes());
-                    output.close();
+                    Toast.makeText(this, "Exporting backup...", Toast.LENGTH_SHORT).show();
+                    noteViewModel.exportBackup(this, uri, password, cbIncremental.isChecked())
+                            .observe(this, stats -> {
+                                if (stats == null) return;
+                                Toast.makeText(this,
+                                        "✓ Backup exported: " + stats.toDisplayString(),
+                                        Toast.LENGTH_LONG).show();
+                            });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-                    Toast.makeText(this,
-                            "✓ Backup exported: " + notes.size() + " notes",
+    /**
+     * Import backup from selected URI.
+     * Plain JSON exports are imported directly; encrypted backups ask for their password.
+     */
+    private void importBackupFromUri(Uri uri) {
+        noteViewModel.isPlainJsonBackup(this, uri).observe(this, plain -> {
+            if (plain == null) return;
+            if (plain) {
+                noteViewModel.importPlainJsonBackup(this, uri).observe(this, count -> {
+                    if (count == null) return;
+                    Toast.makeText(this, "✓ Import successful: " + count + " notes",
                             Toast.LENGTH_LONG).show();
-                }
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                Toast.makeText(this, "Export failed: " + e.getMessage(),
-                        Toast.LENGTH_SHORT).show();
+                });
+            } else {
+                importEncryptedBackup(uri);
             }
         });
     }
 
+    private void importEncryptedBackup(Uri uri) {
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        input.setHint("Backup password");
+
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        LinearLayout container = new LinearLayout(this);
+        container.setPadding(padding, padding, padding, padding);
+        container.addView(input);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Import backup")
+                .setView(container)
+                .setPositiveButton("Import", (dialog, which) ->
+                        noteViewModel.importBackup(this, uri, input.getText().toString())
+                                .observe(this, ok -> {
+                                    if (Boolean.TRUE.equals(ok)) {
+                                        Toast.makeText(this, "✓ Import successful",
+                                                Toast.LENGTH_LONG).show();
+                                    }
+                                }))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
     /**
-     * Import backup from selected URI - FIXED
+     * Verify an encrypted backup (password + integrity) without importing it.
      */
-    private void importBackupFromUri(Uri uri) {
-        try {
-            java.io.InputStream inputStream = getContentResolver().openInputStream(uri);
-            if (inputStream == null) {
-                Toast.makeText(this, "Cannot read file", Toast.LENGTH_SHORT).show();
-                return;
-            }
+    private void verifyBackupAtUri(Uri uri) {
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        input.setHint("Backup password");
 
-            java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(inputStream));
-            StringBuilder stringBuilder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                stringBuilder.append(line);
-            }
-            reader.close();
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        LinearLayout container = new LinearLayout(this);
+        container.setPadding(padding, padding, padding, padding);
+        container.addView(input);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Verify backup")
+                .setView(container)
+                .setPositiveButton("Verify", (dialog, which) ->
+                        noteViewModel.verifyBackup(this, uri, input.getText().toString())
+                                .observe(this, report -> {
+                                    if (report == null) return;
+                                    new AlertDialog.Builder(this)
+                                            .setTitle(report.ok ? "Backup OK" : "Backup damaged")
+                                            .setMessage(report.toDisplayString())
+                                            .setPositiveButton("OK", null)
+                                            .show();
+                                }))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-            org.json.JSONArray jsonArray = new org.json.JSONArray(stringBuilder.toString());
-            int importedCount = 0;
+    /** Turns compression of newly written notes and backups on or off. */
+    private void chooseCompression() {
+        String[] labels = {
+                "On (smaller notes and backups)",
+                "Off"
+        };
+        int checked = CompressionCodec.isEnabled() ? 0 : 1;
 
-            for (int i = 0; i < jsonArray.length(); i++) {
-                org.json.JSONObject jsonNote = jsonArray.getJSONObject(i);
+        new AlertDialog.Builder(this)
+                .setTitle("Compress before encrypting")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    boolean on = which == 0;
+                    // Only affects new writes; compressed data stays readable either way
+                    getSharedPreferences(MyApp.PREFS_STORAGE, MODE_PRIVATE).edit()
+                            .putBoolean(MyApp.KEY_COMPRESS, on).apply();
+                    CompressionCodec.setEnabled(on);
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-                String title = jsonNote.optString("title", "Untitled");
-                String content = jsonNote.optString("content", "");
+    /** Lets the user pick how images are downscaled when they are attached. */
+    private void chooseImageQuality() {
+        String[] labels = {
+                "Original (keep full size)",
+                "High (2560 px, 90%)",
+                "Balanced (2048 px, 85%)",
+                "Small (1280 px, 75%)"
+        };
+        ImageTranscoder.Options[] presets = {
+                new ImageTranscoder.Options(0, 100, true),
+                new ImageTranscoder.Options(2560, 90, false),
+                new ImageTranscoder.Options(2048, 85, false),
+                new ImageTranscoder.Options(1280, 75, false)
+        };
 
-                // FIXED: Use empty Note constructor then set fields
-                Note note = new Note();
-                note.setTitle(title);
-                note.setContent(content);
+        ImageTranscoder.Options current = ImageTranscoder.Options.load(this);
+        int checked = 0;
+        if (!current.keepOriginal) {
+            for (int i = 1; i < presets.length; i++) {
+                if (presets[i].maxDimension == current.maxDimension) checked = i;
+            }
+        }
 
-                try {
-                    String category = jsonNote.optString("category", "Personal");
-                    note.setCategory(category);
-                } catch (Exception e) { }
+        new AlertDialog.Builder(this)
+                .setTitle("Images added to notes")
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    presets[which].save(this);
+                    dialog.dismiss();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-                try {
-                    boolean pinned = jsonNote.optBoolean("pinned", false);
-                    note.setPinned(pinned);
-                } catch (Exception e) { }
+    private void cleanUpStorage() {
+        Toast.makeText(this, "Cleaning up storage...", Toast.LENGTH_SHORT).show();
+        noteViewModel.cleanUpStorage().observe(this, result -> {
+            if (result == null) {
+                Toast.makeText(this, "Storage cleanup failed", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            String msg = "Freed " + Formatter.formatShortFileSize(this, result.reclaimedBytes);
+            if (result.orphanRows > 0) {
+                msg += " (" + result.orphanRows + " leftover attachments removed)";
+            }
+            Toast.makeText(this, msg, Toast.LENGTH_LONG).show();
+        });
+    }
 
-                try {
-                    boolean locked = jsonNote.optBoolean("locked", false);
-                    note.setLocked(locked);
+    /**
+     * Create a new Keystore key and re-encrypt existing notes with it in the background.
+     */
+    private void confirmKeyRotation() {
+        new AlertDialog.Builder(this)
+                .setTitle("Rotate encryption key")
+                .setMessage("A new key will be used from now on, and existing notes and "
+                        + "attachments are re-encrypted in the background. You can keep "
+                        + "using the app meanwhile.")
+                .setPositiveButton("Rotate", (dialog, which) -> {
+                    noteViewModel.rotateEncryptionKey();
+                    Toast.makeText(this, "Key rotation started", Toast.LENGTH_SHORT).show();
+
+                    LiveData<KeyRotationManager.Progress> progress = noteViewModel.getKeyRotationProgress();
+                    progress.observe(this, new Observer<KeyRotationManager.Progress>() {
+                        @Override
+                        public void onChanged(KeyRotationManager.Progress p) {
+                            if (p == null || p.running) return;
+                            progress.removeObserver(this);
+                            String msg = "Key rotation finished: " + p.done + " items re-encrypted";
+                            if (p.failed > 0) msg += ", " + p.failed + " could not be read";
+                            Toast.makeText(MainActivity.this, msg, Toast.LENGTH_LONG).show();
+                        }
+                    });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-                    if (locked && jsonNote.has("lockPassword")) {
-                        String lockPassword = jsonNote.getString("lockPassword");
-                        note.setLockPassword(lockPassword);
-                    }
-                } catch (Exception e) { }
+    /**
+     * Pick individual notes out of an encrypted backup and restore only those.
+     */
+    private void browseBackupAtUri(Uri uri) {
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        input.setHint("Backup password");
 
-                // FIXED: Use addNote() from NoteViewModel
-                noteViewModel.addNote(note);
-                importedCount++;
-            }
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        LinearLayout container = new LinearLayout(this);
+        container.setPadding(padding, padding, padding, padding);
+        container.addView(input);
 
-            Toast.makeText(this,
-                    "✓ Import successful: " + importedCount + " notes",
-                    Toast.LENGTH_LONG).show();
+        new AlertDialog.Builder(this)
+                .setTitle("Restore notes from backup")
+                .setView(container)
+                .setPositiveButton("Open", (dialog, which) -> {
+                    String password = input.getText().toString();
+                    noteViewModel.listBackupContents(this, uri, password)
+                            .observe(this, entries -> {
+                                if (entries == null) return;
+                                if (entries.isEmpty()) {
+                                    Toast.makeText(this, "Backup contains no notes",
+                                            Toast.LENGTH_SHORT).show();
+                                    return;
+                                }
+                                showRestoreSelection(uri, password, entries);
+                            });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            Toast.makeText(this, "Import failed: " + e.getMessage(),
-                    Toast.LENGTH_SHORT).show();
+    private void showRestoreSelection(Uri uri, String password,
+                                      List<NoteRepository.BackupEntry> entries) {
+        String[] titles = new String[entries.size()];
+        boolean[] checked = new boolean[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            NoteRepository.BackupEntry entry = entries.get(i);
+            String title = entry.title == null || entry.title.isEmpty() ? "(Untitled)" : entry.title;
+            titles[i] = entry.inTrash ? title + " (trash)" : title;
         }
+
+        new AlertDialog.Builder(this)
+                .setTitle("Select notes to restore")
+                .setMultiChoiceItems(titles, checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton("Restore", (dialog, which) -> {
+                    List<String> ids = new ArrayList<>();
+                    for (int i = 0; i < checked.length; i++) {
+                        if (checked[i]) ids.add(entries.get(i).noteId);
+                    }
+                    if (ids.isEmpty()) return;
+                    noteViewModel.restoreNotesFromBackup(this, uri, password, ids)
+                            .observe(this, count -> {
+                                if (count == null) return;
+                                Toast.makeText(this, "✓ Restored " + count + " of " + ids.size()
+                                        + " notes", Toast.LENGTH_LONG).show();
+                            });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
     }
-}
\ No newline at end of file
+}
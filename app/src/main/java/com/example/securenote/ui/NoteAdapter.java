@@ -17,18 +17,32 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.securenote.R;
 import com.example.securenote.databinding.ItemNoteBinding;
 import com.example.securenote.model.Note;
+import com.example.securenote.model.TodoProgress;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder> {
 
     private final List<Note> noteList = new ArrayList<>();
     private OnNoteClickListener listener;
 
+    // Multi-select: ids of the selected notes; empty outside selection mode
+    private final Set<String> selectedIds = new LinkedHashSet<>();
+
+    // Checklist progress by note id, from the todo_progress table
+    private static final Object PAYLOAD_TODO_PROGRESS = new Object();
+    private Map<String, TodoProgress> todoProgress = new HashMap<>();
+    private boolean selectionMode = false;
+
     // Gradient backgrounds (for cards)
     private final int[] cardBackgrounds = {
             R.drawable.card_gradient_1,
@@ -53,9 +67,76 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
     public void setNotes(List<Note> notes) {
         noteList.clear();
         if (notes != null) noteList.addAll(notes);
+
+        // Drop selected notes that are no longer listed (e.g. trashed elsewhere)
+        if (!selectedIds.isEmpty()) {
+            Set<String> listed = new HashSet<>();
+            for (Note n : noteList) listed.add(n.getId());
+            selectedIds.retainAll(listed);
+        }
+        notifyDataSetChanged();
+    }
+
+    /** Updates the "7/12 done" badges; only cards whose counts changed are rebound. */
+    public void setTodoProgress(List<TodoProgress> progress) {
+        Map<String, TodoProgress> old = todoProgress;
+        todoProgress = new HashMap<>();
+        if (progress != null) {
+            for (TodoProgress p : progress) todoProgress.put(p.getNoteId(), p);
+        }
+        for (int i = 0; i < noteList.size(); i++) {
+            String id = noteList.get(i).getId();
+            TodoProgress before = old.get(id);
+            TodoProgress after = todoProgress.get(id);
+            if (before == null ? after != null : !before.sameCounts(after)) {
+                notifyItemChanged(i, PAYLOAD_TODO_PROGRESS);
+            }
+        }
+    }
+
+    // Locked notes don't reveal anything about their contents, checklist included
+    private TodoProgress progressFor(Note note) {
+        return note.isContentHidden() ? null : todoProgress.get(note.getId());
+    }
+
+    // -----------------------------
+    // MULTI-SELECT
+    // -----------------------------
+
+    public boolean isSelectionMode() {
+        return selectionMode;
+    }
+
+    public void setSelectionMode(boolean enabled) {
+        if (selectionMode == enabled) return;
+        selectionMode = enabled;
+        if (!enabled) selectedIds.clear();
         notifyDataSetChanged();
     }
 
+    public void toggleSelection(Note note) {
+        if (note.getId() == null) return;
+        if (!selectedIds.remove(note.getId())) selectedIds.add(note.getId());
+        int index = noteList.indexOf(note);
+        if (index >= 0) notifyItemChanged(index);
+        else notifyDataSetChanged();
+    }
+
+    public void selectAll() {
+        for (Note n : noteList) {
+            if (n.getId() != null) selectedIds.add(n.getId());
+        }
+        notifyDataSetChanged();
+    }
+
+    public int getSelectedCount() {
+        return selectedIds.size();
+    }
+
+    public List<String> getSelectedIds() {
+        return new ArrayList<>(selectedIds);
+    }
+
     @Override
     public long getItemId(int position) {
         Note note = noteList.get(position);
@@ -78,6 +159,18 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
         int bgIndex = position % cardBackgrounds.length;
         holder.setCardBackground(cardBackgrounds[bgIndex]);
         holder.bind(note);
+        holder.bindTodoProgress(progressFor(note));
+        holder.setSelected(note.getId() != null && selectedIds.contains(note.getId()));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull NoteViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.stream().allMatch(p -> p == PAYLOAD_TODO_PROGRESS)) {
+            holder.bindTodoProgress(progressFor(noteList.get(position)));
+            return;
+        }
+        super.onBindViewHolder(holder, position, payloads);
     }
 
     @Override
@@ -134,6 +227,23 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
             this.listener = listener;
         }
 
+        public void setSelected(boolean selected) {
+            float density = binding.getRoot().getResources().getDisplayMetrics().density;
+            binding.cardNote.setStrokeColor(ContextCompat.getColor(
+                    binding.getRoot().getContext(), R.color.peri_primary));
+            binding.cardNote.setStrokeWidth(selected ? Math.round(3 * density) : 0);
+        }
+
+        public void bindTodoProgress(TodoProgress progress) {
+            if (progress == null || progress.getTotal() <= 0) {
+                binding.tvTodoProgress.setVisibility(View.GONE);
+                return;
+            }
+            binding.tvTodoProgress.setText(binding.getRoot().getContext().getString(
+                    R.string.todo_progress, progress.getDone(), progress.getTotal()));
+            binding.tvTodoProgress.setVisibility(View.VISIBLE);
+        }
+
         public void setCardBackground(int backgroundRes) {
             if (binding.viewCardBackground != null) {
                 binding.viewCardBackground.setBackgroundResource(backgroundRes);
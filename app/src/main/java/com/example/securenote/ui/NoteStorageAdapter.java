@@ -0,0 +1,88 @@
+package com.example.securenote.ui;
+
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.securenote.R;
+import com.example.securenote.model.NoteStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class NoteStorageAdapter extends RecyclerView.Adapter<NoteStorageAdapter.NoteStorageViewHolder> {
+
+    public interface OnNoteStorageClickListener {
+        void onNoteStorageClick(NoteStorage note);
+    }
+
+    private final List<NoteStorage> notes = new ArrayList<>();
+    private OnNoteStorageClickListener listener;
+
+    public void setOnNoteStorageClickListener(OnNoteStorageClickListener listener) {
+        this.listener = listener;
+    }
+
+    public void setNotes(List<NoteStorage> newList) {
+        notes.clear();
+        if (newList != null) {
+            notes.addAll(newList);
+        }
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public NoteStorageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_note_storage, parent, false);
+        return new NoteStorageViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull NoteStorageViewHolder holder, int position) {
+        holder.bind(notes.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return notes.size();
+    }
+
+    class NoteStorageViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView tvTitle;
+        private final TextView tvDetails;
+        private final TextView tvSize;
+
+        NoteStorageViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvTitle = itemView.findViewById(R.id.tvNoteStorageTitle);
+            tvDetails = itemView.findViewById(R.id.tvNoteStorageDetails);
+            tvSize = itemView.findViewById(R.id.tvNoteStorageSize);
+        }
+
+        void bind(NoteStorage note) {
+            String title = note.title == null || note.title.isEmpty() ? "Untitled" : note.title;
+            tvTitle.setText(title);
+
+            StringBuilder details = new StringBuilder();
+            details.append(note.inTrash ? "Trash" : (note.category != null ? note.category : "All"));
+            if (note.attachmentCount > 0) {
+                details.append(" · ").append(note.attachmentCount)
+                        .append(note.attachmentCount == 1 ? " attachment" : " attachments");
+            }
+            tvDetails.setText(details);
+            tvSize.setText(Formatter.formatShortFileSize(itemView.getContext(), note.getTotalBytes()));
+
+            itemView.setOnClickListener(v -> {
+                if (listener != null) listener.onNoteStorageClick(note);
+            });
+        }
+    }
+}
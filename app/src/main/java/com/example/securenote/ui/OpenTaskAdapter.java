@@ -0,0 +1,149 @@
+package com.example.securenote.ui;
+
+import android.graphics.Paint;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.securenote.R;
+import com.example.securenote.model.Note;
+import com.example.securenote.model.TodoItem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Open tasks of all notes, appended page by page. Ticking a task updates that row only;
+ * it stays in the list (struck through) until the screen is reopened, so the list never
+ * jumps under the user's finger.
+ */
+public class OpenTaskAdapter extends RecyclerView.Adapter<OpenTaskAdapter.OpenTaskViewHolder> {
+
+    public interface OpenTaskListener {
+        void onToggled(TodoItem item);
+        void onOpenNote(Note note);
+    }
+
+    private static final Object PAYLOAD_CHECKED = new Object();
+    private static final Object PAYLOAD_TITLES = new Object();
+
+    private final List<TodoItem> items = new ArrayList<>();
+    private Map<String, Note> notesById = new HashMap<>();
+    private OpenTaskListener listener;
+
+    public void setListener(OpenTaskListener listener) {
+        this.listener = listener;
+    }
+
+    public void appendItems(List<TodoItem> page) {
+        if (page == null || page.isEmpty()) return;
+        int start = items.size();
+        items.addAll(page);
+        notifyItemRangeInserted(start, page.size());
+    }
+
+    public TodoItem getLastItem() {
+        return items.isEmpty() ? null : items.get(items.size() - 1);
+    }
+
+    /** Parent notes, from the repository's decrypted note list; used for the titles. */
+    public void setNotes(List<Note> notes) {
+        notesById = new HashMap<>();
+        if (notes != null) {
+            for (Note n : notes) notesById.put(n.getId(), n);
+        }
+        notifyItemRangeChanged(0, items.size(), PAYLOAD_TITLES);
+    }
+
+    @NonNull
+    @Override
+    public OpenTaskViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_open_task, parent, false);
+        return new OpenTaskViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull OpenTaskViewHolder holder, int position) {
+        TodoItem item = items.get(position);
+        holder.bindText(item);
+        holder.bindChecked(item);
+        holder.bindNote(notesById.get(item.getNoteId()));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull OpenTaskViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        TodoItem item = items.get(position);
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_CHECKED) holder.bindChecked(item);
+            else if (payload == PAYLOAD_TITLES) holder.bindNote(notesById.get(item.getNoteId()));
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return items.size();
+    }
+
+    class OpenTaskViewHolder extends RecyclerView.ViewHolder {
+
+        private final CheckBox cbDone;
+        private final TextView tvText;
+        private final TextView tvNoteTitle;
+
+        OpenTaskViewHolder(@NonNull View itemView) {
+            super(itemView);
+            cbDone = itemView.findViewById(R.id.cbOpenTask);
+            tvText = itemView.findViewById(R.id.tvOpenTaskText);
+            tvNoteTitle = itemView.findViewById(R.id.tvOpenTaskNote);
+
+            cbDone.setOnClickListener(v -> {
+                int pos = getBindingAdapterPosition();
+                if (pos == RecyclerView.NO_POSITION) return;
+                TodoItem item = items.get(pos);
+                item.setCompleted(cbDone.isChecked());
+                notifyItemChanged(pos, PAYLOAD_CHECKED);
+                if (listener != null) listener.onToggled(item);
+            });
+            itemView.setOnClickListener(v -> {
+                int pos = getBindingAdapterPosition();
+                if (pos == RecyclerView.NO_POSITION) return;
+                Note note = notesById.get(items.get(pos).getNoteId());
+                if (note != null && listener != null) listener.onOpenNote(note);
+            });
+        }
+
+        void bindText(TodoItem item) {
+            String text = item.getText();
+            tvText.setText(text == null || text.isEmpty() ? "Untitled task" : text);
+        }
+
+        void bindChecked(TodoItem item) {
+            cbDone.setChecked(item.isCompleted());
+            if (item.isCompleted()) {
+                tvText.setPaintFlags(tvText.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
+                tvText.setAlpha(0.5f);
+            } else {
+                tvText.setPaintFlags(tvText.getPaintFlags() & ~Paint.STRIKE_THRU_TEXT_FLAG);
+                tvText.setAlpha(1f);
+            }
+        }
+
+        void bindNote(Note note) {
+            String title = note == null ? null : note.getTitle();
+            tvNoteTitle.setText(title == null || title.isEmpty() ? "Untitled" : title);
+        }
+    }
+}
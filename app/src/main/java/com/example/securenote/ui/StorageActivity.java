@@ -0,0 +1,152 @@
+package com.example.securenote.ui;
+
+import android.os.Bundle;
+import android.text.format.Formatter;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+
+import com.example.securenote.databinding.ActivityStorageBinding;
+import com.example.securenote.model.Note;
+import com.example.securenote.model.NoteStorage;
+import com.example.securenote.model.StorageBucket;
+import com.example.securenote.model.StorageTotals;
+import com.example.securenote.util.CompressionCodec;
+import com.example.securenote.viewmodel.NoteViewModel;
+
+import java.util.List;
+
+/**
+ * Where the space goes: running totals, breakdowns by trash state, category and
+ * attachment type, and the largest notes, which can be trashed or deleted from here.
+ * All figures come from Room aggregates; nothing is measured on disk.
+ */
+public class StorageActivity extends AppCompatActivity {
+
+    private static final int HEAVIEST_LIMIT = 30;
+
+    private ActivityStorageBinding binding;
+    private NoteViewModel noteViewModel;
+    private NoteStorageAdapter adapter;
+
+    private StorageTotals totals;
+    private Long storedAttachmentBytes;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = ActivityStorageBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+
+        noteViewModel = new ViewModelProvider(this).get(NoteViewModel.class);
+
+        adapter = new NoteStorageAdapter();
+        binding.rvHeaviestNotes.setLayoutManager(new LinearLayoutManager(this));
+        binding.rvHeaviestNotes.setAdapter(adapter);
+        adapter.setOnNoteStorageClickListener(this::confirmPurge);
+
+        noteViewModel.getStorageTotals().observe(this, t -> {
+            totals = t;
+            showTotals();
+        });
+        noteViewModel.getStoredAttachmentBytes().observe(this, bytes -> {
+            storedAttachmentBytes = bytes;
+            showTotals();
+        });
+        noteViewModel.getStorageTrashVersusActive().observe(this,
+                buckets -> showBuckets(binding.layoutByTrash, buckets));
+        noteViewModel.getStorageByCategory().observe(this,
+                buckets -> showBuckets(binding.layoutByCategory, buckets));
+        noteViewModel.getStorageByMimeType().observe(this,
+                buckets -> showBuckets(binding.layoutByMimeType, buckets));
+
+        noteViewModel.getHeaviestNotes(HEAVIEST_LIMIT).observe(this, notes -> {
+            adapter.setNotes(notes);
+            boolean empty = notes == null || notes.isEmpty();
+            binding.tvStorageEmpty.setVisibility(empty ? View.VISIBLE : View.GONE);
+            binding.rvHeaviestNotes.setVisibility(empty ? View.GONE : View.VISIBLE);
+        });
+    }
+
+    private void showTotals() {
+        if (totals == null) return;
+        binding.tvStorageTotal.setText(format(totals.getTotalBytes()));
+
+        StringBuilder summary = new StringBuilder()
+                .append(totals.getNoteCount()).append(" notes (").append(format(totals.getNoteBytes()))
+                .append(") · ").append(totals.getAttachmentCount()).append(" attachments (")
+                .append(format(totals.getAttachmentBytes())).append(")");
+        // Identical files are stored once, so the disk figure can be well below the sum
+        if (storedAttachmentBytes != null && totals.getAttachmentCount() > 0) {
+            summary.append("\nAttachments on disk: ").append(format(storedAttachmentBytes));
+        }
+        // Measured as notes are saved and backups written, so only covers this session
+        if (CompressionCodec.getRawBytes() > 0) {
+            summary.append("\nCompression this session: ").append(CompressionCodec.getRatioDisplayString());
+        }
+        binding.tvStorageSummary.setText(summary);
+    }
+
+    private void showBuckets(LinearLayout container, List<StorageBucket> buckets) {
+        container.removeAllViews();
+        if (buckets == null || buckets.isEmpty()) {
+            container.addView(bucketRow("Nothing here", ""));
+            return;
+        }
+        for (StorageBucket bucket : buckets) {
+            container.addView(bucketRow(bucket.label + " (" + bucket.count + ")", format(bucket.bytes)));
+        }
+    }
+
+    private View bucketRow(String label, String value) {
+        LinearLayout row = new LinearLayout(this);
+        row.setOrientation(LinearLayout.HORIZONTAL);
+        int padding = Math.round(6 * getResources().getDisplayMetrics().density);
+        row.setPadding(0, padding, 0, padding);
+
+        TextView tvLabel = new TextView(this);
+        tvLabel.setText(label);
+        tvLabel.setTextSize(15);
+        row.addView(tvLabel, new LinearLayout.LayoutParams(0,
+                LinearLayout.LayoutParams.WRAP_CONTENT, 1f));
+
+        TextView tvValue = new TextView(this);
+        tvValue.setText(value);
+        tvValue.setTextSize(15);
+        row.addView(tvValue, new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+        return row;
+    }
+
+    private void confirmPurge(NoteStorage row) {
+        Note note = new Note();
+        note.setId(row.id);
+        String title = row.title == null || row.title.isEmpty() ? "Untitled" : row.title;
+
+        if (row.inTrash) {
+            new AlertDialog.Builder(this)
+                    .setTitle("Delete Permanently")
+                    .setMessage("Delete \"" + title + "\" and free " + format(row.getTotalBytes())
+                            + "? This cannot be undone.")
+                    .setPositiveButton("Delete", (d, w) -> noteViewModel.deleteFromTrash(note))
+                    .setNegativeButton("Cancel", null)
+                    .show();
+        } else {
+            new AlertDialog.Builder(this)
+                    .setTitle("Move to Trash")
+                    .setMessage("Move \"" + title + "\" (" + format(row.getTotalBytes()) + ") to trash?")
+                    .setPositiveButton("Move", (d, w) -> noteViewModel.moveToTrash(note))
+                    .setNegativeButton("Cancel", null)
+                    .show();
+        }
+    }
+
+    private String format(long bytes) {
+        return Formatter.formatShortFileSize(this, bytes);
+    }
+}
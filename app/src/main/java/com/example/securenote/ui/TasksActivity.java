@@ -0,0 +1,97 @@
+package com.example.securenote.ui;
+
+import android.os.Bundle;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.securenote.databinding.ActivityTasksBinding;
+import com.example.securenote.model.Note;
+import com.example.securenote.model.TodoItem;
+import com.example.securenote.viewmodel.NoteViewModel;
+
+/**
+ * Open tasks across all notes, oldest first. Pages are loaded from an indexed keyset
+ * query as the list is scrolled; note titles come from the already decrypted note list,
+ * so nothing is decrypted per task. Tasks of locked or trashed notes are not listed.
+ */
+public class TasksActivity extends AppCompatActivity {
+
+    private static final int PAGE_SIZE = 50;
+    // Load the next page when this close to the end of what is loaded
+    private static final int PREFETCH_DISTANCE = 15;
+
+    private ActivityTasksBinding binding;
+    private NoteViewModel noteViewModel;
+    private OpenTaskAdapter adapter;
+    private LinearLayoutManager layoutManager;
+
+    private boolean loading;
+    private boolean reachedEnd;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = ActivityTasksBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+
+        noteViewModel = new ViewModelProvider(this).get(NoteViewModel.class);
+
+        adapter = new OpenTaskAdapter();
+        layoutManager = new LinearLayoutManager(this);
+        binding.rvOpenTasks.setLayoutManager(layoutManager);
+        binding.rvOpenTasks.setAdapter(adapter);
+
+        adapter.setListener(new OpenTaskAdapter.OpenTaskListener() {
+            @Override
+            public void onToggled(TodoItem item) {
+                noteViewModel.updateTodoItem(item);
+            }
+
+            @Override
+            public void onOpenNote(Note note) {
+                startActivity(AddEditNoteActivity.newIntent(TasksActivity.this, note));
+            }
+        });
+
+        binding.rvOpenTasks.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                int last = layoutManager.findLastVisibleItemPosition();
+                if (last >= adapter.getItemCount() - PREFETCH_DISTANCE) loadNextPage();
+            }
+        });
+
+        noteViewModel.getAllNotes().observe(this, adapter::setNotes);
+
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (loading || reachedEnd) return;
+        loading = true;
+        noteViewModel.loadOpenTodos(adapter.getLastItem(), PAGE_SIZE).observe(this, page -> {
+            loading = false;
+            if (page == null) return;   // error is reported through the view model
+            if (page.size() < PAGE_SIZE) reachedEnd = true;
+            adapter.appendItems(page);
+            showEmptyState();
+        });
+    }
+
+    private void showEmptyState() {
+        boolean empty = adapter.getItemCount() == 0;
+        binding.tvTasksEmpty.setVisibility(empty ? View.VISIBLE : View.GONE);
+        binding.rvOpenTasks.setVisibility(empty ? View.GONE : View.VISIBLE);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        noteViewModel.flushTodoEdits();
+    }
+}
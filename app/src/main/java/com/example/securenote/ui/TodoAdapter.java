@@ -20,17 +20,39 @@ import android.animation.AnimatorListenerAdapter;
 
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.securenote.R;
 import com.example.securenote.model.TodoItem;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Checklist rows. New lists from Room are diffed against what is shown, and only the
+ * aspect that changed (checked state or text) of the rows that changed is rebound;
+ * reorders are dispatched as moves, which need no rebind at all.
+ *
+ * Edits made here reach Room through a debounced write buffer, so a list emitted in the
+ * meantime can carry older text. Such rows keep the local edit until Room catches up,
+ * instead of the text being reset under the cursor.
+ */
 public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder> {
 
+    private static final String PAYLOAD_CHECKED = "checked";
+    private static final String PAYLOAD_TEXT = "text";
+
     private final List<TodoItem> items = new ArrayList<>();
+    // Items edited here whose edit Room has not echoed back yet, by id
+    private final Map<String, TodoItem> localEdits = new HashMap<>();
+
+    // Enter pressed on this item: focus the row that appears right after it
+    private String focusAfterId;
+    private String focusItemId;
 
     public interface TodoListener {
         void onChecked(TodoItem item, boolean isChecked);
@@ -46,16 +68,88 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
     }
 
     public void setItems(List<TodoItem> newItems) {
+        List<TodoItem> next = newItems != null ? new ArrayList<>(newItems) : new ArrayList<>();
+
+        Map<String, TodoItem> pending = new HashMap<>(localEdits);
+        localEdits.clear();
+        for (TodoItem item : next) {
+            TodoItem local = pending.get(item.getId());
+            if (local == null || sameContent(local, item)) continue;
+            item.setText(local.getText());
+            item.setCompleted(local.isCompleted());
+            localEdits.put(item.getId(), item);
+        }
+
+        List<TodoItem> old = new ArrayList<>(items);
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override public int getOldListSize() { return old.size(); }
+            @Override public int getNewListSize() { return next.size(); }
+
+            @Override
+            public boolean areItemsTheSame(int oldPos, int newPos) {
+                return old.get(oldPos).getId().equals(next.get(newPos).getId());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPos, int newPos) {
+                return sameContent(old.get(oldPos), next.get(newPos));
+            }
+
+            @Override
+            public Object getChangePayload(int oldPos, int newPos) {
+                List<String> payloads = new ArrayList<>(2);
+                if (old.get(oldPos).isCompleted() != next.get(newPos).isCompleted()) payloads.add(PAYLOAD_CHECKED);
+                if (!Objects.equals(old.get(oldPos).getText(), next.get(newPos).getText())) payloads.add(PAYLOAD_TEXT);
+                return payloads;
+            }
+        });
+
         items.clear();
-        if (newItems != null) items.addAll(newItems);
-        notifyDataSetChanged();
+        items.addAll(next);
+        if (focusAfterId != null) {
+            int anchor = indexOf(focusAfterId);
+            if (anchor >= 0 && anchor + 1 < items.size() && indexOf(items.get(anchor + 1).getId(), old) < 0) {
+                focusItemId = items.get(anchor + 1).getId();
+                focusAfterId = null;
+            }
+        }
+        diff.dispatchUpdatesTo(this);
+    }
+
+    private static boolean sameContent(TodoItem a, TodoItem b) {
+        return a.isCompleted() == b.isCompleted() && Objects.equals(a.getText(), b.getText());
     }
 
-    public void removeItemAt(int position) {
-        if (position >= 0 && position < items.size()) {
-            items.remove(position);
-            notifyItemRemoved(position);
+    private int indexOf(String id) {
+        return indexOf(id, items);
+    }
+
+    private static int indexOf(String id, List<TodoItem> list) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getId().equals(id)) return i;
         }
+        return -1;
+    }
+
+    public TodoItem getItem(int position) {
+        if (position < 0 || position >= items.size()) return null;
+        return items.get(position);
+    }
+
+    /** Moves a row while it is being dragged; the new order is saved when the drag ends. */
+    public void moveItem(int from, int to) {
+        if (from < 0 || to < 0 || from >= items.size() || to >= items.size()) return;
+        items.add(to, items.remove(from));
+        notifyItemMoved(from, to);
+    }
+
+    /** Removes the row right away; looked up by id, as positions may have shifted meanwhile. */
+    public void removeItem(TodoItem item) {
+        int position = indexOf(item.getId());
+        if (position < 0) return;
+        items.remove(position);
+        localEdits.remove(item.getId());
+        notifyItemRemoved(position);
     }
 
     @NonNull
@@ -68,7 +162,24 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull TodoViewHolder holder, int position) {
-        holder.bind(items.get(position), position);
+        holder.bind(items.get(position));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull TodoViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        TodoItem todo = items.get(position);
+        holder.item = todo;
+        for (Object payload : payloads) {
+            @SuppressWarnings("unchecked")
+            List<String> changes = (List<String>) payload;
+            if (changes.contains(PAYLOAD_CHECKED)) holder.bindChecked(todo);
+            if (changes.contains(PAYLOAD_TEXT)) holder.bindText(todo);
+        }
     }
 
     @Override
@@ -99,6 +210,7 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
                 if (item == null || isBinding) return;
 
                 item.setCompleted(isChecked);
+                localEdits.put(item.getId(), item);
                 updateStrikethrough(isChecked, true);
                 animateCheckbox(isChecked);
 
@@ -117,6 +229,7 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
                     String txt = s.toString();
                     if (!txt.equals(item.getText())) {
                         item.setText(txt);
+                        localEdits.put(item.getId(), item);
 
                         if (listener != null)
                             listener.onTextChanged(item, txt);
@@ -129,23 +242,11 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
                 if (keyCode == KeyEvent.KEYCODE_ENTER &&
                         event.getAction() == KeyEvent.ACTION_DOWN) {
 
-                    if (listener != null) {
-                        int currentPos = getAdapterPosition();
+                    int currentPos = getBindingAdapterPosition();
+                    if (listener != null && item != null && currentPos != RecyclerView.NO_POSITION) {
+                        // The new row arrives with the next list from Room; it is focused when bound
+                        focusAfterId = item.getId();
                         listener.onAddAfter(currentPos);
-
-                        et.postDelayed(() -> {
-                            RecyclerView rv = (RecyclerView) itemView.getParent();
-                            if (rv != null) {
-                                RecyclerView.ViewHolder nextHolder =
-                                        rv.findViewHolderForAdapterPosition(currentPos + 1);
-
-                                if (nextHolder instanceof TodoViewHolder) {
-                                    EditText nextEt = ((TodoViewHolder) nextHolder).et;
-                                    nextEt.requestFocus();
-                                    nextEt.setSelection(nextEt.getText().length());
-                                }
-                            }
-                        }, 100);
                     }
                     return true;
                 }
@@ -160,26 +261,32 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
             });
         }
 
-        void bind(TodoItem todo, int pos) {
-            isBinding = true;
+        void bind(TodoItem todo) {
             this.item = todo;
+            bindText(todo);
+            bindChecked(todo);
 
-            if (!et.getText().toString().equals(todo.getText())) {
-                et.setText(todo.getText());
-                if (todo.getText() != null && todo.getText().length() > 0) {
-                    et.setSelection(todo.getText().length());
-                }
+            if (todo.getId().equals(focusItemId)) {
+                focusItemId = null;
+                et.requestFocus();
             }
+        }
 
-            // FIX: Prevent triggering listener during bind
-            cb.setChecked(todo.isCompleted());
-
-            et.post(() -> updateStrikethrough(todo.isCompleted(), false));
-
-            et.setEnabled(true);
-            et.setFocusableInTouchMode(true);
-            et.setCursorVisible(true);
+        void bindText(TodoItem todo) {
+            isBinding = true;
+            String text = todo.getText() != null ? todo.getText() : "";
+            if (!et.getText().toString().equals(text)) {
+                et.setText(text);
+                et.setSelection(text.length());
+            }
+            isBinding = false;
+        }
 
+        void bindChecked(TodoItem todo) {
+            // Prevent triggering the listener during bind
+            isBinding = true;
+            cb.setChecked(todo.isCompleted());
+            updateStrikethrough(todo.isCompleted(), false);
             isBinding = false;
         }
 
@@ -210,7 +317,7 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
         }
 
         private void animateDelete() {
-            int currentPosition = getAdapterPosition();
+            TodoItem deleted = item;
 
             AnimatorSet deleteAnim = new AnimatorSet();
 
@@ -230,9 +337,9 @@ public class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoViewHolder
                     itemView.setScaleX(1f);
                     itemView.setScaleY(1f);
 
-                    if (listener != null && item != null) {
-                        listener.onDelete(item);
-                        removeItemAt(currentPosition);
+                    if (listener != null && deleted != null) {
+                        listener.onDelete(deleted);
+                        removeItem(deleted);
                     }
                 }
             });
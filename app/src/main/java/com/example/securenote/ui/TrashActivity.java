@@ -1,22 +1,29 @@
 package com.example.securenote.ui;
 
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
+import com.example.securenote.R;
 import com.example.securenote.databinding.ActivityTrashBinding;
 import com.example.securenote.model.Note;
 import com.example.securenote.viewmodel.NoteViewModel;
 
+import java.util.List;
+
 public class TrashActivity extends AppCompatActivity {
 
     private ActivityTrashBinding binding;
     private NoteViewModel noteViewModel;
     private NoteAdapter trashAdapter;
+    private ActionMode selectionMode;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -26,6 +33,9 @@ public class TrashActivity extends AppCompatActivity {
 
         noteViewModel = new ViewModelProvider(this).get(NoteViewModel.class);
 
+        showRetention();
+        binding.tvTrashRetention.setOnClickListener(v -> chooseRetention());
+
         trashAdapter = new NoteAdapter();
         binding.rvTrash.setLayoutManager(new LinearLayoutManager(this));
         binding.rvTrash.setAdapter(trashAdapter);
@@ -44,6 +54,10 @@ public class TrashActivity extends AppCompatActivity {
         trashAdapter.setOnNoteClickListener(new NoteAdapter.OnNoteClickListener() {
             @Override
             public void onNoteClick(Note note) {
+                if (trashAdapter.isSelectionMode()) {
+                    toggleSelection(note);
+                    return;
+                }
                 new AlertDialog.Builder(TrashActivity.this)
                         .setTitle("Restore Note")
                         .setMessage("Restore this note?")
@@ -54,18 +68,102 @@ public class TrashActivity extends AppCompatActivity {
 
             @Override
             public void onNoteLongClick(Note note) {
-                new AlertDialog.Builder(TrashActivity.this)
-                        .setTitle("Delete Permanently")
-                        .setMessage("Delete this note permanently? This cannot be undone.")
-                        .setPositiveButton("Delete", (d, w) -> {
-                            // 🔍 Debug: check the ID before deleting
-                            android.util.Log.d("TrashCheck", "Delete ID = " + note.getId());
-
-                            noteViewModel.deleteFromTrash(note);
-                        })
-                        .setNegativeButton("Cancel", null)
-                        .show();
+                // Long-press starts multi-select; restore and delete act on the selection
+                if (selectionMode == null) {
+                    selectionMode = startSupportActionMode(selectionCallback);
+                }
+                toggleSelection(note);
             }
         });
     }
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_trash_selection, menu);
+            trashAdapter.setSelectionMode(true);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            List<String> ids = trashAdapter.getSelectedIds();
+            int id = item.getItemId();
+
+            if (id == R.id.action_selection_select_all) {
+                trashAdapter.selectAll();
+                mode.setTitle(trashAdapter.getSelectedCount() + " selected");
+            } else if (id == R.id.action_selection_restore) {
+                if (!ids.isEmpty()) noteViewModel.restoreNotesFromTrash(ids);
+                mode.finish();
+            } else if (id == R.id.action_selection_delete) {
+                if (!ids.isEmpty()) confirmDelete(ids);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            trashAdapter.setSelectionMode(false);
+            selectionMode = null;
+        }
+    };
+
+    private void toggleSelection(Note note) {
+        trashAdapter.toggleSelection(note);
+        if (selectionMode == null) return;
+        int count = trashAdapter.getSelectedCount();
+        if (count == 0) {
+            selectionMode.finish();
+        } else {
+            selectionMode.setTitle(count + " selected");
+        }
+    }
+
+    private void confirmDelete(List<String> ids) {
+        String what = ids.size() == 1 ? "this note" : "these " + ids.size() + " notes";
+        new AlertDialog.Builder(this)
+                .setTitle("Delete Permanently")
+                .setMessage("Delete " + what + " permanently? This cannot be undone.")
+                .setPositiveButton("Delete", (d, w) -> {
+                    noteViewModel.deleteNotesFromTrash(ids);
+                    if (selectionMode != null) selectionMode.finish();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private void showRetention() {
+        int days = noteViewModel.getTrashRetentionDays();
+        binding.tvTrashRetention.setText(days > 0
+                ? "Notes are deleted " + days + " days after being trashed · Change"
+                : "Notes stay in trash until deleted · Change");
+    }
+
+    private void chooseRetention() {
+        final int[] days = {7, 30, 90, 0};
+        String[] labels = {"7 days", "30 days", "90 days", "Never"};
+        int current = noteViewModel.getTrashRetentionDays();
+        int checked = 1;
+        for (int i = 0; i < days.length; i++) {
+            if (days[i] == current) checked = i;
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle("Delete trashed notes after")
+                .setSingleChoiceItems(labels, checked, (d, which) -> {
+                    noteViewModel.setTrashRetentionDays(days[which]);
+                    showRetention();
+                    d.dismiss();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 }
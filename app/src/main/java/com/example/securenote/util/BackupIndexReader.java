@@ -0,0 +1,246 @@
+package com.example.securenote.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Random-access reader for v2 backups: reads the trailer at the end of the file, then the
+ * INDEX segment it points to, and from there only the segments a restore actually needs.
+ *
+ * Each segment is still authenticated with its own position as AAD, so a segment read
+ * from the wrong place (or a tampered index) fails decryption instead of restoring junk.
+ */
+public class BackupIndexReader implements Closeable {
+
+    /**
+     * One note listed in the backup index. Current backups list the plaintext title;
+     * older ones only the Keystore-encrypted title (encryptedTitle, title null).
+     */
+    public static class Entry {
+        public final String noteId;
+        public final String title;
+        public final String encryptedTitle;
+        public final long timestamp;
+        public final boolean inTrash;
+        final long segment;
+
+        Entry(String noteId, String title, String encryptedTitle, long timestamp, boolean inTrash,
+              long segment) {
+            this.noteId = noteId;
+            this.title = title;
+            this.encryptedTitle = encryptedTitle;
+            this.timestamp = timestamp;
+            this.inTrash = inTrash;
+            this.segment = segment;
+        }
+    }
+
+    private final FileChannel channel;
+    private final SecretKey key;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Long, Long> offsets = new HashMap<>();
+    private final Map<String, List<Long>> todoSegments = new HashMap<>();
+    private final Map<String, List<Long>> attachmentSegments = new HashMap<>();
+
+    public BackupIndexReader(FileChannel channel, String backupPassword) throws IOException {
+        this.channel = channel;
+
+        ByteBuffer head = readAt(0, BackupUtils.MAGIC.length + 1 + BackupUtils.SALT_LENGTH_BYTES);
+        byte[] magic = new byte[BackupUtils.MAGIC.length];
+        head.get(magic);
+        if (!BackupUtils.isSegmentedBackup(magic, magic.length)) {
+            throw new IOException("Not a SecureNote backup file");
+        }
+        int version = head.get() & 0xFF;
+        if (version != BackupUtils.FORMAT_VERSION) {
+            throw new IOException("Unsupported backup version: " + version);
+        }
+        byte[] salt = new byte[BackupUtils.SALT_LENGTH_BYTES];
+        head.get(salt);
+
+        try {
+            this.key = BackupUtils.deriveKeyFromPassword(backupPassword, salt);
+        } catch (Exception e) {
+            throw new IOException("Failed to derive backup key", e);
+        }
+
+        readIndex();
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    // ---------- Segment access ----------
+
+    /** Decrypts the note segment holding this entry and returns the entry's record. */
+    public JSONObject readNote(Entry entry) throws IOException {
+        JSONArray notes = jsonArray(readSegment(entry.segment, BackupUtils.TYPE_NOTES));
+        for (int i = 0; i < notes.length(); i++) {
+            JSONObject note = notes.optJSONObject(i);
+            if (note != null && entry.noteId.equals(note.optString("id"))) return note;
+        }
+        throw new IOException("Note " + entry.noteId + " missing from its backup segment");
+    }
+
+    /** Returns the todo records belonging to a note. */
+    public List<JSONObject> readTodos(String noteId) throws IOException {
+        List<JSONObject> result = new ArrayList<>();
+        List<Long> segments = todoSegments.get(noteId);
+        if (segments == null) return result;
+
+        for (long segment : segments) {
+            JSONArray todos = jsonArray(readSegment(segment, BackupUtils.TYPE_TODOS));
+            for (int i = 0; i < todos.length(); i++) {
+                JSONObject todo = todos.optJSONObject(i);
+                if (todo != null && noteId.equals(todo.optString("noteId"))) result.add(todo);
+            }
+        }
+        return result;
+    }
+
+    /** Segment numbers of the attachment metadata segments belonging to a note. */
+    public List<Long> getAttachmentSegments(String noteId) {
+        List<Long> segments = attachmentSegments.get(noteId);
+        return segments != null ? segments : Collections.emptyList();
+    }
+
+    /**
+     * Decrypts the segment with the given number. Blob chunks have no index entry of
+     * their own; they directly follow their attachment segment, so pass the offset
+     * returned by {@link #nextOffset(BackupReader.Segment)} instead.
+     */
+    public BackupReader.Segment readSegment(long segment) throws IOException {
+        Long offset = offsets.get(segment);
+        if (offset == null) throw new IOException("Segment " + segment + " not in backup index");
+        return readSegmentAt(offset, segment);
+    }
+
+    public BackupReader.Segment readSegmentAt(long offset, long segment) throws IOException {
+        int length = readAt(offset, 4).getInt();
+        if (length <= BackupUtils.IV_LENGTH_BYTES || length > BackupUtils.MAX_SEGMENT_BYTES) {
+            throw new IOException("Corrupted segment length at offset " + offset);
+        }
+        ByteBuffer raw = readAt(offset + 4, length);
+        return BackupReader.decryptSegment(key, raw.array(), length, segment, offset);
+    }
+
+    /** File offset just past the given segment. */
+    public long nextOffset(BackupReader.Segment segment) throws IOException {
+        return segment.offset + 4 + readAt(segment.offset, 4).getInt();
+    }
+
+    private BackupReader.Segment readSegment(long segment, byte expectedType) throws IOException {
+        BackupReader.Segment s = readSegment(segment);
+        if (s.type != expectedType) {
+            throw new IOException("Unexpected segment type at offset " + s.offset);
+        }
+        return s;
+    }
+
+    // ---------- Index ----------
+
+    private void readIndex() throws IOException {
+        long size = channel.size();
+        if (size < BackupUtils.TRAILER_BYTES) {
+            throw new IOException("Backup has no index");
+        }
+        ByteBuffer trailer = readAt(size - BackupUtils.TRAILER_BYTES, BackupUtils.TRAILER_BYTES);
+        long indexOffset = trailer.getLong();
+        long indexSegment = trailer.getLong();
+        byte[] magic = new byte[BackupUtils.INDEX_MAGIC.length];
+        trailer.get(magic);
+        if (!java.util.Arrays.equals(magic, BackupUtils.INDEX_MAGIC) || indexOffset < 0) {
+            // Written before indexed backups existed; a full import still works
+            throw new IOException("Backup has no index");
+        }
+
+        BackupReader.Segment segment = readSegmentAt(indexOffset, indexSegment);
+        if (segment.type != BackupUtils.TYPE_INDEX) {
+            throw new IOException("Corrupted backup index");
+        }
+
+        try {
+            JSONObject index = new JSONObject(new String(segment.body, StandardCharsets.UTF_8));
+
+            JSONObject offsetsJson = index.getJSONObject("offsets");
+            Iterator<String> keys = offsetsJson.keys();
+            while (keys.hasNext()) {
+                String k = keys.next();
+                offsets.put(Long.parseLong(k), offsetsJson.getLong(k));
+            }
+
+            readSegmentLists(index.optJSONObject("todos"), todoSegments);
+            readSegmentLists(index.optJSONObject("attachments"), attachmentSegments);
+
+            JSONArray notes = index.getJSONArray("notes");
+            for (int i = 0; i < notes.length(); i++) {
+                JSONObject n = notes.getJSONObject(i);
+                entries.add(new Entry(
+                        n.getString("id"),
+                        n.has("plainTitle") ? n.optString("plainTitle", "") : null,
+                        n.isNull("title") ? null : n.optString("title", null),
+                        n.optLong("timestamp", 0),
+                        n.optBoolean("inTrash", false),
+                        n.getLong("seg")));
+            }
+        } catch (JSONException | NumberFormatException e) {
+            throw new IOException("Corrupted backup index", e);
+        }
+    }
+
+    private static void readSegmentLists(JSONObject json, Map<String, List<Long>> into)
+            throws JSONException {
+        if (json == null) return;
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String noteId = keys.next();
+            JSONArray array = json.getJSONArray(noteId);
+            List<Long> segments = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                segments.add(array.getLong(i));
+            }
+            into.put(noteId, segments);
+        }
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) throw new EOFException("Backup is truncated at offset " + position);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static JSONArray jsonArray(BackupReader.Segment segment) throws IOException {
+        try {
+            return new JSONArray(new String(segment.body, StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new IOException("Corrupted segment at offset " + segment.offset, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
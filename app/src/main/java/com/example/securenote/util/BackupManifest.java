@@ -0,0 +1,169 @@
+package com.example.securenote.util;
+
+import android.util.Base64;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+
+/**
+ * State of the last backup in an incremental chain: its id and, per record, a content hash
+ * and the time the record's current version was first backed up.
+ *
+ * Some hashed records hold plaintext (todo text, attachment names), so hashes are keyed
+ * MACs (EncryptionUtil.newContentMac()): without the device's Keystore key they cannot be
+ * checked against guessed contents. It lives in the app's private files dir.
+ */
+public class BackupManifest {
+
+    public static final String SECTION_NOTES = "notes";
+    public static final String SECTION_TODOS = "todos";
+    public static final String SECTION_ATTACHMENTS = "attachments";
+
+    private static final String[] SECTIONS = {SECTION_NOTES, SECTION_TODOS, SECTION_ATTACHMENTS};
+
+    private final String backupId;
+    private final long createdAt;
+    private final Map<String, Map<String, String>> sections = new HashMap<>();
+    private final Map<String, Map<String, Long>> backedUpAt = new HashMap<>();
+
+    public BackupManifest(String backupId) {
+        this(backupId, System.currentTimeMillis());
+    }
+
+    private BackupManifest(String backupId, long createdAt) {
+        this.backupId = backupId;
+        this.createdAt = createdAt;
+        for (String section : SECTIONS) {
+            sections.put(section, new HashMap<>());
+            backedUpAt.put(section, new HashMap<>());
+        }
+    }
+
+    public String getBackupId() { return backupId; }
+
+    public long getCreatedAt() { return createdAt; }
+
+    public void put(String section, String id, String hash, long backedUpAt) {
+        sections.get(section).put(id, hash);
+        this.backedUpAt.get(section).put(id, backedUpAt);
+    }
+
+    /**
+     * Records a record of the backup being written. Returns true if it changed since base
+     * (or there is no base), i.e. it goes into this backup; an unchanged record keeps the
+     * time it was backed up at in base.
+     */
+    public boolean track(BackupManifest base, String section, String id, String hash) {
+        boolean changed = base == null || !hash.equals(base.get(section, id));
+        put(section, id, hash, changed ? createdAt : base.getBackedUpAt(section, id));
+        return changed;
+    }
+
+    public void remove(String section, String id) {
+        sections.get(section).remove(id);
+        backedUpAt.get(section).remove(id);
+    }
+
+    public String get(String section, String id) {
+        return sections.get(section).get(id);
+    }
+
+    /** When the record's current version was first backed up; 0 if unknown. */
+    public long getBackedUpAt(String section, String id) {
+        Long at = backedUpAt.get(section).get(id);
+        return at != null ? at : 0;
+    }
+
+    public Set<String> ids(String section) {
+        return sections.get(section).keySet();
+    }
+
+    /** Short, stable keyed hash of an exported record; mac from EncryptionUtil.newContentMac(). */
+    public static String hash(Mac mac, JSONObject record) {
+        byte[] digest = mac.doFinal(record.toString().getBytes(StandardCharsets.UTF_8));
+        return Base64.encodeToString(digest, 0, 16, Base64.NO_WRAP);
+    }
+
+    // ---------- Persistence ----------
+
+    /** Returns null if there is no manifest yet (no backup taken) or it is unreadable. */
+    public static BackupManifest load(File file) {
+        if (file == null || !file.exists()) return null;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+
+            JSONObject root = new JSONObject(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+            BackupManifest manifest = new BackupManifest(
+                    root.getString("backupId"), root.optLong("createdAt", 0));
+
+            for (String section : SECTIONS) {
+                JSONObject entries = root.optJSONObject(section);
+                if (entries == null) continue;
+                Iterator<String> keys = entries.keys();
+                while (keys.hasNext()) {
+                    String id = keys.next();
+                    JSONObject entry = entries.optJSONObject(id);
+                    if (entry != null) {
+                        manifest.put(section, id, entry.getString("hash"), entry.optLong("at", 0));
+                    } else {
+                        // Older manifests: unkeyed hash only, which never matches again
+                        manifest.put(section, id, entries.getString(id), 0);
+                    }
+                }
+            }
+            return manifest;
+
+        } catch (Exception e) {
+            // A broken manifest only means the next backup has to be a full one
+            return null;
+        }
+    }
+
+    public void save(File file) throws IOException {
+        try {
+            JSONObject root = new JSONObject();
+            root.put("backupId", backupId);
+            root.put("createdAt", createdAt);
+            for (String section : SECTIONS) {
+                JSONObject entries = new JSONObject();
+                for (Map.Entry<String, String> e : sections.get(section).entrySet()) {
+                    JSONObject entry = new JSONObject();
+                    entry.put("hash", e.getValue());
+                    entry.put("at", getBackedUpAt(section, e.getKey()));
+                    entries.put(e.getKey(), entry);
+                }
+                root.put(section, entries);
+            }
+
+            // Write to a temp file first so a crash never leaves a half-written manifest
+            File tmp = new File(file.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(root.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot replace backup manifest");
+            }
+        } catch (org.json.JSONException e) {
+            throw new IOException("Failed to write backup manifest", e);
+        }
+    }
+}
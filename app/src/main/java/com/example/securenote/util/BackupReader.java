@@ -0,0 +1,133 @@
+package com.example.securenote.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Streaming reader for backups written by BackupWriter.
+ * Call next() until it returns null; the TYPE_END segment is returned as the last one.
+ */
+public class BackupReader implements Closeable {
+
+    public static class Segment {
+        public final byte type;
+        public final byte flags;
+        public final int count;
+        public final byte[] body;
+        public final long offset;   // byte offset of the segment's length prefix in the file
+        public final long index;
+
+        Segment(byte type, byte flags, int count, byte[] body, long offset, long index) {
+            this.type = type;
+            this.flags = flags;
+            this.count = count;
+            this.body = body;
+            this.offset = offset;
+            this.index = index;
+        }
+    }
+
+    private final DataInputStream in;
+    private final SecretKey key;
+
+    private long position;
+    private long segmentIndex = 0;
+    private boolean ended = false;
+
+    public BackupReader(InputStream rawIn, String backupPassword) throws IOException {
+        this.in = new DataInputStream(rawIn);
+
+        byte[] magic = new byte[BackupUtils.MAGIC.length];
+        in.readFully(magic);
+        if (!BackupUtils.isSegmentedBackup(magic, magic.length)) {
+            throw new IOException("Not a SecureNote backup file");
+        }
+        int version = in.readUnsignedByte();
+        if (version != BackupUtils.FORMAT_VERSION) {
+            throw new IOException("Unsupported backup version: " + version);
+        }
+        byte[] salt = new byte[BackupUtils.SALT_LENGTH_BYTES];
+        in.readFully(salt);
+        position = magic.length + 1 + salt.length;
+
+        try {
+            this.key = BackupUtils.deriveKeyFromPassword(backupPassword, salt);
+        } catch (Exception e) {
+            throw new IOException("Failed to derive backup key", e);
+        }
+    }
+
+    /** Returns the next decrypted segment, or null once the END segment has been consumed. */
+    public Segment next() throws IOException {
+        if (ended) return null;
+
+        long offset = position;
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Backup is truncated at offset " + offset);
+        }
+        if (length <= BackupUtils.IV_LENGTH_BYTES || length > BackupUtils.MAX_SEGMENT_BYTES) {
+            throw new IOException("Corrupted segment length at offset " + offset);
+        }
+
+        byte[] raw = new byte[length];
+        try {
+            in.readFully(raw);
+        } catch (EOFException e) {
+            throw new IOException("Backup is truncated at offset " + offset);
+        }
+        position += 4 + length;
+
+        Segment segment = decryptSegment(key, raw, length, segmentIndex++, offset);
+        if (segment.type == BackupUtils.TYPE_END) ended = true;
+        return segment;
+    }
+
+    /** Decrypts one framed segment (iv | ciphertext, without the length prefix). */
+    static Segment decryptSegment(SecretKey key, byte[] raw, int length, long index, long offset)
+            throws IOException {
+        byte[] plain;
+        try {
+            Cipher cipher = Cipher.getInstance(BackupUtils.AES_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(
+                    BackupUtils.GCM_TAG_LENGTH_BITS, raw, 0, BackupUtils.IV_LENGTH_BYTES));
+            cipher.updateAAD(BackupWriter.segmentAad(index));
+            plain = cipher.doFinal(raw, BackupUtils.IV_LENGTH_BYTES, length - BackupUtils.IV_LENGTH_BYTES);
+        } catch (Exception e) {
+            throw new IOException("Wrong password or corrupted backup at offset " + offset, e);
+        }
+        if (plain.length < BackupWriter.SEGMENT_HEADER_BYTES) {
+            throw new IOException("Corrupted segment at offset " + offset);
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(plain, 0, BackupWriter.SEGMENT_HEADER_BYTES);
+        byte type = header.get();
+        byte flags = header.get();
+        int count = header.getInt();
+        byte[] body;
+        if ((flags & BackupUtils.FLAG_DEFLATE) != 0) {
+            body = CompressionCodec.decompress(plain, BackupWriter.SEGMENT_HEADER_BYTES,
+                    plain.length - BackupWriter.SEGMENT_HEADER_BYTES, BackupUtils.MAX_SEGMENT_BYTES);
+        } else {
+            body = new byte[plain.length - BackupWriter.SEGMENT_HEADER_BYTES];
+            System.arraycopy(plain, BackupWriter.SEGMENT_HEADER_BYTES, body, 0, body.length);
+        }
+
+        return new Segment(type, flags, count, body, offset, index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
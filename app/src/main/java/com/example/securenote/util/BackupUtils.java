@@ -2,9 +2,12 @@ package com.example.securenote.util;
 
 import android.util.Base64;
 
+import com.example.securenote.model.Attachment;
 import com.example.securenote.model.Note;
+import com.example.securenote.model.TodoItem;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.nio.charset.StandardCharsets;
@@ -24,17 +27,45 @@ public class BackupUtils {
 
     // ---------- PBKDF2 + AES-GCM parameters for BACKUP (separate from CryptoManager) ----------
 
-    private static final int SALT_LENGTH_BYTES = 16;          // 128-bit salt
-    private static final int IV_LENGTH_BYTES = 12;            // GCM recommended IV size
+    static final int SALT_LENGTH_BYTES = 16;                  // 128-bit salt
+    static final int IV_LENGTH_BYTES = 12;                    // GCM recommended IV size
     private static final int KEY_LENGTH_BITS = 256;           // AES-256
     private static final int PBKDF2_ITERATIONS = 20_000;      // For backup; enough but not crazy
-    private static final int GCM_TAG_LENGTH_BITS = 128;
+    static final int GCM_TAG_LENGTH_BITS = 128;
 
     private static final String PBKDF_ALGO = "PBKDF2WithHmacSHA256";
-    private static final String AES_TRANSFORMATION = "AES/GCM/NoPadding";
+    static final String AES_TRANSFORMATION = "AES/GCM/NoPadding";
 
     private static final SecureRandom secureRandom = new SecureRandom();
 
+    // ---------- Segmented backup format (v2), see BackupWriter / BackupReader ----------
+
+    /** First bytes of every v2 backup file. v1 backups are Base64 text and never start with these. */
+    public static final byte[] MAGIC = {'S', 'N', 'B', 'K'};
+    public static final int FORMAT_VERSION = 2;
+
+    /** Last 4 bytes of a v2 backup; preceded by the index segment's offset and number. */
+    public static final byte[] INDEX_MAGIC = {'S', 'N', 'B', 'I'};
+    static final int TRAILER_BYTES = 8 + 8 + 4;
+
+    // Segment types (first byte of every decrypted segment)
+    public static final byte TYPE_HEADER = 1;
+    public static final byte TYPE_NOTES = 2;
+    public static final byte TYPE_TODOS = 3;
+    public static final byte TYPE_ATTACHMENT = 4;    // attachment row, followed by its blob chunks
+    public static final byte TYPE_BLOB_CHUNK = 5;    // raw bytes of the encrypted .bin file
+    public static final byte TYPE_DELETES = 6;       // incremental backups: ids removed since the base
+    public static final byte TYPE_INDEX = 7;         // note id -> segment offsets, just before END
+    public static final byte TYPE_END = 127;         // always last; body holds the record counts
+
+    // Segment flags
+    public static final byte FLAG_DEFLATE = 0x01;    // body compressed with CompressionCodec
+
+    static final int RECORDS_PER_SEGMENT = 200;
+    static final int SEGMENT_BUDGET_BYTES = 1024 * 1024;     // record JSON per segment, when writing
+    static final int BLOB_CHUNK_BYTES = 64 * 1024;
+    static final int MAX_SEGMENT_BYTES = 8 * 1024 * 1024;    // sanity bound when reading
+
     // ---------- STEP 1: list<Note> → JSON (NOT decrypted) ----------
 
     public static String notesToJson(List<Note> notes) {
@@ -42,25 +73,7 @@ public class BackupUtils {
             JSONObject root = new JSONObject();
             root.put("version", 1);
             root.put("exported_at", System.currentTimeMillis());
-
-            JSONArray array = new JSONArray();
-
-            if (notes != null) {
-                for (Note n : notes) {
-                    JSONObject obj = new JSONObject();
-                    obj.put("id", n.getId());
-                    obj.put("timestamp", n.getTimestamp());
-                    obj.put("pinned", n.isPinned());
-                    obj.put("locked", n.isLocked());
-                    obj.put("lockPassword", n.getLockPassword());
-                    obj.put("encryptedTitle", n.getEncryptedTitle());
-                    obj.put("encryptedContent", n.getEncryptedContent());
-                    obj.put("inTrash", n.isInTrash());
-                    array.put(obj);
-                }
-            }
-
-            root.put("notes", array);
+            root.put("notes", notesToJsonArray(notes));
             return root.toString();
 
         } catch (Exception e) {
@@ -68,6 +81,117 @@ public class BackupUtils {
         }
     }
 
+    public static JSONArray notesToJsonArray(List<Note> notes) throws JSONException {
+        JSONArray array = new JSONArray();
+        if (notes != null) {
+            for (Note n : notes) {
+                array.put(noteToJson(n));
+            }
+        }
+        return array;
+    }
+
+    public static JSONObject noteToJson(Note n) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("id", n.getId());
+        obj.put("timestamp", n.getTimestamp());
+        obj.put("pinned", n.isPinned());
+        obj.put("locked", n.isLocked());
+        obj.put("lockPassword", n.getLockPassword());
+        obj.put("encryptedTitle", n.getEncryptedTitle());
+        obj.put("encryptedContent", n.getEncryptedContent());
+        obj.put("inTrash", n.isInTrash());
+        obj.put("trashedAt", n.getTrashedAt());
+        obj.put("category", n.getCategory());
+        return obj;
+    }
+
+    /**
+     * Note record of a v2 backup. Title and body are in plaintext (n's title and content,
+     * the full body for block-stored notes): the segment holding the record is sealed with
+     * the backup key, and Keystore ciphertext could only be read on this install.
+     */
+    public static JSONObject noteToPortableJson(Note n) throws JSONException {
+        JSONObject obj = noteToJson(n);
+        obj.remove("encryptedTitle");
+        obj.remove("encryptedContent");
+        obj.put("title", n.getTitle() != null ? n.getTitle() : "");
+        obj.put("content", n.getContent() != null ? n.getContent() : "");
+        return obj;
+    }
+
+    /**
+     * Note in the drawer's plain JSON export: readable text without any encryption, and only
+     * the fields that format has always carried (no trash, todo items or attachments).
+     */
+    public static JSONObject noteToPlainExportJson(Note n) throws JSONException {
+        JSONObject obj = new JSONObject();
+        if (n.getId() != null) obj.put("id", n.getId());
+        if (n.getTitle() != null) obj.put("title", n.getTitle());
+        if (n.getContent() != null) obj.put("content", n.getContent());
+        if (n.getCategory() != null) obj.put("category", n.getCategory());
+        obj.put("pinned", n.isPinned());
+        obj.put("locked", n.isLocked());
+        if (n.getLockPassword() != null) obj.put("lockPassword", n.getLockPassword());
+        obj.put("lastModified", n.getLastModified());
+        return obj;
+    }
+
+    /** Reads a plain JSON export entry (see noteToPlainExportJson()) as a new note without id. */
+    public static Note plainExportJsonToNote(JSONObject obj) {
+        Note n = new Note();
+        n.setTitle(obj.optString("title", "Untitled"));
+        n.setContent(obj.optString("content", ""));
+        n.setCategory(obj.optString("category", "Personal"));
+        n.setPinned(obj.optBoolean("pinned", false));
+        n.setLocked(obj.optBoolean("locked", false));
+        if (n.isLocked() && obj.has("lockPassword")) {
+            n.setLockPassword(obj.optString("lockPassword", null));
+        }
+        return n;
+    }
+
+    public static JSONArray todosToJsonArray(List<TodoItem> todos) throws JSONException {
+        JSONArray array = new JSONArray();
+        if (todos != null) {
+            for (TodoItem t : todos) {
+                array.put(todoToJson(t));
+            }
+        }
+        return array;
+    }
+
+    public static JSONObject todoToJson(TodoItem t) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("id", t.getId());
+        obj.put("noteId", t.getNoteId());
+        obj.put("text", t.getText());
+        obj.put("completed", t.isCompleted());
+        obj.put("position", t.getPosition());
+        obj.put("rank", t.getRank());
+        obj.put("createdAt", t.getCreatedAt());
+        return obj;
+    }
+
+    /**
+     * Attachment metadata only. The data itself is streamed separately, in plaintext
+     * (plainLength bytes), and its absolute path is not exported, because it is only
+     * valid on this install.
+     */
+    public static JSONObject attachmentToJson(Attachment a, long plainLength) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("id", a.getId());
+        obj.put("noteId", a.getNoteId());
+        obj.put("displayName", a.getDisplayName());
+        obj.put("mimeType", a.getMimeType());
+        obj.put("sizeBytes", a.getSizeBytes());
+        obj.put("createdAt", a.getCreatedAt());
+        if (a.getBlobId() != null) obj.put("blobId", a.getBlobId());
+        if (a.getOriginalSizeBytes() > 0) obj.put("originalSizeBytes", a.getOriginalSizeBytes());
+        obj.put("plainLength", plainLength);
+        return obj;
+    }
+
     // ---------- STEP 2: Encrypt JSON with backup password ----------
 
     /**
@@ -140,47 +264,118 @@ public class BackupUtils {
 
     public static List<Note> jsonToNotes(String jsonString) {
         try {
-            List<Note> notes = new ArrayList<>();
             JSONObject root = new JSONObject(jsonString);
 
             JSONArray array = root.optJSONArray("notes");
-            if (array == null) return notes;
-
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject obj = array.getJSONObject(i);
-
-                Note n = new Note();
-                n.setId(obj.getString("id"));
-                n.setTimestamp(obj.getLong("timestamp"));
-                n.setPinned(obj.getBoolean("pinned"));
-                n.setLocked(obj.getBoolean("locked"));
-                // this is the NOTE lock password hash (per-note), not master PIN:
-                if (!obj.isNull("lockPassword")) {
-                    n.setLockPassword(obj.getString("lockPassword"));
-                }
-                n.setEncryptedTitle(obj.optString("encryptedTitle", null));
-                n.setEncryptedContent(obj.optString("encryptedContent", null));
-                n.setInTrash(obj.getBoolean("inTrash"));
-
-                notes.add(n);
-            }
+            if (array == null) return new ArrayList<>();
 
-            return notes;
+            return jsonArrayToNotes(array);
 
         } catch (Exception e) {
             throw new RuntimeException("Failed to parse JSON backup", e);
         }
     }
 
+    public static List<Note> jsonArrayToNotes(JSONArray array) throws JSONException {
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            notes.add(jsonToNote(array.getJSONObject(i)));
+        }
+        return notes;
+    }
+
+    public static Note jsonToNote(JSONObject obj) throws JSONException {
+        Note n = new Note();
+        n.setId(obj.getString("id"));
+        n.setTimestamp(obj.getLong("timestamp"));
+        n.setPinned(obj.getBoolean("pinned"));
+        n.setLocked(obj.getBoolean("locked"));
+        // this is the NOTE lock password hash (per-note), not master PIN:
+        if (!obj.isNull("lockPassword")) {
+            n.setLockPassword(obj.getString("lockPassword"));
+        }
+        if (obj.has("title") || obj.has("content")) {
+            // Portable record (see noteToPortableJson); the caller encrypts it for this install
+            n.setTitle(obj.optString("title", ""));
+            n.setContent(obj.optString("content", ""));
+        } else {
+            // Older backups: Keystore ciphertext of the device that made them
+            n.setEncryptedTitle(obj.optString("encryptedTitle", null));
+            n.setEncryptedContent(obj.optString("encryptedContent", null));
+        }
+        n.setInTrash(obj.getBoolean("inTrash"));
+        // Older backups lack it; the trash purge then starts the retention period afresh
+        n.setTrashedAt(obj.optLong("trashedAt", 0));
+        if (!obj.isNull("category")) {
+            n.setCategory(obj.optString("category", null));
+        }
+        return n;
+    }
+
+    public static List<TodoItem> jsonArrayToTodos(JSONArray array) throws JSONException {
+        List<TodoItem> todos = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject obj = array.getJSONObject(i);
+            TodoItem t = new TodoItem(
+                    obj.getString("id"),
+                    obj.optString("noteId", null),
+                    obj.optString("text", null),
+                    obj.getBoolean("completed"),
+                    obj.getInt("position"),
+                    obj.getLong("createdAt")
+            );
+            // Absent in older backups; such lists are ordered by position until reranked
+            t.setRank(obj.optString("rank", null));
+            todos.add(t);
+        }
+        return todos;
+    }
+
+    /** Caller is responsible for placing the data (blob or encryptedFilePath) on the new install. */
+    public static Attachment jsonToAttachment(JSONObject obj) throws JSONException {
+        Attachment a = new Attachment();
+        a.setId(obj.getString("id"));
+        a.setNoteId(obj.optString("noteId", null));
+        a.setDisplayName(obj.optString("displayName", null));
+        a.setMimeType(obj.isNull("mimeType") ? null : obj.optString("mimeType", null));
+        a.setSizeBytes(obj.optLong("sizeBytes", 0));
+        a.setCreatedAt(obj.optLong("createdAt", 0));
+        a.setOriginalSizeBytes(obj.optLong("originalSizeBytes", 0));
+        // Absent in backups made before attachments were deduplicated
+        a.setBlobId(obj.has("blobId") && !obj.isNull("blobId") ? obj.getString("blobId") : null);
+        return a;
+    }
+
+    /**
+     * Bytes of attachment data following an attachment record: plaintext in current
+     * backups, the Keystore-encrypted file as stored on the exporting device in older ones.
+     */
+    public static long attachmentDataLength(JSONObject obj) throws JSONException {
+        return obj.has("plainLength") ? obj.getLong("plainLength") : obj.getLong("encryptedLength");
+    }
+
+    public static boolean isPortableAttachment(JSONObject obj) {
+        return obj.has("plainLength");
+    }
+
+    /** True if the first bytes of a backup file match the v2 segmented format. */
+    public static boolean isSegmentedBackup(byte[] head, int length) {
+        if (head == null || length < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
     // ---------- Internal helpers ----------
 
-    private static byte[] generateRandomBytes(int length) {
+    static byte[] generateRandomBytes(int length) {
         byte[] bytes = new byte[length];
         secureRandom.nextBytes(bytes);
         return bytes;
     }
 
-    private static SecretKey deriveKeyFromPassword(String password, byte[] salt) throws Exception {
+    static SecretKey deriveKeyFromPassword(String password, byte[] salt) throws Exception {
         char[] chars = password.toCharArray();
         KeySpec spec = new PBEKeySpec(chars, salt, PBKDF2_ITERATIONS, KEY_LENGTH_BITS);
         SecretKeyFactory factory = SecretKeyFactory.getInstance(PBKDF_ALGO);
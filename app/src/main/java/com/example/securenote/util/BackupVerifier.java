@@ -0,0 +1,268 @@
+package com.example.securenote.util;
+
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Checks a backup without restoring it: every segment's GCM tag, the attachment blob
+ * lengths and the record counts in the END segment. Never touches Room.
+ *
+ * Segments are decrypted into one reused buffer and only the small header, attachment
+ * and END records are parsed, so verification runs at roughly disk-read speed.
+ */
+public class BackupVerifier {
+
+    private static final int READ_BUFFER_BYTES = 256 * 1024;
+
+    public static class Report {
+        public boolean ok;
+        public String problem;                  // first fatal problem, null if none
+        public final List<Long> corruptOffsets = new ArrayList<>();
+        public boolean incremental;
+        public long segments;
+        public int notes;
+        public int todos;
+        public int attachments;
+        public long blobBytes;
+        public long bytesRead;
+        public long elapsedMillis;
+
+        public String toDisplayString() {
+            StringBuilder sb = new StringBuilder();
+            if (ok) {
+                sb.append("Backup OK: ");
+            } else {
+                sb.append("Backup damaged: ");
+                if (problem != null) sb.append(problem).append(". ");
+                if (!corruptOffsets.isEmpty()) {
+                    sb.append(corruptOffsets.size()).append(" bad segment(s) at offset ");
+                    for (int i = 0; i < corruptOffsets.size() && i < 5; i++) {
+                        if (i > 0) sb.append(", ");
+                        sb.append(corruptOffsets.get(i));
+                    }
+                    if (corruptOffsets.size() > 5) sb.append(", ...");
+                    sb.append(". ");
+                }
+            }
+            sb.append(notes).append(" notes, ")
+                    .append(todos).append(" todos, ")
+                    .append(attachments).append(" attachments");
+            if (incremental) sb.append(" (incremental)");
+            sb.append(String.format(Locale.US, " - %.1f MB checked in %.1f s",
+                    bytesRead / (1024.0 * 1024.0), elapsedMillis / 1000.0));
+            return sb.toString();
+        }
+    }
+
+    public static Report verify(InputStream rawIn, String backupPassword) {
+        long start = System.nanoTime();
+        Report report = new Report();
+        try {
+            BufferedInputStream bis = new BufferedInputStream(rawIn, READ_BUFFER_BYTES);
+            byte[] head = new byte[BackupUtils.MAGIC.length];
+            bis.mark(head.length);
+            int headLength = bis.read(head);
+            bis.reset();
+
+            if (BackupUtils.isSegmentedBackup(head, headLength)) {
+                verifySegmented(new DataInputStream(bis), backupPassword, report);
+            } else {
+                verifyLegacy(bis, backupPassword, report);
+            }
+        } catch (IOException e) {
+            report.ok = false;
+            report.problem = e.getMessage();
+        }
+        report.elapsedMillis = (System.nanoTime() - start) / 1_000_000L;
+        return report;
+    }
+
+    private static void verifySegmented(DataInputStream in, String backupPassword, Report report)
+            throws IOException {
+        byte[] magic = new byte[BackupUtils.MAGIC.length];
+        in.readFully(magic);
+        int version = in.readUnsignedByte();
+        if (version != BackupUtils.FORMAT_VERSION) {
+            report.problem = "Unsupported backup version " + version;
+            return;
+        }
+        byte[] salt = new byte[BackupUtils.SALT_LENGTH_BYTES];
+        in.readFully(salt);
+        long position = magic.length + 1 + salt.length;
+
+        SecretKey key;
+        Cipher cipher;
+        try {
+            key = BackupUtils.deriveKeyFromPassword(backupPassword, salt);
+            cipher = Cipher.getInstance(BackupUtils.AES_TRANSFORMATION);
+        } catch (Exception e) {
+            throw new IOException("Failed to derive backup key", e);
+        }
+
+        byte[] raw = new byte[BackupUtils.BLOB_CHUNK_BYTES + 1024];
+        byte[] plain = new byte[raw.length];
+        long index = 0;
+        long blobRemaining = 0;
+        JSONObject footer = null;
+
+        while (footer == null) {
+            long offset = position;
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                report.problem = "Backup is truncated at offset " + offset;
+                break;
+            }
+            if (length <= BackupUtils.IV_LENGTH_BYTES || length > BackupUtils.MAX_SEGMENT_BYTES) {
+                // Framing is lost; nothing after this point can be located
+                report.problem = "Corrupted segment length at offset " + offset;
+                break;
+            }
+            if (raw.length < length) {
+                raw = new byte[length];
+                plain = new byte[length];
+            }
+            try {
+                in.readFully(raw, 0, length);
+            } catch (EOFException e) {
+                report.problem = "Backup is truncated at offset " + offset;
+                break;
+            }
+            position += 4 + length;
+            report.segments++;
+
+            int plainLength;
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(
+                        BackupUtils.GCM_TAG_LENGTH_BITS, raw, 0, BackupUtils.IV_LENGTH_BYTES));
+                cipher.updateAAD(BackupWriter.segmentAad(index));
+                plainLength = cipher.doFinal(raw, BackupUtils.IV_LENGTH_BYTES,
+                        length - BackupUtils.IV_LENGTH_BYTES, plain, 0);
+            } catch (AEADBadTagException e) {
+                if (index == 0) {
+                    report.problem = "Wrong password or corrupted header";
+                    break;
+                }
+                report.corruptOffsets.add(offset);
+                index++;
+                continue;
+            } catch (Exception e) {
+                throw new IOException("Decryption failed at offset " + offset, e);
+            }
+            index++;
+
+            if (plainLength < BackupWriter.SEGMENT_HEADER_BYTES) {
+                report.corruptOffsets.add(offset);
+                continue;
+            }
+            ByteBuffer header = ByteBuffer.wrap(plain, 0, BackupWriter.SEGMENT_HEADER_BYTES);
+            byte type = header.get();
+            byte flags = header.get();
+            int count = header.getInt();
+            byte[] body = plain;
+            int bodyOffset = BackupWriter.SEGMENT_HEADER_BYTES;
+            int bodyLength = plainLength - BackupWriter.SEGMENT_HEADER_BYTES;
+
+            try {
+                if ((flags & BackupUtils.FLAG_DEFLATE) != 0) {
+                    body = CompressionCodec.decompress(plain, bodyOffset, bodyLength,
+                            BackupUtils.MAX_SEGMENT_BYTES);
+                    bodyOffset = 0;
+                    bodyLength = body.length;
+                }
+
+                switch (type) {
+                    case BackupUtils.TYPE_HEADER:
+                        report.incremental = bodyJson(body, bodyOffset, bodyLength).has("baseId");
+                        break;
+                    case BackupUtils.TYPE_NOTES:
+                        report.notes += count;
+                        break;
+                    case BackupUtils.TYPE_TODOS:
+                        report.todos += count;
+                        break;
+                    case BackupUtils.TYPE_ATTACHMENT:
+                        if (blobRemaining != 0) {
+                            report.problem = "Attachment data missing before offset " + offset;
+                        }
+                        report.attachments += count;
+                        blobRemaining = BackupUtils.attachmentDataLength(
+                                bodyJson(body, bodyOffset, bodyLength));
+                        break;
+                    case BackupUtils.TYPE_BLOB_CHUNK:
+                        report.blobBytes += bodyLength;
+                        blobRemaining -= bodyLength;
+                        break;
+                    case BackupUtils.TYPE_END:
+                        footer = bodyJson(body, bodyOffset, bodyLength);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (org.json.JSONException | IOException e) {
+                report.corruptOffsets.add(offset);
+            }
+        }
+        report.bytesRead = position;
+
+        if (footer != null) {
+            if (blobRemaining != 0 && report.corruptOffsets.isEmpty()) {
+                report.problem = "Attachment data length mismatch";
+            }
+            if (footer.optInt("notes", -1) != report.notes
+                    || footer.optInt("todos", -1) != report.todos
+                    || footer.optInt("attachments", -1) != report.attachments
+                    || footer.optLong("segments", -1) != report.segments) {
+                if (report.problem == null) {
+                    report.problem = "Record counts do not match the footer";
+                }
+            }
+        } else if (report.problem == null) {
+            report.problem = "END segment missing";
+        }
+
+        report.ok = report.problem == null && report.corruptOffsets.isEmpty();
+    }
+
+    /** v1 backups are a single GCM blob: all we can do is decrypt it whole. */
+    private static void verifyLegacy(InputStream in, String backupPassword, Report report)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        report.bytesRead = baos.size();
+        report.segments = 1;
+        try {
+            String json = BackupUtils.decryptBackup(
+                    new String(baos.toByteArray(), StandardCharsets.UTF_8).trim(), backupPassword);
+            report.notes = BackupUtils.jsonToNotes(json).size();
+            report.ok = true;
+        } catch (RuntimeException e) {
+            report.problem = "Wrong password or corrupted backup";
+            report.corruptOffsets.add(0L);
+        }
+    }
+
+    private static JSONObject bodyJson(byte[] body, int offset, int length) throws org.json.JSONException {
+        return new JSONObject(new String(body, offset, length, StandardCharsets.UTF_8));
+    }
+}
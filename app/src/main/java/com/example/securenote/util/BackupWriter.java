@@ -0,0 +1,582 @@
+package com.example.securenote.util;
+
+import com.example.securenote.model.Attachment;
+import com.example.securenote.model.Note;
+import com.example.securenote.model.TodoItem;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Streaming writer for the segmented (v2) backup format.
+ *
+ * File layout:
+ *   MAGIC (4) | version (1) | salt (16) | segment...
+ *
+ * Each segment:
+ *   length (int, = iv + ciphertext) | iv (12) | AES-GCM( type (1) | flags (1) | count (int) | body )
+ *
+ * The segment index is bound as AAD, so segments cannot be reordered or dropped
+ * without failing authentication. The first segment is always TYPE_HEADER (backup id,
+ * and for incremental backups the id of the base it applies on top of); the last one
+ * is always TYPE_END, preceded by a TYPE_INDEX segment that maps note ids (and their
+ * titles) to the offsets of their note, todo and attachment segments.
+ *
+ * After END comes a small plaintext trailer so the index can be found by seeking:
+ *   index segment offset (long) | index segment number (long) | INDEX_MAGIC (4)
+ *
+ * Note titles and bodies and attachment data are written in plaintext, in BLOB_CHUNK_BYTES
+ * pieces for attachments, so the backup key is all a restore needs and any install can
+ * restore it. The header marks this with "portable"; backups without it carry Keystore
+ * ciphertext and only restore on the device that made them.
+ *
+ * Segments are independent, so with parallelism > 1 they are sealed on a worker pool
+ * while a single writer thread emits them in order. The in-flight queue is bounded,
+ * so at most about 2 * parallelism segments are held in memory at once.
+ */
+public class BackupWriter implements Closeable {
+
+    static final int SEGMENT_HEADER_BYTES = 6;   // type + flags + count
+    // Largest body whose framed segment stays within BackupUtils.MAX_SEGMENT_BYTES, the
+    // bound readers enforce (compression only ever makes the sealed segment smaller)
+    static final int MAX_BODY_BYTES = BackupUtils.MAX_SEGMENT_BYTES - BackupUtils.IV_LENGTH_BYTES
+            - BackupUtils.GCM_TAG_LENGTH_BITS / 8 - SEGMENT_HEADER_BYTES;
+
+    private final DataOutputStream out;
+    private final SecretKey key;
+
+    // Parallel mode only (null when sequential)
+    private final ExecutorService workers;
+    private final BlockingQueue<Future<Sealed>> inFlight;
+    private final Thread writerThread;
+    private volatile IOException writeError;
+
+    // Marker telling the writer thread that no more segments follow; never executed
+    private static final Future<Sealed> END_OF_QUEUE = new FutureTask<>(() -> null);
+
+    private final long startNanos = System.nanoTime();
+    private long bytesWritten = 0;      // written by the writer thread in parallel mode
+    private long plainBytes = 0;
+    private final AtomicLong storedPlainBytes = new AtomicLong();   // after compression
+
+    // File offsets of every non-blob segment, filled in as segments reach the output
+    private final Map<Long, Long> segmentOffsets = new ConcurrentHashMap<>();
+    private final Object writtenLock = new Object();
+    private long segmentsWritten = 0;
+
+    // Index data, resolved to offsets in close()
+    private final JSONArray indexNotes = new JSONArray();
+    private final Map<String, Set<Long>> todoSegmentsByNote = new HashMap<>();
+    private final Map<String, List<Long>> attachmentSegmentsByNote = new HashMap<>();
+
+    private long segmentIndex = 0;
+    private int noteCount = 0;
+    private int todoCount = 0;
+    private int attachmentCount = 0;
+    private long blobBytes = 0;
+    private int deleteCount = 0;
+    private boolean closed = false;
+
+    public BackupWriter(OutputStream rawOut, String backupPassword) throws IOException {
+        this(rawOut, backupPassword, UUID.randomUUID().toString(), null, 1);
+    }
+
+    /**
+     * @param baseId      id of the backup this one is a delta against, or null for a full backup
+     * @param parallelism number of threads sealing segments; 1 = everything on the caller thread
+     */
+    public BackupWriter(OutputStream rawOut, String backupPassword,
+                        String backupId, String baseId, int parallelism) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(rawOut, BackupUtils.BLOB_CHUNK_BYTES));
+
+        byte[] salt = BackupUtils.generateRandomBytes(BackupUtils.SALT_LENGTH_BYTES);
+        try {
+            this.key = BackupUtils.deriveKeyFromPassword(backupPassword, salt);
+        } catch (Exception e) {
+            throw new IOException("Failed to derive backup key", e);
+        }
+
+        out.write(BackupUtils.MAGIC);
+        out.writeByte(BackupUtils.FORMAT_VERSION);
+        out.write(salt);
+        bytesWritten = BackupUtils.MAGIC.length + 1 + salt.length;
+
+        if (parallelism > 1) {
+            workers = Executors.newFixedThreadPool(parallelism);
+            inFlight = new ArrayBlockingQueue<>(parallelism * 2);
+            writerThread = new Thread(this::drainInOrder, "backup-writer");
+            writerThread.start();
+        } else {
+            workers = null;
+            inFlight = null;
+            writerThread = null;
+        }
+
+        try {
+            JSONObject header = new JSONObject();
+            header.put("version", BackupUtils.FORMAT_VERSION);
+            header.put("exported_at", System.currentTimeMillis());
+            header.put("backupId", backupId);
+            header.put("portable", true);
+            if (baseId != null) header.put("baseId", baseId);
+            writeSegment(BackupUtils.TYPE_HEADER, 0, header.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (org.json.JSONException e) {
+            throw new IOException("Failed to write backup header", e);
+        }
+    }
+
+    // ---------- Records ----------
+
+    /** Notes with their title and full body decrypted (see BackupUtils.noteToPortableJson). */
+    public void writeNotes(List<Note> notes) throws IOException {
+        if (notes == null) return;
+        try {
+            List<JSONObject> records = new ArrayList<>(notes.size());
+            for (Note n : notes) records.add(BackupUtils.noteToPortableJson(n));
+            long[] segs = writeRecordSegments(BackupUtils.TYPE_NOTES, records);
+
+            for (int i = 0; i < notes.size(); i++) {
+                Note n = notes.get(i);
+                JSONObject entry = new JSONObject();
+                entry.put("id", n.getId());
+                entry.put("seg", segs[i]);
+                entry.put("plainTitle", n.getTitle() != null ? n.getTitle() : "");
+                entry.put("timestamp", n.getTimestamp());
+                entry.put("inTrash", n.isInTrash());
+                indexNotes.put(entry);
+            }
+        } catch (org.json.JSONException e) {
+            throw new IOException("Failed to serialize notes", e);
+        }
+        noteCount += notes.size();
+    }
+
+    public void writeTodos(List<TodoItem> todos) throws IOException {
+        if (todos == null) return;
+        try {
+            List<JSONObject> records = new ArrayList<>(todos.size());
+            for (TodoItem t : todos) records.add(BackupUtils.todoToJson(t));
+            long[] segs = writeRecordSegments(BackupUtils.TYPE_TODOS, records);
+
+            for (int i = 0; i < todos.size(); i++) {
+                TodoItem t = todos.get(i);
+                if (t.getNoteId() == null) continue;
+                Set<Long> noteSegs = todoSegmentsByNote.get(t.getNoteId());
+                if (noteSegs == null) {
+                    noteSegs = new TreeSet<>();
+                    todoSegmentsByNote.put(t.getNoteId(), noteSegs);
+                }
+                noteSegs.add(segs[i]);
+            }
+        } catch (org.json.JSONException e) {
+            throw new IOException("Failed to serialize todos", e);
+        }
+        todoCount += todos.size();
+    }
+
+    /**
+     * Writes records as JSON array segments of at most RECORDS_PER_SEGMENT records and
+     * SEGMENT_BUDGET_BYTES, so a run of large notes still yields segments readers accept.
+     * A record over the budget gets a segment of its own. Returns each record's segment.
+     */
+    private long[] writeRecordSegments(byte type, List<JSONObject> records) throws IOException {
+        long[] segs = new long[records.size()];
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int from = 0;
+        for (int i = 0; i <= records.size(); i++) {
+            byte[] record = i < records.size()
+                    ? records.get(i).toString().getBytes(StandardCharsets.UTF_8) : null;
+            if (record != null && record.length + 2 > MAX_BODY_BYTES) {
+                throw new IOException("Record " + records.get(i).optString("id")
+                        + " is too large for a backup segment");
+            }
+
+            // Flush before a record that would overflow the segment (+2: separator and ']')
+            boolean full = i - from == BackupUtils.RECORDS_PER_SEGMENT
+                    || (record != null && i > from
+                        && body.size() + record.length + 2 > BackupUtils.SEGMENT_BUDGET_BYTES);
+            if (i > from && (record == null || full)) {
+                body.write(']');
+                long seg = writeSegment(type, i - from, body.toByteArray());
+                Arrays.fill(segs, from, i, seg);
+                body.reset();
+                from = i;
+            }
+            if (record == null) break;
+
+            body.write(body.size() == 0 ? '[' : ',');
+            body.write(record);
+        }
+        return segs;
+    }
+
+    /**
+     * Writes the attachment row followed by its plaintext data (length bytes of in),
+     * chunk by chunk.
+     */
+    public void writeAttachment(Attachment attachment, InputStream in, long length) throws IOException {
+        try {
+            JSONObject meta = BackupUtils.attachmentToJson(attachment, length);
+            long seg = writeSegment(BackupUtils.TYPE_ATTACHMENT, 1,
+                    meta.toString().getBytes(StandardCharsets.UTF_8));
+
+            if (attachment.getNoteId() != null) {
+                List<Long> segs = attachmentSegmentsByNote.get(attachment.getNoteId());
+                if (segs == null) {
+                    segs = new ArrayList<>();
+                    attachmentSegmentsByNote.put(attachment.getNoteId(), segs);
+                }
+                segs.add(seg);
+            }
+        } catch (org.json.JSONException e) {
+            throw new IOException("Failed to serialize attachment", e);
+        }
+
+        long written = 0;
+        byte[] buffer = new byte[BackupUtils.BLOB_CHUNK_BYTES];
+        while (written < length) {
+            int n = readChunk(in, buffer, (int) Math.min(buffer.length, length - written));
+            if (n <= 0) {
+                throw new IOException("Attachment file shrank while exporting: " + attachment.getId());
+            }
+            writeSegment(BackupUtils.TYPE_BLOB_CHUNK, 0, buffer, n);
+            written += n;
+        }
+
+        attachmentCount++;
+        blobBytes += written;
+    }
+
+    /**
+     * Incremental backups only: ids that existed in the base backup but are gone now.
+     * Keys are BackupManifest sections, values are arrays of ids.
+     */
+    public void writeDeletes(JSONObject deletes, int count) throws IOException {
+        if (count == 0) return;
+        writeSegment(BackupUtils.TYPE_DELETES, count, deletes.toString().getBytes(StandardCharsets.UTF_8));
+        deleteCount += count;
+    }
+
+    public int getNoteCount() { return noteCount; }
+
+    public int getTodoCount() { return todoCount; }
+
+    public int getAttachmentCount() { return attachmentCount; }
+
+    public long getBlobBytes() { return blobBytes; }
+
+    public int getDeleteCount() { return deleteCount; }
+
+    /** Total bytes written to the output. Only final after close(). */
+    public long getBytesWritten() { return bytesWritten; }
+
+    /** Total plaintext bytes sealed into segments. */
+    public long getPlainBytes() { return plainBytes; }
+
+    /** Plaintext bytes actually encrypted, i.e. after compression. */
+    public long getStoredPlainBytes() { return storedPlainBytes.get(); }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        boolean writerStopped = writerThread == null;
+        try {
+            // The index needs final offsets, so wait until everything so far is on disk
+            awaitWritten();
+            long indexSeg = writeSegment(BackupUtils.TYPE_INDEX, indexNotes.length(),
+                    buildIndex().toString().getBytes(StandardCharsets.UTF_8));
+
+            JSONObject counts = new JSONObject();
+            counts.put("notes", noteCount);
+            counts.put("todos", todoCount);
+            counts.put("attachments", attachmentCount);
+            counts.put("blobBytes", blobBytes);
+            counts.put("deletes", deleteCount);
+            counts.put("segments", segmentIndex + 1);   // including this END segment
+            writeSegment(BackupUtils.TYPE_END, 0, counts.toString().getBytes(StandardCharsets.UTF_8));
+
+            if (!writerStopped) {
+                stopWriter();
+                writerStopped = true;
+                checkWriteError();
+            }
+
+            Long indexOffset = segmentOffsets.get(indexSeg);
+            out.writeLong(indexOffset != null ? indexOffset : -1L);
+            out.writeLong(indexSeg);
+            out.write(BackupUtils.INDEX_MAGIC);
+            out.flush();
+        } catch (org.json.JSONException e) {
+            throw new IOException("Failed to write backup footer", e);
+        } finally {
+            // Failed before the queue was ended: the writer thread is still waiting on it
+            if (!writerStopped) {
+                if (writeError == null) writeError = new IOException("Backup aborted");
+                try {
+                    stopWriter();
+                } catch (IOException e) {
+                    writerThread.interrupt();   // could not enqueue; end its take() instead
+                }
+            }
+            if (workers != null) workers.shutdownNow();
+            out.close();
+        }
+    }
+
+    /**
+     * Stops without writing the END segment, so the partial output is rejected on import.
+     */
+    public void abort() {
+        if (closed) return;
+        closed = true;
+        if (writeError == null) writeError = new IOException("Backup aborted");
+        try {
+            if (writerThread != null) stopWriter();
+        } catch (IOException ignored) {
+        } finally {
+            if (workers != null) workers.shutdownNow();
+            try { out.close(); } catch (IOException ignored) { }
+        }
+    }
+
+    // ---------- Internal helpers ----------
+
+    /** Ends the queue and waits until the writer thread has emitted everything before it. */
+    private void stopWriter() throws IOException {
+        enqueue(END_OF_QUEUE);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while finishing backup");
+        }
+    }
+
+    private long writeSegment(byte type, int count, byte[] body) throws IOException {
+        return writeSegment(type, count, body, body.length);
+    }
+
+    /** Returns the segment number (its position in the file, also used as AAD). */
+    private long writeSegment(byte type, int count, byte[] body, int bodyLength) throws IOException {
+        checkWriteError();
+        if (bodyLength > MAX_BODY_BYTES) {
+            // Readers would reject the whole backup at this segment
+            throw new IOException("Backup segment of " + bodyLength + " bytes exceeds the format limit");
+        }
+
+        // Copy on the caller thread: callers reuse their buffers (e.g. blob chunks)
+        byte[] plain = new byte[SEGMENT_HEADER_BYTES + bodyLength];
+        ByteBuffer.wrap(plain, 0, SEGMENT_HEADER_BYTES)
+                .put(type)
+                .put((byte) 0)
+                .putInt(count);
+        System.arraycopy(body, 0, plain, SEGMENT_HEADER_BYTES, bodyLength);
+        plainBytes += plain.length;
+
+        final long index = segmentIndex++;
+        final boolean track = type != BackupUtils.TYPE_BLOB_CHUNK;
+        if (workers == null) {
+            emit(seal(plain, index, track));
+        } else {
+            enqueue(workers.submit(() -> seal(plain, index, track)));
+        }
+        return index;
+    }
+
+    /** A sealed segment ready to be written. */
+    private static class Sealed {
+        final long index;
+        final boolean trackOffset;
+        final byte[] framed;
+
+        Sealed(long index, boolean trackOffset, byte[] framed) {
+            this.index = index;
+            this.trackOffset = trackOffset;
+            this.framed = framed;
+        }
+    }
+
+    /**
+     * Compresses (when worthwhile) and encrypts one segment, framed as length | iv | ciphertext.
+     * Runs on the worker threads in parallel mode, so compression scales with them. Blob
+     * chunks are not compressed: attachments are mostly JPEG, PNG or PDF, which Deflate
+     * cannot shrink, so trying would only cost CPU.
+     */
+    private Sealed seal(byte[] plain, long index, boolean trackOffset) throws IOException {
+        byte[] packed = plain[0] == BackupUtils.TYPE_BLOB_CHUNK ? null
+                : CompressionCodec.compress(plain, SEGMENT_HEADER_BYTES,
+                        plain.length - SEGMENT_HEADER_BYTES);
+        if (packed != null) {
+            byte[] header = new byte[SEGMENT_HEADER_BYTES + packed.length];
+            System.arraycopy(plain, 0, header, 0, SEGMENT_HEADER_BYTES);
+            header[1] |= BackupUtils.FLAG_DEFLATE;
+            System.arraycopy(packed, 0, header, SEGMENT_HEADER_BYTES, packed.length);
+            plain = header;
+        }
+        storedPlainBytes.addAndGet(plain.length);
+
+        byte[] iv = BackupUtils.generateRandomBytes(BackupUtils.IV_LENGTH_BYTES);
+        byte[] cipherBytes;
+        try {
+            Cipher cipher = Cipher.getInstance(BackupUtils.AES_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key,
+                    new GCMParameterSpec(BackupUtils.GCM_TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(segmentAad(index));
+            cipherBytes = cipher.doFinal(plain);
+        } catch (Exception e) {
+            throw new IOException("Failed to encrypt backup segment " + index, e);
+        }
+
+        byte[] framed = ByteBuffer.allocate(4 + iv.length + cipherBytes.length)
+                .putInt(iv.length + cipherBytes.length)
+                .put(iv)
+                .put(cipherBytes)
+                .array();
+        return new Sealed(index, trackOffset, framed);
+    }
+
+    /** Writes a sealed segment; only ever called from one thread at a time. */
+    private void emit(Sealed sealed) throws IOException {
+        if (sealed.trackOffset) segmentOffsets.put(sealed.index, bytesWritten);
+        out.write(sealed.framed);
+        bytesWritten += sealed.framed.length;
+        synchronized (writtenLock) {
+            segmentsWritten++;
+            writtenLock.notifyAll();
+        }
+    }
+
+    /** Blocks until every segment submitted so far has been written (or writing failed). */
+    private void awaitWritten() throws IOException {
+        synchronized (writtenLock) {
+            while (segmentsWritten < segmentIndex && writeError == null) {
+                try {
+                    writtenLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing backup");
+                }
+            }
+        }
+        checkWriteError();
+    }
+
+    private JSONObject buildIndex() throws org.json.JSONException {
+        JSONObject offsets = new JSONObject();
+        for (Map.Entry<Long, Long> e : segmentOffsets.entrySet()) {
+            offsets.put(String.valueOf(e.getKey()), e.getValue().longValue());
+        }
+
+        JSONObject todos = new JSONObject();
+        for (Map.Entry<String, Set<Long>> e : todoSegmentsByNote.entrySet()) {
+            todos.put(e.getKey(), new JSONArray(e.getValue()));
+        }
+
+        JSONObject attachments = new JSONObject();
+        for (Map.Entry<String, List<Long>> e : attachmentSegmentsByNote.entrySet()) {
+            attachments.put(e.getKey(), new JSONArray(e.getValue()));
+        }
+
+        JSONObject index = new JSONObject();
+        index.put("notes", indexNotes);
+        index.put("todos", todos);
+        index.put("attachments", attachments);
+        index.put("offsets", offsets);
+        return index;
+    }
+
+    /** Blocks while the in-flight queue is full, which is what bounds memory use. */
+    private void enqueue(Future<Sealed> future) throws IOException {
+        try {
+            inFlight.put(future);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing backup");
+        }
+    }
+
+    /** Writer thread: emits sealed segments strictly in submission order. */
+    private void drainInOrder() {
+        try {
+            while (true) {
+                Future<Sealed> next = inFlight.take();
+                if (next == END_OF_QUEUE) return;
+
+                // After a failure keep draining so producers never block on a full queue
+                if (writeError != null) {
+                    next.cancel(false);
+                    continue;
+                }
+
+                try {
+                    emit(next.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    writeError = cause instanceof IOException
+                            ? (IOException) cause
+                            : new IOException("Failed to seal backup segment", cause);
+                } catch (IOException e) {
+                    writeError = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            writeError = new InterruptedIOException("Backup writer interrupted");
+        }
+    }
+
+    private void checkWriteError() throws IOException {
+        IOException error = writeError;
+        if (error != null) throw error;
+    }
+
+    static byte[] segmentAad(long index) {
+        return ByteBuffer.allocate(8).putLong(index).array();
+    }
+
+    private static int readChunk(InputStream in, byte[] buffer, int wanted) throws IOException {
+        int total = 0;
+        while (total < wanted) {
+            int n = in.read(buffer, total, wanted - total);
+            if (n == -1) break;
+            total += n;
+        }
+        return total;
+    }
+}
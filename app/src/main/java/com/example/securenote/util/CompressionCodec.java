@@ -0,0 +1,163 @@
+package com.example.securenote.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate with a preset dictionary, applied before encryption (ciphertext does not compress).
+ *
+ * Note bodies are Html.toHtml output, which repeats the same paragraph and span markup on
+ * every line; backup records are JSON with fixed keys. Seeding Deflate with those strings
+ * lets even short notes compress well. The dictionary is part of the storage format: never
+ * edit it in place, add a new one behind a new flag instead.
+ */
+public class CompressionCodec {
+
+    // Inputs shorter than this rarely shrink enough to pay for the Deflate framing
+    private static final int MIN_INPUT_BYTES = 64;
+
+    /**
+     * Backup records as BackupUtils and BackupWriter emit them (index entries, attachment,
+     * todo and note records, whose bodies are JSON-escaped HTML), then raw Html.toHtml
+     * output as stored note bodies hold it. Most frequent last (Deflate prefers recent bytes).
+     */
+    private static final byte[] DICTIONARY = (
+            "],\"todos\":{},\"attachments\":{},\"offsets\":{\""
+                    + "{\"notes\":[{\"id\":\"\",\"seg\":,\"plainTitle\":\"\",\"timestamp\":,\"inTrash\":false},"
+                    + "{\"id\":\"\",\"noteId\":\"\",\"displayName\":\"\",\"mimeType\":\"application\\/pdf"
+                    + "\",\"mimeType\":\"image\\/jpeg\",\"sizeBytes\":,\"createdAt\":,\"blobId\":\""
+                    + "\",\"originalSizeBytes\":,\"plainLength\":"
+                    + "{\"id\":\"\",\"noteId\":\"\",\"text\":\"\",\"completed\":true,\"position\":"
+                    + "\",\"completed\":false,\"position\":,\"rank\":\"\",\"createdAt\":},"
+                    + "<ul>\\n<li>&nbsp;&#8226;<span style=\\\"color:#<font face=\\\"monospace\\\">"
+                    + "<\\/span><\\/font><br>\\n<\\/u><\\/i><\\/b><u><i><b>"
+                    + "<p dir=\\\"ltr\\\" style=\\\"margin-top:0; margin-bottom:0;\\\">"
+                    + "{\"id\":\"\",\"timestamp\":,\"pinned\":false,\"locked\":false,\"inTrash\":false,"
+                    + "\"trashedAt\":0,\"category\":\"Personal\",\"title\":\"\",\"content\":\""
+                    + "<\\/p>\\n<p dir=\\\"ltr\\\" style=\\\"margin-top:0; margin-bottom:0;\\\">"
+                    + "<ul>\n<li>&nbsp;&#8226;<tt><strike><sub><sup><blockquote><a href=\""
+                    + "<font face=\"monospace\"><font color =\"#<span style=\"color:#"
+                    + "<span style=\"background-color:#<span style=\"font-size:1.25em;\">"
+                    + "<p dir=\"ltr\" style=\"margin-top:0; margin-bottom:0; text-align:center;\">"
+                    + "<p dir=\"ltr\" style=\"margin-top:0; margin-bottom:0; text-align:end;\">"
+                    + "<p dir=\"ltr\" style=\"margin-top:0; margin-bottom:0;\">"
+                    + "</span></font><br>\n</u></i></b><u><i><b></p>\n<p dir=\"ltr\">"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private static volatile boolean enabled = true;
+
+    private static final AtomicLong rawBytes = new AtomicLong();
+    private static final AtomicLong compressedBytes = new AtomicLong();
+
+    private CompressionCodec() { }
+
+    /** Turns compression of new writes on or off; existing data stays readable either way. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compresses data with the shared dictionary, or returns null when compression is
+     * disabled or would not make the data smaller (the caller then stores it as-is).
+     */
+    public static byte[] compress(byte[] data, int offset, int length) {
+        if (!enabled || length < MIN_INPUT_BYTES) return null;
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+
+            // Anything at least as large as the input is useless, so cap the buffer there
+            byte[] out = new byte[length];
+            int written = 0;
+            while (!deflater.finished()) {
+                if (written == out.length) return null;
+                written += deflater.deflate(out, written, out.length - written);
+            }
+            if (written >= length) return null;
+
+            rawBytes.addAndGet(length);
+            compressedBytes.addAndGet(written);
+            byte[] result = new byte[written];
+            System.arraycopy(out, 0, result, 0, written);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] compress(byte[] data) {
+        return compress(data, 0, data.length);
+    }
+
+    /**
+     * Inverse of compress(). maxLength bounds the output so a corrupted or hostile
+     * input cannot expand into an out-of-memory error.
+     */
+    public static byte[] decompress(byte[] data, int offset, int length, int maxLength) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            // Raw (nowrap) inflate needs one trailing dummy byte to detect the end of stream
+            byte[] input = new byte[length + 1];
+            System.arraycopy(data, offset, input, 0, length);
+            inflater.setInput(input);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxLength, length * 4));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                if (out.size() + n > maxLength) {
+                    throw new IOException("Compressed data expands beyond " + maxLength + " bytes");
+                }
+                out.write(buffer, 0, n);
+            }
+            if (!inflater.finished()) throw new IOException("Compressed data is truncated");
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed data is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public static byte[] decompress(byte[] data, int maxLength) throws IOException {
+        return decompress(data, 0, data.length, maxLength);
+    }
+
+    // ---------- Metrics ----------
+
+    /** Bytes fed into compress() (only counting calls that produced smaller output). */
+    public static long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    public static long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /** Raw / compressed size since process start; 1.0 if nothing was compressed. */
+    public static double getRatio() {
+        long out = compressedBytes.get();
+        return out == 0 ? 1.0 : (double) rawBytes.get() / out;
+    }
+
+    /** e.g. "3.4x (812.0 KB -> 238.8 KB)" */
+    public static String getRatioDisplayString() {
+        return String.format(Locale.US, "%.1fx (%.1f KB -> %.1f KB)",
+                getRatio(), rawBytes.get() / 1024.0, compressedBytes.get() / 1024.0);
+    }
+}
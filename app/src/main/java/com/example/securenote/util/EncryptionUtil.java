@@ -3,68 +3,200 @@ package com.example.securenote.util;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 
 import android.util.Base64;
+import android.util.Base64InputStream;
 
 
 
+/**
+ * Keystore-backed AES-GCM for everything stored in Room and the attachments dir.
+ *
+ * Ciphertext layout (Base64):
+ *   legacy: int ivLength | iv | ct                          - first byte is always 0x00
+ *   v1:     0x01 | flags | iv (12) | ct                     - 2 header bytes are GCM AAD
+ *   v2:     0x02 | flags | keyVersion (int) | iv (12) | ct  - 6 header bytes are GCM AAD
+ *
+ * FLAG_DEFLATE means the plaintext was run through CompressionCodec before encryption.
+ *
+ * Attachment blobs use the v2 layout in binary form (see encryptStream).
+ *
+ * Key version 0 is the original "secure_note_key" alias; rotation adds
+ * "secure_note_key_v1", "_v2", ... and the highest one encrypts new data. Legacy and v1
+ * values are always version 0. Old keys are kept so older rows and backups stay readable.
+ */
 public class EncryptionUtil {
 
     private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
     private static final String KEY_ALIAS = "secure_note_key";
+    private static final String VERSIONED_ALIAS_PREFIX = KEY_ALIAS + "_v";
+    private static final String MAC_KEY_ALIAS = "secure_note_blob_mac";
 
-    private static void generateKeyIfNeeded() throws Exception {
+    private static final byte FORMAT_V1 = 0x01;
+    private static final byte FORMAT_V2 = 0x02;
+    private static final int HEADER_V1_BYTES = 2;
+    private static final int HEADER_V2_BYTES = 6;
+    private static final int IV_LENGTH_BYTES = 12;
+    public static final byte FLAG_DEFLATE = 0x01;
+
+    // Upper bound for a decompressed value; far above any note the editor can produce
+    private static final int MAX_PLAIN_BYTES = 64 * 1024 * 1024;
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+
+    // Keystore lookups are slow (binder calls), so keys are resolved once per version
+    private static final Map<Integer, SecretKey> keyCache = new ConcurrentHashMap<>();
+    private static volatile int currentKeyVersion = -1;
+
+    private static String aliasFor(int keyVersion) {
+        return keyVersion == 0 ? KEY_ALIAS : VERSIONED_ALIAS_PREFIX + keyVersion;
+    }
+
+    private static void generateKey(String alias) throws Exception {
+        KeyGenParameterSpec keySpec = new KeyGenParameterSpec.Builder(
+                alias,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT
+        )
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setUserAuthenticationRequired(false)
+                .build();
+
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(
+                KeyProperties.KEY_ALGORITHM_AES,
+                ANDROID_KEY_STORE
+        );
+        keyGenerator.init(keySpec);
+        keyGenerator.generateKey();
+    }
+
+    private static KeyStore loadKeyStore() throws Exception {
         KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
         keyStore.load(null);
+        return keyStore;
+    }
+
+    /** Highest key version present in the Keystore, creating version 0 on first use. */
+    public static synchronized int getCurrentKeyVersion() {
+        if (currentKeyVersion >= 0) return currentKeyVersion;
+        try {
+            KeyStore keyStore = loadKeyStore();
+            if (!keyStore.containsAlias(KEY_ALIAS)) {
+                generateKey(KEY_ALIAS);
+            }
 
-        if (!keyStore.containsAlias(KEY_ALIAS)) {
-            KeyGenParameterSpec keySpec = new KeyGenParameterSpec.Builder(
-                    KEY_ALIAS,
-                    KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT
-            )
-                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
-                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
-                    .setUserAuthenticationRequired(false)
-                    .build();
-
-            KeyGenerator keyGenerator = KeyGenerator.getInstance(
-                    KeyProperties.KEY_ALGORITHM_AES,
-                    ANDROID_KEY_STORE
-            );
-            keyGenerator.init(keySpec);
-            keyGenerator.generateKey();
+            int highest = 0;
+            Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                if (!alias.startsWith(VERSIONED_ALIAS_PREFIX)) continue;
+                try {
+                    highest = Math.max(highest,
+                            Integer.parseInt(alias.substring(VERSIONED_ALIAS_PREFIX.length())));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            currentKeyVersion = highest;
+            return highest;
+        } catch (Exception e) {
+            throw new RuntimeException("Keystore unavailable", e);
         }
     }
 
-    private static SecretKey getSecretKey() throws Exception {
-        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
-        keyStore.load(null);
+    /** The version the next rotation should create; has no side effects. */
+    public static synchronized int nextKeyVersion() {
+        return getCurrentKeyVersion() + 1;
+    }
+
+    /**
+     * Makes keyVersion current for new writes, creating its key unless the alias already
+     * exists (safe to repeat after a crash). Existing data is untouched; re-encrypting it
+     * is KeyRotationManager's job.
+     */
+    public static synchronized void rotateKey(int keyVersion) {
+        try {
+            KeyStore keyStore = loadKeyStore();
+            if (!keyStore.containsAlias(aliasFor(keyVersion))) {
+                generateKey(aliasFor(keyVersion));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Key rotation failed", e);
+        }
+        currentKeyVersion = Math.max(getCurrentKeyVersion(), keyVersion);
+    }
+
+    private static SecretKey getSecretKey(int keyVersion) throws Exception {
+        SecretKey cached = keyCache.get(keyVersion);
+        if (cached != null) return cached;
+
         KeyStore.SecretKeyEntry entry =
-                (KeyStore.SecretKeyEntry) keyStore.getEntry(KEY_ALIAS, null);
-        return entry.getSecretKey();
+                (KeyStore.SecretKeyEntry) loadKeyStore().getEntry(aliasFor(keyVersion), null);
+        if (entry == null) {
+            throw new IllegalStateException("Missing key version " + keyVersion);
+        }
+        SecretKey key = entry.getSecretKey();
+        keyCache.put(keyVersion, key);
+        return key;
     }
 
     public static String encrypt(String plainText) {
+        return encrypt(plainText, false);
+    }
+
+    /**
+     * Like encrypt(), but compresses first when CompressionCodec is enabled and it helps.
+     * Meant for note bodies; short or already-dense values are stored uncompressed.
+     */
+    public static String encryptCompressed(String plainText) {
+        return encrypt(plainText, true);
+    }
+
+    private static String encrypt(String plainText, boolean compress) {
         if (plainText == null || plainText.isEmpty()) return plainText;
         try {
-            generateKeyIfNeeded();
-            SecretKey key = getSecretKey();
+            int keyVersion = getCurrentKeyVersion();
+            SecretKey key = getSecretKey(keyVersion);
+
+            byte[] payload = plainText.getBytes(StandardCharsets.UTF_8);
+            byte flags = 0;
+            if (compress) {
+                byte[] packed = CompressionCodec.compress(payload);
+                if (packed != null) {
+                    payload = packed;
+                    flags |= FLAG_DEFLATE;
+                }
+            }
+            byte[] header = ByteBuffer.allocate(HEADER_V2_BYTES)
+                    .put(FORMAT_V2)
+                    .put(flags)
+                    .putInt(keyVersion)
+                    .array();
 
             Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
             cipher.init(Cipher.ENCRYPT_MODE, key);
             byte[] iv = cipher.getIV();
-            byte[] cipherBytes = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+            cipher.updateAAD(header);
+            byte[] cipherBytes = cipher.doFinal(payload);
 
-            ByteBuffer buffer = ByteBuffer.allocate(4 + iv.length + cipherBytes.length);
-            buffer.putInt(iv.length);
+            ByteBuffer buffer = ByteBuffer.allocate(header.length + iv.length + cipherBytes.length);
+            buffer.put(header);
             buffer.put(iv);
             buffer.put(cipherBytes);
 
@@ -77,8 +209,16 @@ public class EncryptionUtil {
     public static String decrypt(String cipherText) {
         if (cipherText == null || cipherText.isEmpty()) return cipherText;
         try {
-            SecretKey key = getSecretKey();
             byte[] data = Base64.decode(cipherText, Base64.NO_WRAP);
+            if (data.length > 0 && data[0] == FORMAT_V2) {
+                int keyVersion = ByteBuffer.wrap(data, 2, 4).getInt();
+                return decryptWithHeader(getSecretKey(keyVersion), data, HEADER_V2_BYTES);
+            }
+            if (data.length > 0 && data[0] == FORMAT_V1) {
+                return decryptWithHeader(getSecretKey(0), data, HEADER_V1_BYTES);
+            }
+
+            SecretKey key = getSecretKey(0);
             ByteBuffer buffer = ByteBuffer.wrap(data);
             int ivLength = buffer.getInt();
             byte[] iv = new byte[ivLength];
@@ -96,4 +236,199 @@ public class EncryptionUtil {
             throw new RuntimeException("Decryption failed", e);
         }
     }
+
+    private static String decryptWithHeader(SecretKey key, byte[] data, int headerBytes) throws Exception {
+        byte flags = data[1];
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(128, data, headerBytes, IV_LENGTH_BYTES));
+        cipher.updateAAD(data, 0, headerBytes);
+        int offset = headerBytes + IV_LENGTH_BYTES;
+        byte[] payload = cipher.doFinal(data, offset, data.length - offset);
+
+        if ((flags & FLAG_DEFLATE) != 0) {
+            payload = CompressionCodec.decompress(payload, MAX_PLAIN_BYTES);
+        }
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    /** True if the value uses the layout encrypt() writes today (empty values count as current). */
+    public static boolean isCurrentFormat(String cipherText) {
+        if (cipherText == null || cipherText.isEmpty()) return true;
+        byte[] head = Base64.decode(cipherText.substring(0, Math.min(4, cipherText.length())),
+                Base64.NO_WRAP);
+        return head.length > 0 && head[0] == FORMAT_V2;
+    }
+
+    /** Key version a value was encrypted with, read from its header without decrypting. */
+    public static int keyVersionOf(String cipherText) {
+        if (cipherText == null || cipherText.isEmpty()) return getCurrentKeyVersion();
+        // 8 Base64 chars = 6 bytes, exactly the v2 header
+        byte[] head = Base64.decode(cipherText.substring(0, Math.min(8, cipherText.length())),
+                Base64.NO_WRAP);
+        if (head.length >= HEADER_V2_BYTES && head[0] == FORMAT_V2) {
+            return ByteBuffer.wrap(head, 2, 4).getInt();
+        }
+        return 0;
+    }
+
+    // ---------- Streams (attachment blobs) ----------
+
+    /**
+     * Encrypts a stream into the binary v2 layout (header | iv | ct, no Base64), so large
+     * attachments never have to be held in memory as a String. Closes neither stream.
+     *
+     * @return number of plaintext bytes read
+     */
+    public static long encryptStream(InputStream in, OutputStream out) throws IOException {
+        try {
+            Cipher cipher = startStream(out);
+
+            byte[] buffer = new byte[STREAM_BUFFER_BYTES];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                byte[] chunk = cipher.update(buffer, 0, read);
+                if (chunk != null) out.write(chunk);
+                total += read;
+            }
+            out.write(cipher.doFinal());
+            return total;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Encryption failed", e);
+        }
+    }
+
+    /**
+     * Write side of encryptStream(): plaintext written to the returned stream is encrypted
+     * into out in the same layout. Closing it completes the data and closes out.
+     */
+    public static OutputStream encryptingStream(OutputStream out) throws IOException {
+        try {
+            return new CipherOutputStream(out, startStream(out));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Encryption failed", e);
+        }
+    }
+
+    /** Writes the stream header and IV to out; returns the cipher for the data after them. */
+    private static Cipher startStream(OutputStream out) throws Exception {
+        int keyVersion = getCurrentKeyVersion();
+        byte[] header = ByteBuffer.allocate(HEADER_V2_BYTES)
+                .put(FORMAT_V2)
+                .put((byte) 0)
+                .putInt(keyVersion)
+                .array();
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(keyVersion));
+        cipher.updateAAD(header);
+        out.write(header);
+        out.write(cipher.getIV());
+        return cipher;
+    }
+
+    /** Returns a stream of the plaintext of data written by encryptStream(). */
+    public static InputStream decryptStream(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        byte[] header = new byte[HEADER_V2_BYTES];
+        din.readFully(header);
+        if (header[0] != FORMAT_V2) {
+            throw new IOException("Unknown encrypted stream format " + header[0]);
+        }
+        byte[] iv = new byte[IV_LENGTH_BYTES];
+        din.readFully(iv);
+
+        try {
+            int keyVersion = ByteBuffer.wrap(header, 2, 4).getInt();
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, getSecretKey(keyVersion), new GCMParameterSpec(128, iv));
+            cipher.updateAAD(header);
+            return new CipherInputStream(in, cipher);
+        } catch (Exception e) {
+            throw new IOException("Decryption failed", e);
+        }
+    }
+
+    /**
+     * Plaintext of a value written by encrypt(), decrypted as it is read from the value's
+     * Base64 text, so a large value is never held in memory whole. Handles all three layouts.
+     * Returns null for compressed values, which can only be decrypted whole (see decrypt());
+     * in is then partly consumed and should be closed.
+     */
+    public static InputStream decryptTextStream(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(new Base64InputStream(in, Base64.NO_WRAP));
+        try {
+            int format = din.readUnsignedByte();
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            if (format == FORMAT_V2 || format == FORMAT_V1) {
+                byte[] header = new byte[format == FORMAT_V2 ? HEADER_V2_BYTES : HEADER_V1_BYTES];
+                header[0] = (byte) format;
+                din.readFully(header, 1, header.length - 1);
+                if ((header[1] & FLAG_DEFLATE) != 0) return null;
+                int keyVersion = format == FORMAT_V2 ? ByteBuffer.wrap(header, 2, 4).getInt() : 0;
+                byte[] iv = new byte[IV_LENGTH_BYTES];
+                din.readFully(iv);
+                cipher.init(Cipher.DECRYPT_MODE, getSecretKey(keyVersion), new GCMParameterSpec(128, iv));
+                cipher.updateAAD(header);
+            } else {
+                // Legacy: int ivLength | iv | ct, no AAD
+                int ivLength = (format << 24) | (din.readUnsignedByte() << 16)
+                        | (din.readUnsignedByte() << 8) | din.readUnsignedByte();
+                if (ivLength <= 0 || ivLength > 64) {
+                    throw new IOException("Corrupted ciphertext header");
+                }
+                byte[] iv = new byte[ivLength];
+                din.readFully(iv);
+                cipher.init(Cipher.DECRYPT_MODE, getSecretKey(0), new GCMParameterSpec(128, iv));
+            }
+            return new CipherInputStream(din, cipher);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Decryption failed", e);
+        }
+    }
+
+    /** Key version of data written by encryptStream(), from its first bytes. */
+    public static int keyVersionOfStream(byte[] head, int length) {
+        if (length >= HEADER_V2_BYTES && head[0] == FORMAT_V2) {
+            return ByteBuffer.wrap(head, 2, 4).getInt();
+        }
+        return 0;
+    }
+
+    public static int streamHeaderLength() {
+        return HEADER_V2_BYTES;
+    }
+
+    // ---------- Keyed content hash ----------
+
+    /**
+     * HMAC-SHA256 keyed with a Keystore key that never leaves the device. Used to name
+     * attachment blobs by content without the name revealing what the content is.
+     */
+    public static Mac newContentMac() {
+        try {
+            KeyStore keyStore = loadKeyStore();
+            if (!keyStore.containsAlias(MAC_KEY_ALIAS)) {
+                KeyGenerator keyGenerator = KeyGenerator.getInstance(
+                        KeyProperties.KEY_ALGORITHM_HMAC_SHA256, ANDROID_KEY_STORE);
+                keyGenerator.init(new KeyGenParameterSpec.Builder(
+                        MAC_KEY_ALIAS, KeyProperties.PURPOSE_SIGN).build());
+                keyGenerator.generateKey();
+            }
+            SecretKey key = (SecretKey) keyStore.getKey(MAC_KEY_ALIAS, null);
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        } catch (Exception e) {
+            throw new RuntimeException("Content hash unavailable", e);
+        }
+    }
 }
@@ -0,0 +1,244 @@
+package com.example.securenote.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import com.example.securenote.MyApp;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Optional import stage for image attachments: camera photos are decoded with
+ * inSampleSize (never at full resolution), scaled to a maximum edge and re-encoded.
+ * The result is only used if it is smaller than the original.
+ *
+ * Settings live in the MyApp.PREFS_STORAGE SharedPreferences; see Options.
+ */
+public class ImageTranscoder {
+
+    private static final String KEY_MAX_DIMENSION = "image_max_dimension";
+    private static final String KEY_QUALITY = "image_quality";
+    private static final String KEY_KEEP_ORIGINAL = "keep_original_images";
+
+    public static final String TEMP_PREFIX = "import_";
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    // A sampled decode can still be close to 50 MB for a 12 MP photo; attachments are imported
+    // in parallel, but only one of them may hold such a bitmap at a time
+    private static final Semaphore DECODE_PERMIT = new Semaphore(1);
+
+    /** Import settings; keepOriginal = store images exactly as picked. */
+    public static class Options {
+        public final int maxDimension;
+        public final int quality;
+        public final boolean keepOriginal;
+
+        public Options(int maxDimension, int quality, boolean keepOriginal) {
+            this.maxDimension = maxDimension;
+            this.quality = quality;
+            this.keepOriginal = keepOriginal;
+        }
+
+        public static Options load(Context context) {
+            SharedPreferences prefs =
+                    context.getSharedPreferences(MyApp.PREFS_STORAGE, Context.MODE_PRIVATE);
+            return new Options(
+                    prefs.getInt(KEY_MAX_DIMENSION, 2048),
+                    prefs.getInt(KEY_QUALITY, 85),
+                    prefs.getBoolean(KEY_KEEP_ORIGINAL, false));
+        }
+
+        public void save(Context context) {
+            context.getSharedPreferences(MyApp.PREFS_STORAGE, Context.MODE_PRIVATE).edit()
+                    .putInt(KEY_MAX_DIMENSION, maxDimension)
+                    .putInt(KEY_QUALITY, quality)
+                    .putBoolean(KEY_KEEP_ORIGINAL, keepOriginal)
+                    .apply();
+        }
+    }
+
+    /** A transcoded image in a temp file; the caller deletes the file when done with it. */
+    public static class Result {
+        public final File file;
+        public final String mimeType;
+        public final long originalBytes;
+
+        Result(File file, String mimeType, long originalBytes) {
+            this.file = file;
+            this.mimeType = mimeType;
+            this.originalBytes = originalBytes;
+        }
+    }
+
+    private ImageTranscoder() { }
+
+    /**
+     * Transcodes the image at source into tempDir, or returns null if it should be stored
+     * as-is: not a still image, already within maxDimension, keepOriginal set, or the
+     * result would not be smaller.
+     */
+    public static Result transcode(Context context, Uri source, String mimeType,
+                                   Options options, File tempDir) throws IOException {
+        if (options.keepOriginal || options.maxDimension <= 0 || !isTranscodable(mimeType)) {
+            return null;
+        }
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) return null;
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        int longer = Math.max(bounds.outWidth, bounds.outHeight);
+        if (longer <= options.maxDimension) return null;
+
+        // Largest power-of-two step that still leaves at least maxDimension pixels
+        BitmapFactory.Options decode = new BitmapFactory.Options();
+        decode.inSampleSize = 1;
+        while (longer / (decode.inSampleSize * 2) >= options.maxDimension) {
+            decode.inSampleSize *= 2;
+        }
+
+        try {
+            DECODE_PERMIT.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Interrupted while waiting to decode");
+        }
+        long originalBytes;
+        boolean png;
+        File out = new File(tempDir, TEMP_PREFIX + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            Bitmap bitmap;
+            try (CountingInputStream in = new CountingInputStream(
+                    context.getContentResolver().openInputStream(source))) {
+                bitmap = BitmapFactory.decodeStream(in, null, decode);
+                in.drain();
+                originalBytes = in.count;
+            }
+            if (bitmap == null) return null;
+
+            bitmap = scaleAndRotate(bitmap, options.maxDimension, readOrientation(context, source));
+
+            png = bitmap.hasAlpha();
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out))) {
+                bitmap.compress(png ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                        options.quality, os);
+            } catch (IOException e) {
+                //noinspection ResultOfMethodCallIgnored
+                out.delete();
+                throw e;
+            } finally {
+                bitmap.recycle();
+            }
+        } finally {
+            DECODE_PERMIT.release();
+        }
+        String outMime = png ? "image/png" : "image/jpeg";
+
+        if (out.length() >= originalBytes) {
+            //noinspection ResultOfMethodCallIgnored
+            out.delete();
+            return null;
+        }
+        return new Result(out, outMime, originalBytes);
+    }
+
+    /** "IMG_1.heic" -> "IMG_1.jpg" when the format changed. */
+    public static String renameFor(String displayName, String mimeType) {
+        String ext = "image/png".equals(mimeType) ? ".png" : ".jpg";
+        int dot = displayName.lastIndexOf('.');
+        String base = dot > 0 ? displayName.substring(0, dot) : displayName;
+        return base + ext;
+    }
+
+    private static boolean isTranscodable(String mimeType) {
+        // GIFs may be animated and SVGs are not bitmaps; leave both alone
+        return mimeType != null
+                && (mimeType.equals("image/jpeg") || mimeType.equals("image/png")
+                || mimeType.equals("image/webp") || mimeType.equals("image/heic")
+                || mimeType.equals("image/heif"));
+    }
+
+    private static Bitmap scaleAndRotate(Bitmap bitmap, int maxDimension, int orientation) {
+        Matrix matrix = new Matrix();
+        int longer = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longer > maxDimension) {
+            float scale = (float) maxDimension / longer;
+            matrix.postScale(scale, scale);
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:  matrix.postRotate(90);  break;
+            case ExifInterface.ORIENTATION_ROTATE_180: matrix.postRotate(180); break;
+            case ExifInterface.ORIENTATION_ROTATE_270: matrix.postRotate(270); break;
+            default: break;
+        }
+        if (matrix.isIdentity()) return bitmap;
+
+        Bitmap result = Bitmap.createBitmap(bitmap, 0, 0,
+                bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (result != bitmap) bitmap.recycle();
+        return result;
+    }
+
+    /** Re-encoding drops EXIF, so the rotation it describes is applied to the pixels. */
+    private static int readOrientation(Context context, Uri source) {
+        try (InputStream in = context.getContentResolver().openInputStream(source)) {
+            if (in == null) return ExifInterface.ORIENTATION_NORMAL;
+            return new ExifInterface(in).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException | RuntimeException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) throws IOException {
+            super(in);
+            if (in == null) throw new IOException("Cannot open image");
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        /** Reads what the decoder left unread, so count is the full size. */
+        void drain() throws IOException {
+            byte[] buffer = new byte[8192];
+            //noinspection StatementWithEmptyBody
+            while (read(buffer, 0, buffer.length) != -1) { }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.securenote.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a large note body (the HTML from Html.toHtml) into blocks for note_blocks.
+ *
+ * Cuts fall on line ends (Html.toHtml ends every paragraph with a newline), and a line
+ * ends a block when its own hash says so, not when a size is reached. An edit therefore
+ * only changes the block it falls in: boundaries before and after it stay where they were,
+ * so the blocks there are byte-identical to the stored ones and are not rewritten.
+ * Size limits keep blocks between MIN_BLOCK and (roughly) MAX_BLOCK characters.
+ */
+public final class NoteBlocks {
+
+    /** Bodies at least this long are stored as blocks; shorter ones stay inline. */
+    public static final int CHUNK_THRESHOLD = 64 * 1024;
+
+    static final int MIN_BLOCK = 2 * 1024;
+    static final int MAX_BLOCK = 16 * 1024;
+    // A line ends a block with probability 1/8 (once MIN_BLOCK is reached)
+    private static final int BOUNDARY_MASK = 0x7;
+
+    private static final int PREVIEW_LENGTH = 2 * 1024;
+
+    private NoteBlocks() { }
+
+    public static boolean shouldChunk(String html) {
+        return html != null && html.length() >= CHUNK_THRESHOLD;
+    }
+
+    /** Blocks that concatenate back to html exactly. */
+    public static List<String> split(String html) {
+        List<String> blocks = new ArrayList<>();
+        int start = 0;
+        int lineStart = 0;
+        int length = html.length();
+        while (lineStart < length) {
+            int newline = html.indexOf('\n', lineStart);
+            int lineEnd = newline < 0 ? length : newline + 1;
+
+            int size = lineEnd - start;
+            boolean boundary = size >= MAX_BLOCK
+                    || (size >= MIN_BLOCK && (lineHash(html, lineStart, lineEnd) & BOUNDARY_MASK) == 0);
+            if (boundary) {
+                blocks.add(html.substring(start, lineEnd));
+                start = lineEnd;
+            }
+            lineStart = lineEnd;
+        }
+        if (start < length) blocks.add(html.substring(start));
+        return blocks;
+    }
+
+    /** Leading paragraphs of html for the note list, cut at a line end. */
+    public static String preview(String html) {
+        if (html.length() <= PREVIEW_LENGTH) return html;
+        int cut = html.lastIndexOf('\n', PREVIEW_LENGTH);
+        return cut > 0 ? html.substring(0, cut + 1) : html.substring(0, PREVIEW_LENGTH);
+    }
+
+    // String.hashCode()'s polynomial over one line; stable across runs and devices
+    private static int lineHash(String s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) h = 31 * h + s.charAt(i);
+        // Mix the low bits, which the mask looks at
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
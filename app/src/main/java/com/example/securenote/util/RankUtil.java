@@ -0,0 +1,92 @@
+package com.example.securenote.util;
+
+/**
+ * Fractional rank keys for ordered lists (todo items).
+ *
+ * A rank is a string of base-62 digits read as a fraction (0.d1d2d3...), and rows are
+ * ordered by comparing ranks as plain strings. Between any two ranks there is always
+ * another one, so inserting or moving an item only writes that item's rank. Keys grow
+ * by about one digit per repeated insert at the same spot; spread() gives a list fresh
+ * short keys when they get long.
+ *
+ * Digits are ASCII-ordered ('0' < 'A' < 'a') so SQLite's default BINARY collation sorts
+ * them correctly. Keys never end in '0', which keeps string order equal to numeric order.
+ */
+public final class RankUtil {
+
+    private static final String DIGITS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final int BASE = DIGITS.length();
+
+    /** Ranks longer than this are a sign the list should be respread. */
+    public static final int REBALANCE_LENGTH = 12;
+
+    private RankUtil() { }
+
+    /**
+     * A rank strictly between before and after; null stands for the start or end of
+     * the list. Returns null if before is not less than after (duplicate ranks), in
+     * which case the list needs spread().
+     */
+    public static String between(String before, String after) {
+        if (before != null && after != null && before.compareTo(after) >= 0) return null;
+
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; ; i++) {
+            int low = before != null && i < before.length() ? digit(before.charAt(i)) : 0;
+            int high = after != null ? (i < after.length() ? digit(after.charAt(i)) : 0) : BASE;
+
+            if (low == high) {
+                key.append(DIGITS.charAt(low));
+                continue;
+            }
+            int mid = (low + high) / 2;
+            if (mid > low) {
+                key.append(DIGITS.charAt(mid));
+                return key.toString();
+            }
+            // Adjacent digits: keep low here; anything after it is below 'after' already
+            key.append(DIGITS.charAt(low));
+            after = null;
+        }
+    }
+
+    /** count evenly spaced, short ranks in ascending order, for (re)ranking a whole list. */
+    public static String[] spread(int count) {
+        // Leave room for ~6 inserts between neighbours before keys grow
+        int width = 1;
+        long space = BASE;
+        while (space < (count + 1) * 64L) {
+            width++;
+            space *= BASE;
+        }
+        long step = space / (count + 1);
+
+        String[] ranks = new String[count];
+        for (int i = 0; i < count; i++) {
+            ranks[i] = encode(step * (i + 1), width);
+        }
+        return ranks;
+    }
+
+    public static boolean needsRebalance(String rank) {
+        return rank == null || rank.length() > REBALANCE_LENGTH;
+    }
+
+    private static String encode(long value, int width) {
+        char[] chars = new char[width];
+        for (int i = width - 1; i >= 0; i--) {
+            chars[i] = DIGITS.charAt((int) (value % BASE));
+            value /= BASE;
+        }
+        int end = width;
+        while (end > 1 && chars[end - 1] == '0') end--;
+        return new String(chars, 0, end);
+    }
+
+    private static int digit(char c) {
+        int d = DIGITS.indexOf(c);
+        if (d < 0) throw new IllegalArgumentException("Not a rank digit: " + c);
+        return d;
+    }
+}
@@ -8,17 +8,30 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
 import androidx.lifecycle.Transformations;
 
+import com.example.securenote.data.AttachmentGarbageCollector;
+import com.example.securenote.data.AttachmentImporter;
+import com.example.securenote.data.AttachmentThumbnails;
+import com.example.securenote.data.KeyRotationManager;
 import com.example.securenote.data.NoteRepository;
+import com.example.securenote.data.TrashPurger;
 import com.example.securenote.model.Attachment;
 import com.example.securenote.model.Note;
+import com.example.securenote.model.NoteStorage;
+import com.example.securenote.model.StorageBucket;
+import com.example.securenote.model.StorageTotals;
 import com.example.securenote.model.TodoItem;
+import com.example.securenote.model.TodoProgress;
+import com.example.securenote.util.BackupStats;
+import com.example.securenote.util.BackupVerifier;
 import com.example.securenote.util.PasswordUtil;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 public class NoteViewModel extends AndroidViewModel {
 
@@ -37,6 +50,8 @@ public class NoteViewModel extends AndroidViewModel {
     private final MutableLiveData<List<Note>> filteredNotes = new MutableLiveData<>();
 
     private List<Note> latestSearchResults = new ArrayList<>();
+    // Bumped by every search, so that late results of an older query are dropped
+    private int searchGeneration = 0;
 
     public NoteViewModel(@NonNull Application application) {
         super(application);
@@ -96,21 +111,43 @@ public class NoteViewModel extends AndroidViewModel {
         // Note: Disini kita search pada SEMUA catatan aktif (allNotes.getValue())
         // sebelum filtering kategori diterapkan.
 
+        int generation = ++searchGeneration;
         if (query == null || query.trim().isEmpty()) {
             latestSearchResults = notes;
         } else {
             String lower = query.toLowerCase();
             List<Note> results = new ArrayList<>();
+            // Block-stored notes only have a preview here; their full bodies are searched below
+            List<Note> blockStored = new ArrayList<>();
             for (Note n : notes) {
                 boolean matchTitle = n.getTitle() != null && n.getTitle().toLowerCase().contains(lower);
                 boolean matchContent = n.getContent() != null && n.getContent().toLowerCase().contains(lower);
                 if (matchTitle || matchContent) results.add(n);
+                else if (n.isContentChunked()) blockStored.add(n);
             }
             latestSearchResults = results;
+            if (!blockStored.isEmpty()) searchBlockStoredBodies(blockStored, lower, generation);
         }
         applyFilterAndSort();
     }
 
+    private void searchBlockStoredBodies(List<Note> blockStored, String lower, int generation) {
+        LiveData<Set<String>> matches = noteRepository.findInBlockStoredBodies(blockStored, lower);
+        matches.observeForever(new Observer<Set<String>>() {
+            @Override
+            public void onChanged(Set<String> ids) {
+                matches.removeObserver(this);
+                if (generation != searchGeneration || ids == null || ids.isEmpty()) return;
+                List<Note> results = new ArrayList<>(latestSearchResults);
+                for (Note n : blockStored) {
+                    if (ids.contains(n.getId())) results.add(n);
+                }
+                latestSearchResults = results;
+                applyFilterAndSort();
+            }
+        });
+    }
+
     private void applyFilterAndSort() {
         // 1. Inisialisasi daftar dengan hasil pencarian/semua catatan
         List<Note> list = new ArrayList<>(latestSearchResults);
@@ -204,6 +241,10 @@ public class NoteViewModel extends AndroidViewModel {
 
     public void updateNote(Note note) { noteRepository.updateNote(note); }
 
+    public void saveEditedNote(Note note, boolean update, Runnable onSaved) {
+        noteRepository.saveEditedNote(note, update, onSaved);
+    }
+
     public void deleteNote(Note note) { deleteNote(note); }
 
     public void moveToTrash(Note note) { noteRepository.moveToTrash(note); }
@@ -212,20 +253,74 @@ public class NoteViewModel extends AndroidViewModel {
 
     public void deleteFromTrash(Note note) { noteRepository.deleteFromTrash(note); }
 
+    // Multi-select: one transaction for the whole selection
+
+    public void moveNotesToTrash(List<String> noteIds) { noteRepository.moveNotesToTrash(noteIds); }
+
+    public void restoreNotesFromTrash(List<String> noteIds) { noteRepository.restoreNotesFromTrash(noteIds); }
+
+    public void deleteNotesFromTrash(List<String> noteIds) { noteRepository.deleteNotesFromTrash(noteIds); }
+
+    public void setNotesPinned(List<String> noteIds, boolean pinned) {
+        noteRepository.setNotesPinned(noteIds, pinned);
+    }
+
+    public void setNotesCategory(List<String> noteIds, String category) {
+        noteRepository.setNotesCategory(noteIds, category);
+    }
+
+    public int getTrashRetentionDays() {
+        return TrashPurger.getInstance(getApplication()).getRetentionDays();
+    }
+
+    public void setTrashRetentionDays(int days) {
+        TrashPurger.getInstance(getApplication()).setRetentionDays(days);
+    }
+
     // ---------------------- TODO ACTIONS ----------------------
 
-    public LiveData<List<TodoItem>> getTodosByNoteId(String noteId) {
+    /** Full body of a note whose list entry only carries a preview (Note.isContentChunked()). */
+    public LiveData<String> loadNoteContent(String noteId) {
+        return noteRepository.loadNoteContent(noteId);
+    }
+
+    public LiveData<Long> loadNoteVersion(String noteId) {
+        return noteRepository.loadNoteVersion(noteId);
+    }
+
+        public LiveData<List<TodoItem>> getTodosByNoteId(String noteId) {
         return noteRepository.getTodosByNote(noteId);
     }
 
+    public LiveData<List<TodoProgress>> getTodoProgress() {
+        return noteRepository.getTodoProgress();
+    }
+
+    public LiveData<List<TodoItem>> loadOpenTodos(TodoItem after, int limit) {
+        return noteRepository.loadOpenTodos(after, limit);
+    }
+
     public void addTodoItem(TodoItem item) {
         noteRepository.addTodoItem(item);
     }
 
+    /** Adds item right after the item with id afterId (null = at the top). */
+    public void insertTodoAfter(TodoItem item, String afterId) {
+        noteRepository.insertTodoAfter(item, afterId);
+    }
+
+    public void moveTodoAfter(TodoItem item, String afterId) {
+        noteRepository.moveTodoAfter(item, afterId);
+    }
+
     public void updateTodoItem(TodoItem item) {
         noteRepository.updateTodoItem(item);
     }
 
+    public void flushTodoEdits() {
+        noteRepository.flushTodoEdits();
+    }
+
     public void deleteTodoItem(TodoItem item) {
         noteRepository.deleteTodoItem(item);
     }
@@ -244,6 +339,19 @@ public class NoteViewModel extends AndroidViewModel {
         noteRepository.addAttachmentToNote(context, noteId, uri);
     }
 
+    /** Imports several picked files concurrently; progress via getAttachmentImportProgress(). */
+    public void importAttachments(String noteId, List<Uri> uris) {
+        AttachmentImporter.getInstance(getApplication()).importAll(noteId, uris);
+    }
+
+    public LiveData<AttachmentImporter.Progress> getAttachmentImportProgress() {
+        return AttachmentImporter.getInstance(getApplication()).getProgressLiveData();
+    }
+
+    public void cancelAttachmentImport() {
+        AttachmentImporter.getInstance(getApplication()).cancel();
+    }
+
     public void deleteAttachment(Context context, Attachment attachment) {
         noteRepository.deleteAttachment(context, attachment);
     }
@@ -252,6 +360,89 @@ public class NoteViewModel extends AndroidViewModel {
         return noteRepository.loadAttachmentBytes(context, attachment);
     }
 
+    public AttachmentThumbnails getAttachmentThumbnails() {
+        return AttachmentThumbnails.getInstance(getApplication());
+    }
+
+    // ---------------------- BACKUP ----------------------
+
+    public LiveData<Integer> exportPlainJsonBackup(Context context, Uri target) {
+        return noteRepository.exportPlainJsonBackup(context, target);
+    }
+
+    public LiveData<Boolean> isPlainJsonBackup(Context context, Uri source) {
+        return noteRepository.isPlainJsonBackup(context, source);
+    }
+
+    public LiveData<Integer> importPlainJsonBackup(Context context, Uri source) {
+        return noteRepository.importPlainJsonBackup(context, source);
+    }
+
+    public LiveData<BackupStats> exportBackup(Context context, Uri target,
+                                              String backupPassword, boolean incremental) {
+        return noteRepository.exportBackup(context, target, backupPassword, incremental);
+    }
+
+    public LiveData<BackupVerifier.Report> verifyBackup(Context context, Uri source, String backupPassword) {
+        return noteRepository.verifyBackup(context, source, backupPassword);
+    }
+
+    public LiveData<Boolean> importBackup(Context context, Uri source, String backupPassword) {
+        return noteRepository.importBackup(context, source, backupPassword);
+    }
+
+    public LiveData<List<NoteRepository.BackupEntry>> listBackupContents(Context context, Uri source,
+                                                                      String backupPassword) {
+        return noteRepository.listBackupContents(context, source, backupPassword);
+    }
+
+    public LiveData<Integer> restoreNotesFromBackup(Context context, Uri source,
+                                                    String backupPassword, List<String> noteIds) {
+        return noteRepository.restoreNotesFromBackup(context, source, backupPassword, noteIds);
+    }
+
+    // ---------------------- STORAGE CLEANUP ----------------------
+
+    public LiveData<AttachmentGarbageCollector.Result> cleanUpStorage() {
+        return AttachmentGarbageCollector.getInstance(getApplication()).run();
+    }
+
+    // ---------------------- STORAGE USAGE ----------------------
+
+    public LiveData<StorageTotals> getStorageTotals() {
+        return noteRepository.getStorageTotals();
+    }
+
+    public LiveData<Long> getStoredAttachmentBytes() {
+        return noteRepository.getStoredAttachmentBytes();
+    }
+
+    public LiveData<List<NoteStorage>> getHeaviestNotes(int limit) {
+        return noteRepository.getHeaviestNotes(limit);
+    }
+
+    public LiveData<List<StorageBucket>> getStorageByCategory() {
+        return noteRepository.getStorageByCategory();
+    }
+
+    public LiveData<List<StorageBucket>> getStorageByMimeType() {
+        return noteRepository.getStorageByMimeType();
+    }
+
+    public LiveData<List<StorageBucket>> getStorageTrashVersusActive() {
+        return noteRepository.getStorageTrashVersusActive();
+    }
+
+    // ---------------------- KEY ROTATION ----------------------
+
+    public void rotateEncryptionKey() {
+        KeyRotationManager.getInstance(getApplication()).startRotation();
+    }
+
+    public LiveData<KeyRotationManager.Progress> getKeyRotationProgress() {
+        return KeyRotationManager.getInstance(getApplication()).getProgressLiveData();
+    }
+
     // ---------------------- PASSWORD ----------------------
 
     public boolean isPasswordCorrect(String raw, String hashed) {
@@ -0,0 +1,129 @@
+package com.example.securenote.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for NoteBlocks: blocks must reassemble the body exactly, and an edit
+ * must leave the blocks around it byte-identical so saves only rewrite what changed.
+ */
+public class NoteBlocksTest {
+
+    private static final String PARAGRAPH_START =
+            "<p dir=\"ltr\" style=\"margin-top:0; margin-bottom:0;\">";
+
+    /** About size characters of Html.toHtml-like paragraphs with varied text. */
+    private static String body(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder html = new StringBuilder();
+        int line = 0;
+        while (html.length() < size) {
+            html.append(PARAGRAPH_START).append("Line ").append(line++).append(':');
+            int words = 3 + random.nextInt(20);
+            for (int i = 0; i < words; i++) {
+                html.append(' ').append(Long.toString(random.nextLong() & 0xffffff, 36));
+            }
+            html.append("</p>\n");
+        }
+        return html.toString();
+    }
+
+    private static String join(List<String> blocks) {
+        StringBuilder html = new StringBuilder();
+        for (String b : blocks) html.append(b);
+        return html.toString();
+    }
+
+    /** Blocks of after that do not occur in before, counting duplicates. */
+    private static int changedBlocks(List<String> before, List<String> after) {
+        Map<String, Integer> stored = new HashMap<>();
+        for (String b : before) stored.merge(b, 1, Integer::sum);
+        int changed = 0;
+        for (String b : after) {
+            Integer n = stored.get(b);
+            if (n == null || n == 0) {
+                changed++;
+            } else {
+                stored.put(b, n - 1);
+            }
+        }
+        return changed;
+    }
+
+    @Test
+    public void split_concatenatesBackExactly() {
+        String html = body(500 * 1024, 1);
+        assertEquals(html, join(NoteBlocks.split(html)));
+
+        // No trailing newline, and a single line longer than MAX_BLOCK
+        String unterminated = html + "<p dir=\"ltr\">last</p>";
+        assertEquals(unterminated, join(NoteBlocks.split(unterminated)));
+        StringBuilder longLine = new StringBuilder();
+        while (longLine.length() < 3 * NoteBlocks.MAX_BLOCK) longLine.append("word ");
+        assertEquals(longLine.toString(), join(NoteBlocks.split(longLine.toString())));
+    }
+
+    @Test
+    public void split_keepsBlocksWithinBounds() {
+        List<String> blocks = NoteBlocks.split(body(500 * 1024, 2));
+        for (int i = 0; i < blocks.size() - 1; i++) {
+            assertTrue(blocks.get(i).length() >= NoteBlocks.MIN_BLOCK);
+        }
+    }
+
+    @Test
+    public void split_localEditChangesOneBlock() {
+        String html = body(500 * 1024, 3);
+        List<String> before = NoteBlocks.split(html);
+
+        // Edit words inside a paragraph in the middle of the body
+        int at = html.indexOf(PARAGRAPH_START, html.length() / 2) + PARAGRAPH_START.length();
+        String edited = html.substring(0, at) + "Edited " + html.substring(at);
+        List<String> after = NoteBlocks.split(edited);
+
+        assertEquals(edited, join(after));
+        assertEquals(1, changedBlocks(before, after));
+    }
+
+    @Test
+    public void split_insertedParagraphLeavesOtherBlocks() {
+        String html = body(500 * 1024, 4);
+        List<String> before = NoteBlocks.split(html);
+
+        int at = html.indexOf('\n', html.length() / 3) + 1;
+        String edited = html.substring(0, at) + PARAGRAPH_START + "A new paragraph</p>\n"
+                + html.substring(at);
+        List<String> after = NoteBlocks.split(edited);
+
+        assertEquals(edited, join(after));
+        // The new line may itself end a block, splitting the one it lands in in two
+        assertTrue(changedBlocks(before, after) <= 2);
+        assertTrue(after.size() - changedBlocks(before, after) >= before.size() - 1);
+    }
+
+    @Test
+    public void preview_cutsAtLineEnd() {
+        String html = body(100 * 1024, 5);
+        String preview = NoteBlocks.preview(html);
+        assertTrue(html.startsWith(preview));
+        assertTrue(preview.endsWith("\n"));
+        assertTrue(preview.length() <= 2 * 1024);
+
+        String shortBody = "<p dir=\"ltr\">short</p>\n";
+        assertEquals(shortBody, NoteBlocks.preview(shortBody));
+    }
+
+    @Test
+    public void shouldChunk_threshold() {
+        assertFalse(NoteBlocks.shouldChunk(null));
+        assertFalse(NoteBlocks.shouldChunk(body(NoteBlocks.CHUNK_THRESHOLD / 2, 6)));
+        assertTrue(NoteBlocks.shouldChunk(body(NoteBlocks.CHUNK_THRESHOLD, 7)));
+    }
+}